@@ -0,0 +1,114 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.data;
+
+/**
+ * A segment of the packet data of a replay in the segmented file format.
+ * Each segment is stored (and compressed) as its own entry of the replay file. The concatenation of all segments, in
+ * the order of the segment table, is equivalent to the packet data of a non-segmented replay.
+ * @see com.replaymod.replaystudio.replay.ReplayMetaData#SEGMENTED_FILE_FORMAT_VERSION
+ */
+public final class RecordingSegment {
+    private String name;
+    private int startTime;
+    private int endTime;
+    private long size;
+
+    /**
+     * @return Name of the replay file entry containing this segment
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return Timestamp of the first packet in this segment
+     */
+    public int getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(int startTime) {
+        this.startTime = startTime;
+    }
+
+    /**
+     * @return Timestamp of the last packet in this segment
+     */
+    public int getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(int endTime) {
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return Uncompressed size of this segment in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RecordingSegment)) return false;
+
+        RecordingSegment segment = (RecordingSegment) o;
+
+        if (startTime != segment.startTime) return false;
+        if (endTime != segment.endTime) return false;
+        if (size != segment.size) return false;
+        return !(name != null ? !name.equals(segment.name) : segment.name != null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name != null ? name.hashCode() : 0;
+        result = 31 * result + startTime;
+        result = 31 * result + endTime;
+        result = 31 * result + (int) (size ^ (size >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingSegment{" +
+                "name='" + name + '\'' +
+                ", startTime=" + startTime +
+                ", endTime=" + endTime +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -35,7 +35,7 @@ import org.apache.commons.lang3.mutable.MutableInt;
 import java.util.EnumMap;
 import java.util.Map;
 
-public class PacketCountFilter implements StreamFilter {
+public class PacketCountFilter implements StageSafeFilter {
 
     private final EnumMap<PacketType, MutableInt> count = new EnumMap<>(PacketType.class);
 
@@ -30,11 +30,13 @@ import com.replaymod.replaystudio.Studio;
 import com.replaymod.replaystudio.protocol.PacketType;
 import com.replaymod.replaystudio.stream.PacketStream;
 
+import java.util.EnumSet;
 import java.util.function.Predicate;
 
-public class RemoveFilter implements StreamFilter {
+public class RemoveFilter implements StageSafeFilter {
 
     private Predicate<PacketData> filter = packetData -> true;
+    private EnumSet<PacketType> types;
 
     @Override
     public String getName() {
@@ -47,9 +49,15 @@ public class RemoveFilter implements StreamFilter {
             String name = config.get("type").getAsString();
             PacketType type = PacketType.valueOf(name);
             filter = (d) -> d.getPacket().getType() == type;
+            types = EnumSet.of(type);
         }
     }
 
+    @Override
+    public EnumSet<PacketType> getPacketTypes() {
+        return types;
+    }
+
     @Override
     public void onStart(PacketStream stream) {
 
@@ -60,6 +68,18 @@ public class RemoveFilter implements StreamFilter {
         return !filter.test(data);
     }
 
+    @Override
+    public int onPackets(PacketStream stream, PacketData[] packets, int length) {
+        int kept = 0;
+        for (int i = 0; i < length; i++) {
+            PacketData data = packets[i];
+            if (!filter.test(data)) {
+                packets[kept++] = data;
+            }
+        }
+        return kept;
+    }
+
     @Override
     public void onEnd(PacketStream stream, long timestamp) {
 
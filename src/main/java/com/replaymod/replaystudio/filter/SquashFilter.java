@@ -24,6 +24,8 @@
  */
 package com.replaymod.replaystudio.filter;
 
+import com.github.steveice10.netty.buffer.ByteBuf;
+import com.github.steveice10.netty.buffer.Unpooled;
 import com.github.steveice10.opennbt.tag.builtin.CompoundTag;
 import com.google.gson.JsonObject;
 import com.replaymod.replaystudio.PacketData;
@@ -48,11 +50,19 @@ import com.replaymod.replaystudio.us.myles.ViaVersion.api.Triple;
 import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
 import com.replaymod.replaystudio.util.DPosition;
 import com.replaymod.replaystudio.util.IPosition;
+import com.replaymod.replaystudio.util.LongLongHashMap;
+import com.replaymod.replaystudio.util.LongObjectHashMap;
+import com.replaymod.replaystudio.util.Metrics;
 import com.replaymod.replaystudio.util.PacketUtils;
+import com.replaymod.replaystudio.util.SpillFile;
 import com.replaymod.replaystudio.util.Utils;
-import org.apache.commons.lang3.tuple.MutablePair;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -61,14 +71,19 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import static com.replaymod.replaystudio.util.Utils.within;
 
-public class SquashFilter implements StreamFilter {
+public class SquashFilter implements StageSafeFilter {
 
     private static final long POS_MIN = Byte.MIN_VALUE;
     private static final long POS_MAX = Byte.MAX_VALUE;
 
+    private static final Metrics.Counter CHUNK_SPILLS = Metrics.counter("squash.chunkSpills");
+    private static final Metrics.Counter CHUNK_FAULTS = Metrics.counter("squash.chunkFaults");
+    private static final Metrics.Counter SPILLED_BYTES = Metrics.counter("squash.spilledBytes");
+
     private static class Team {
         private final String name;
         private Packet create;
@@ -165,8 +180,20 @@ public class SquashFilter implements StreamFilter {
     private final List<PacketData> closeWindows = new ArrayList<>();
     private final Map<PacketType, PacketData> latestOnly = new HashMap<>();
 
-    private final Map<Long, ChunkData> chunks = new HashMap<>();
-    private final Map<Long, Long> unloadedChunks = new HashMap<>();
+    private final LongObjectHashMap<ChunkData> chunks = new LongObjectHashMap<>();
+    private final LongLongHashMap unloadedChunks = new LongLongHashMap();
+
+    /**
+     * Chunks which have not been touched for this long (in replay time, milliseconds) are moved from {@link #chunks}
+     * to the {@link #spillFile}. {@code -1} to keep all chunks in memory.
+     */
+    private long spillAfter = -1;
+    private long nextSpillCheck;
+    private SpillFile spillFile;
+    /**
+     * Offsets of the chunks which have been moved to the {@link #spillFile}.
+     */
+    private final LongLongHashMap spilledChunks = new LongLongHashMap();
 
     public SquashFilter copy() {
         SquashFilter copy = new SquashFilter();
@@ -184,6 +211,13 @@ public class SquashFilter implements StreamFilter {
         this.latestOnly.forEach((key, value) -> copy.latestOnly.put(key, value.copy()));
         this.chunks.forEach((key, value) -> copy.chunks.put(key, value.copy()));
         copy.unloadedChunks.putAll(this.unloadedChunks);
+        copy.spillAfter = this.spillAfter;
+        copy.nextSpillCheck = this.nextSpillCheck;
+        if (this.spillFile != null) {
+            // Spilled records are never modified, so both filters can share them
+            copy.spillFile = this.spillFile.retain();
+            copy.spilledChunks.putAll(this.spilledChunks);
+        }
         return copy;
     }
 
@@ -198,6 +232,21 @@ public class SquashFilter implements StreamFilter {
         currentWindow.forEach(PacketData::release);
         closeWindows.forEach(PacketData::release);
         latestOnly.values().forEach(PacketData::release);
+        try {
+            closeSpillFile();
+        } catch (IOException e) {
+            // Everything else has been released at this point, so there's nothing left to clean up
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeSpillFile() throws IOException {
+        spilledChunks.clear();
+        SpillFile spillFile = this.spillFile;
+        if (spillFile != null) {
+            this.spillFile = null;
+            spillFile.close();
+        }
     }
 
     @Override
@@ -212,6 +261,11 @@ public class SquashFilter implements StreamFilter {
         registry = packet.getRegistry();
         long lastTimestamp = data.getTime();
 
+        if (spillAfter >= 0 && lastTimestamp >= nextSpillCheck) {
+            spillIdleChunks(lastTimestamp);
+            nextSpillCheck = lastTimestamp + Math.max(1, spillAfter / 4);
+        }
+
         // Entities
         Integer entityId = PacketUtils.getEntityId(packet);
         if (entityId != null) { // Some entity is associated with this packet
@@ -283,6 +337,7 @@ public class SquashFilter implements StreamFilter {
                 currentWorld.clear();
                 chunks.clear();
                 unloadedChunks.clear();
+                spilledChunks.clear();
                 currentWindow.forEach(PacketData::release);
                 currentWindow.clear();
                 entities.values().forEach(Entity::release);
@@ -303,10 +358,7 @@ public class SquashFilter implements StreamFilter {
             }
             case UpdateLight:
                 PacketUpdateLight updateLight = PacketUpdateLight.read(packet);
-                chunks.computeIfAbsent(
-                        ChunkData.coordToLong(updateLight.getX(), updateLight.getZ()),
-                        idx -> new ChunkData(data.getTime(), updateLight.getX(), updateLight.getZ())
-                ).updateLight(updateLight);
+                getOrCreateChunk(data.getTime(), updateLight.getX(), updateLight.getZ()).updateLight(updateLight);
                 break;
             case ChunkData:
             case UnloadChunk:
@@ -523,30 +575,16 @@ public class SquashFilter implements StreamFilter {
             }
         }
 
-        for (Map.Entry<Long, Long> e : unloadedChunks.entrySet()) {
-            int x = ChunkData.longToX(e.getKey());
-            int z = ChunkData.longToZ(e.getKey());
-            result.add(new PacketData(e.getValue(), PacketChunkData.unload(x, z).write(registry)));
+        for (long coord : unloadedChunks.keys()) {
+            int x = ChunkData.longToX(coord);
+            int z = ChunkData.longToZ(coord);
+            result.add(new PacketData(unloadedChunks.get(coord, 0), PacketChunkData.unload(x, z).write(registry)));
         }
 
-        for (ChunkData chunk : chunks.values()) {
-            Column column = new Column(
-                    chunk.x, chunk.z, chunk.changes, chunk.biomeData, chunk.tileEntities, chunk.heightmaps, chunk.biomes, chunk.useExistingLightData
-            );
-            if (column.isFull() || !Utils.containsOnlyNull(chunk.changes)) {
-                result.add(new PacketData(chunk.firstAppearance, PacketChunkData.load(column).write(registry)));
-            }
-            for (Map<Short, MutablePair<Long, PacketBlockChange>> e : chunk.blockChanges) {
-                if (e != null) {
-                    for (MutablePair<Long, PacketBlockChange> pair : e.values()) {
-                        result.add(new PacketData(pair.getLeft(), pair.getRight().write(registry)));
-                    }
-                }
-            }
-            if (chunk.hasLight()) {
-                result.add(new PacketData(chunk.firstAppearance, new PacketUpdateLight(
-                        chunk.x, chunk.z, Arrays.asList(chunk.skyLight), Arrays.asList(chunk.blockLight)).write(registry)));
-            }
+        try {
+            result.addAll(writeChunks());
+        } finally {
+            closeSpillFile();
         }
 
         result.sort(Comparator.comparingLong(PacketData::getTime));
@@ -583,35 +621,41 @@ public class SquashFilter implements StreamFilter {
         return "squash";
     }
 
+    /**
+     * Supported config options:
+     * <ul>
+     *     <li>{@code spillAfter}: Chunks which have not been modified for this many milliseconds of replay time
+     *     are moved from the heap to a temporary file until they are modified again or the filter ends. This
+     *     bounds memory use for replays which visit large parts of the world.</li>
+     * </ul>
+     */
     @Override
     public void init(Studio studio, JsonObject config) {
+        if (config.has("spillAfter")) {
+            spillAfter = config.get("spillAfter").getAsLong();
+        }
     }
 
     private void add(PacketStream stream, long timestamp, Packet packet) {
         stream.insert(new PacketData(timestamp, packet));
     }
 
-    private void updateBlock(long time, PacketBlockChange record) {
+    private void updateBlock(long time, PacketBlockChange record) throws IOException {
         IPosition pos = record.getPosition();
-        chunks.computeIfAbsent(
-                ChunkData.coordToLong(pos.getX() >> 4, pos.getZ() >> 4),
-                idx -> new ChunkData(time, pos.getX() >> 4, pos.getZ() >> 4)
-        ).updateBlock(time, record);
+        getOrCreateChunk(time, pos.getX() >> 4, pos.getZ() >> 4).updateBlock(time, record);
     }
 
     private void unloadChunk(long time, int x, int z) {
         long coord = ChunkData.coordToLong(x, z);
         chunks.remove(coord);
+        spilledChunks.remove(coord);
         unloadedChunks.put(coord, time);
     }
 
-    private void updateChunk(long time, Column column) {
+    private void updateChunk(long time, Column column) throws IOException {
         long coord = ChunkData.coordToLong(column.x, column.z);
         unloadedChunks.remove(coord);
-        ChunkData chunk = chunks.get(coord);
-        if (chunk == null) {
-            chunks.put(coord, chunk = new ChunkData(time, column.x, column.z));
-        }
+        ChunkData chunk = getOrCreateChunk(time, column.x, column.z);
         chunk.update(
                 column.chunks,
                 column.biomeData,
@@ -622,14 +666,142 @@ public class SquashFilter implements StreamFilter {
         );
     }
 
+    /**
+     * Creates the packets for all chunks, whether in memory or spilled. Chunks are independent of each other and
+     * encoding them (palette packing, NBT) is expensive, so this is done in parallel on the common fork-join pool.
+     * The packets are returned in the same order as if the chunks were processed sequentially.
+     */
+    private List<PacketData> writeChunks() throws IOException {
+        List<ChunkData> inMemory = new ArrayList<>(chunks.values());
+        long[] spilled = spilledChunks.keys();
+        for (int i = 0; i < spilled.length; i++) {
+            spilled[i] = spilledChunks.get(spilled[i], 0);
+        }
+        PacketTypeRegistry registry = this.registry;
+        SpillFile spillFile = this.spillFile;
+        int count = inMemory.size() + spilled.length;
+        @SuppressWarnings("unchecked")
+        List<PacketData>[] results = new List[count];
+        // Failures are recorded instead of thrown, so every task has finished before we release anything
+        Exception[] failures = new Exception[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            List<PacketData> packets = new ArrayList<>();
+            results[i] = packets;
+            try {
+                ChunkData chunk;
+                if (i < inMemory.size()) {
+                    chunk = inMemory.get(i);
+                } else {
+                    // Spilled chunks are read back one at a time, only the resulting packets are kept
+                    chunk = ChunkData.read(registry, spillFile.read(spilled[i - inMemory.size()]));
+                }
+                chunk.addPackets(registry, packets);
+            } catch (IOException | RuntimeException e) {
+                failures[i] = e;
+            }
+        });
+
+        Exception failure = null;
+        for (Exception e : failures) {
+            if (e == null) {
+                continue;
+            }
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) {
+            for (List<PacketData> packets : results) {
+                packets.forEach(PacketData::release);
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+
+        List<PacketData> result = new ArrayList<>();
+        for (List<PacketData> packets : results) {
+            result.addAll(packets);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the state of the chunk at the given coordinates, reading it back from the spill file or creating it
+     * as required, and marks it as recently used.
+     */
+    private ChunkData getOrCreateChunk(long time, int x, int z) throws IOException {
+        long coord = ChunkData.coordToLong(x, z);
+        ChunkData chunk = chunks.get(coord);
+        if (chunk == null) {
+            long offset = spilledChunks.get(coord, -1);
+            if (offset != -1) {
+                spilledChunks.remove(coord);
+                chunk = ChunkData.read(registry, spillFile.read(offset));
+                if (Metrics.isEnabled()) {
+                    CHUNK_FAULTS.add(1);
+                }
+            } else {
+                chunk = new ChunkData(time, x, z);
+            }
+            chunks.put(coord, chunk);
+        }
+        chunk.lastUsed = time;
+        return chunk;
+    }
+
+    /**
+     * Moves all chunks which have not been used for {@link #spillAfter} milliseconds to the spill file.
+     */
+    private void spillIdleChunks(long time) throws IOException {
+        List<ChunkData> idle = new ArrayList<>();
+        for (ChunkData chunk : chunks.values()) {
+            if (time - chunk.lastUsed > spillAfter) {
+                idle.add(chunk);
+            }
+        }
+        if (idle.isEmpty()) {
+            return;
+        }
+        if (spillFile == null) {
+            spillFile = SpillFile.create();
+        }
+        for (ChunkData chunk : idle) {
+            byte[] bytes = chunk.write(registry);
+            long coord = ChunkData.coordToLong(chunk.x, chunk.z);
+            spilledChunks.put(coord, spillFile.write(bytes));
+            chunks.remove(coord);
+            if (Metrics.isEnabled()) {
+                CHUNK_SPILLS.add(1);
+                SPILLED_BYTES.add(bytes.length);
+            }
+        }
+    }
+
     private static class ChunkData {
+        /**
+         * Shared instances for light arrays in which every value is 0 or 15 respectively, which is true for most
+         * sections (sky and underground). Light arrays are never modified once stored, so these can be shared.
+         */
+        private static final byte[] NO_LIGHT = new byte[2048];
+        private static final byte[] FULL_LIGHT = new byte[2048];
+        static {
+            Arrays.fill(FULL_LIGHT, (byte) 0xff);
+        }
+
         private final long firstAppearance;
         private final int x;
         private final int z;
+        /**
+         * Replay time at which this chunk was last modified.
+         */
+        private long lastUsed;
         private final Chunk[] changes = new Chunk[16];
         private byte[] biomeData; // pre 1.15
-        @SuppressWarnings("unchecked")
-        private Map<Short, MutablePair<Long, PacketBlockChange>>[] blockChanges = new Map[16];
+        private BlockChanges[] blockChanges = new BlockChanges[16];
         // 1.9+
         private CompoundTag[] tileEntities;
         // 1.14+
@@ -645,20 +817,18 @@ public class SquashFilter implements StreamFilter {
             this.firstAppearance = firstAppearance;
             this.x = x;
             this.z = z;
+            this.lastUsed = firstAppearance;
         }
 
         ChunkData copy() {
             ChunkData copy = new ChunkData(this.firstAppearance, this.x, this.z);
+            copy.lastUsed = this.lastUsed;
             for (int i = 0; i < this.changes.length; i++) {
                 copy.changes[i] = this.changes[i] != null ? this.changes[i].copy() : null;
             }
             copy.biomeData = this.biomeData;
             for (int i = 0; i < this.blockChanges.length; i++) {
-                if (this.blockChanges[i] != null) {
-                    Map<Short, MutablePair<Long, PacketBlockChange>> copyMap = new HashMap<>();
-                    copy.blockChanges[i] = copyMap;
-                    this.blockChanges[i].forEach((key, value) -> copyMap.put(key, new MutablePair<>(value.left, value.right)));
-                }
+                copy.blockChanges[i] = this.blockChanges[i] != null ? this.blockChanges[i].copy() : null;
             }
             copy.tileEntities = this.tileEntities;
             copy.heightmaps = this.heightmaps;
@@ -678,8 +848,11 @@ public class SquashFilter implements StreamFilter {
                 boolean useExistingLightData // 1.16+
         ) {
             for (int i = 0; i < newChunks.length; i++) {
-                if (newChunks[i] != null) {
-                    changes[i] = newChunks[i];
+                Chunk chunk = newChunks[i];
+                if (chunk != null) {
+                    chunk.blockLight = dedupLight(chunk.blockLight); // pre 1.14
+                    chunk.skyLight = dedupLight(chunk.skyLight); // pre 1.14
+                    changes[i] = chunk;
                     blockChanges[i] = null;
                 }
             }
@@ -705,19 +878,35 @@ public class SquashFilter implements StreamFilter {
             int i = 0;
             for (byte[] light : packet.getSkyLight()) {
                 if (light != null) {
-                    skyLight[i] = light;
+                    skyLight[i] = dedupLight(light);
                 }
                 i++;
             }
             i = 0;
             for (byte[] light : packet.getBlockLight()) {
                 if (light != null) {
-                    blockLight[i] = light;
+                    blockLight[i] = dedupLight(light);
                 }
                 i++;
             }
         }
 
+        /**
+         * Returns the shared instance if the light array is uniformly dark or lit, otherwise the array itself.
+         */
+        private static byte[] dedupLight(byte[] light) {
+            if (light == null || light.length != NO_LIGHT.length) {
+                return light;
+            }
+            if (Arrays.equals(light, NO_LIGHT)) {
+                return NO_LIGHT;
+            }
+            if (Arrays.equals(light, FULL_LIGHT)) {
+                return FULL_LIGHT;
+            }
+            return light;
+        }
+
         private boolean hasLight() { // 1.14+
             for (byte[] light : skyLight) {
                 if (light != null) {
@@ -732,26 +921,153 @@ public class SquashFilter implements StreamFilter {
             return false;
         }
 
-        private MutablePair<Long, PacketBlockChange> blockChanges(IPosition pos) {
-            int x = pos.getX();
+        void updateBlock(long time, PacketBlockChange change) {
+            IPosition pos = change.getPosition();
             int y = pos.getY();
             int chunkY = y / 16;
-            int z = pos.getZ();
             if (chunkY < 0 || chunkY >= blockChanges.length) {
-                return null;
+                return;
             }
             if (blockChanges[chunkY] == null) {
-                blockChanges[chunkY] = new HashMap<>();
+                blockChanges[chunkY] = new BlockChanges();
             }
-            short index = (short) ((x & 15) << 10 | (y & 15) << 5 | (z & 15));
-            return blockChanges[chunkY].computeIfAbsent(index, k -> MutablePair.of(0L, null));
+            short index = (short) ((pos.getX() & 15) << 8 | (y & 15) << 4 | (pos.getZ() & 15));
+            blockChanges[chunkY].update(index, time, change.getId());
         }
 
-        void updateBlock(long time, PacketBlockChange change) {
-            MutablePair<Long, PacketBlockChange> pair = blockChanges(change.getPosition());
-            if (pair != null && pair.getLeft() < time) {
-                pair.setLeft(time);
-                pair.setRight(change);
+        /**
+         * Adds the packets required to recreate this chunk to the result.
+         */
+        void addPackets(PacketTypeRegistry registry, List<PacketData> result) throws IOException {
+            Packet load = writeLoad(registry);
+            if (load != null) {
+                result.add(new PacketData(firstAppearance, load));
+            }
+            addBlockChanges(registry, result);
+            Packet light = writeLight(registry);
+            if (light != null) {
+                result.add(new PacketData(firstAppearance, light));
+            }
+        }
+
+        private Packet writeLoad(PacketTypeRegistry registry) throws IOException {
+            Column column = new Column(x, z, changes, biomeData, tileEntities, heightmaps, biomes, useExistingLightData);
+            if (column.isFull() || !Utils.containsOnlyNull(changes)) {
+                return PacketChunkData.load(column).write(registry);
+            }
+            return null;
+        }
+
+        private Packet writeLight(PacketTypeRegistry registry) throws IOException {
+            if (hasLight()) {
+                return new PacketUpdateLight(x, z, Arrays.asList(skyLight), Arrays.asList(blockLight)).write(registry);
+            }
+            return null;
+        }
+
+        /**
+         * Serializes this chunk for the spill file, reusing the packet encoding for the chunk and light data.
+         */
+        byte[] write(PacketTypeRegistry registry) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(firstAppearance);
+            out.writeInt(x);
+            out.writeInt(z);
+            out.writeLong(lastUsed);
+            out.writeBoolean(useExistingLightData);
+            writePacket(out, writeLoad(registry));
+            writePacket(out, writeLight(registry));
+            for (BlockChanges section : blockChanges) {
+                int size = section != null ? section.size : 0;
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeShort(section.positions[i]);
+                    out.writeLong(section.times[i]);
+                    out.writeInt(section.states[i]);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Deserializes a chunk written by {@link #write(PacketTypeRegistry)}.
+         */
+        static ChunkData read(PacketTypeRegistry registry, byte[] bytes) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            ChunkData chunk = new ChunkData(in.readLong(), in.readInt(), in.readInt());
+            chunk.lastUsed = in.readLong();
+            boolean useExistingLightData = in.readBoolean();
+            Packet load = readPacket(registry, in);
+            if (load != null) {
+                try {
+                    Column column = PacketChunkData.read(load).getColumn();
+                    chunk.update(column.chunks, column.biomeData, column.tileEntities, column.heightMaps, column.biomes, true);
+                } finally {
+                    load.release();
+                }
+            }
+            chunk.useExistingLightData = useExistingLightData;
+            Packet light = readPacket(registry, in);
+            if (light != null) {
+                try {
+                    chunk.updateLight(PacketUpdateLight.read(light));
+                } finally {
+                    light.release();
+                }
+            }
+            for (int chunkY = 0; chunkY < chunk.blockChanges.length; chunkY++) {
+                int size = in.readInt();
+                if (size > 0) {
+                    BlockChanges section = new BlockChanges(size);
+                    for (int i = 0; i < size; i++) {
+                        section.positions[i] = in.readShort();
+                        section.times[i] = in.readLong();
+                        section.states[i] = in.readInt();
+                    }
+                    section.size = size;
+                    chunk.blockChanges[chunkY] = section;
+                }
+            }
+            return chunk;
+        }
+
+        private static void writePacket(DataOutputStream out, Packet packet) throws IOException {
+            if (packet == null) {
+                out.writeInt(-1);
+                return;
+            }
+            try {
+                ByteBuf buf = packet.getBuf();
+                out.writeInt(packet.getId());
+                out.writeInt(buf.readableBytes());
+                buf.getBytes(buf.readerIndex(), out, buf.readableBytes());
+            } finally {
+                packet.release();
+            }
+        }
+
+        private static Packet readPacket(PacketTypeRegistry registry, DataInputStream in) throws IOException {
+            int id = in.readInt();
+            if (id == -1) {
+                return null;
+            }
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Packet(registry, id, Unpooled.wrappedBuffer(data));
+        }
+
+        void addBlockChanges(PacketTypeRegistry registry, List<PacketData> result) throws IOException {
+            for (int chunkY = 0; chunkY < blockChanges.length; chunkY++) {
+                BlockChanges changes = blockChanges[chunkY];
+                if (changes == null) {
+                    continue;
+                }
+                for (int i = 0; i < changes.size; i++) {
+                    int index = changes.positions[i];
+                    IPosition pos = new IPosition(x << 4 | index >> 8 & 15, chunkY << 4 | index >> 4 & 15, z << 4 | index & 15);
+                    result.add(new PacketData(changes.times[i], PacketBlockChange.write(registry, pos, changes.states[i])));
+                }
             }
         }
 
@@ -768,4 +1084,59 @@ public class SquashFilter implements StreamFilter {
         }
     }
 
+    /**
+     * Latest block change for each modified position of a chunk section, stored as parallel primitive arrays sorted
+     * by position (packed as {@code x << 8 | y << 4 | z} relative to the section).
+     */
+    private static class BlockChanges {
+        private short[] positions;
+        private long[] times;
+        private int[] states;
+        private int size;
+
+        BlockChanges() {
+            this(4);
+        }
+
+        BlockChanges(int capacity) {
+            positions = new short[capacity];
+            times = new long[capacity];
+            states = new int[capacity];
+        }
+
+        BlockChanges copy() {
+            BlockChanges copy = new BlockChanges(0);
+            copy.positions = Arrays.copyOf(this.positions, this.size);
+            copy.times = Arrays.copyOf(this.times, this.size);
+            copy.states = Arrays.copyOf(this.states, this.size);
+            copy.size = this.size;
+            return copy;
+        }
+
+        void update(short position, long time, int state) {
+            int i = Arrays.binarySearch(positions, 0, size, position);
+            if (i >= 0) {
+                if (times[i] <= time) {
+                    times[i] = time;
+                    states[i] = state;
+                }
+                return;
+            }
+            i = -i - 1;
+            if (size == positions.length) {
+                int capacity = Math.max(4, size * 2);
+                positions = Arrays.copyOf(positions, capacity);
+                times = Arrays.copyOf(times, capacity);
+                states = Arrays.copyOf(states, capacity);
+            }
+            System.arraycopy(positions, i, positions, i + 1, size - i);
+            System.arraycopy(times, i, times, i + 1, size - i);
+            System.arraycopy(states, i, states, i + 1, size - i);
+            positions[i] = position;
+            times[i] = time;
+            states[i] = state;
+            size++;
+        }
+    }
+
 }
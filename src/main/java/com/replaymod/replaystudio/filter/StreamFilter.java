@@ -27,9 +27,11 @@ package com.replaymod.replaystudio.filter;
 import com.google.gson.JsonObject;
 import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.protocol.PacketType;
 import com.replaymod.replaystudio.stream.PacketStream;
 
 import java.io.IOException;
+import java.util.EnumSet;
 
 /**
  * A manipulation that applies some effect onto the supplied packet stream on the fly.
@@ -52,6 +54,18 @@ public interface StreamFilter {
      */
     void init(Studio studio, JsonObject config);
 
+    /**
+     * Returns the types of packets this filter is interested in.
+     * {@link #onPacket(PacketStream, PacketData)} is only called for packets of these types, all other packets
+     * pass this filter unchanged. Packets of unknown type are only passed to filters interested in all packets.
+     * Batches passed to {@link #onPackets(PacketStream, PacketData[], int)} always contain packets of all types.
+     * This is queried once when the filter is added to a stream (i.e. after {@link #init(Studio, JsonObject)}).
+     * @return Set of packet types or {@code null} if this filter is interested in all packets
+     */
+    default EnumSet<PacketType> getPacketTypes() {
+        return null;
+    }
+
     /**
      * Called at the beginning of a new stream.
      * @param stream The stream of packets
@@ -66,6 +80,22 @@ public interface StreamFilter {
      */
     boolean onPacket(PacketStream stream, PacketData data) throws IOException;
 
+    /**
+     * Called for a batch of packets traversing the stream instead of calling {@link #onPacket(PacketStream, PacketData)}
+     * for each of them. Filters which can process packets in bulk may override this.
+     * Packets which should remain in the stream have to be moved to the front of the array (keeping their order),
+     * all other packets are removed. Packets inserted into the stream during this call are placed after all packets
+     * of the batch.
+     * @param stream The stream
+     * @param packets The packets
+     * @param length The number of packets in the array
+     * @return The number of packets remaining in the stream or {@code -1} if this filter does not support batches
+     *         in which case the array must not have been modified
+     */
+    default int onPackets(PacketStream stream, PacketData[] packets, int length) throws IOException {
+        return -1;
+    }
+
     /**
      * Called at the end of a stream.
      * @param stream The stream of packets
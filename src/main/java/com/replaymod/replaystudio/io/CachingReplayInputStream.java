@@ -0,0 +1,168 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.github.steveice10.netty.buffer.ByteBuf;
+import com.github.steveice10.netty.buffer.Unpooled;
+import com.github.steveice10.packetlib.tcp.io.ByteBufNetOutput;
+import com.replaymod.replaystudio.protocol.Packet;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.protocol.packets.PacketLoginSuccess;
+import com.replaymod.replaystudio.replay.CacheCodec;
+import com.replaymod.replaystudio.replay.ReplayFile;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.replaymod.replaystudio.util.Utils.writeInt;
+
+/**
+ * Replay input stream which, in addition to returning the converted packets, writes them to a cache entry of the
+ * replay file in raw packet data format.
+ * The written packet data always includes the login phase (i.e. it is in file format version 14+ layout) and uses
+ * the protocol version of the registry, so it can later be read without any conversion.
+ * <br>
+ * The cache entry is only marked as complete (by writing the hash of the source recording to {@code entry + ".crc32"})
+ * once the end of the packet data has been reached. If this stream is closed before then, the partial cache entry
+ * is removed again.
+ * Failing to write to the cache does not affect reading from this stream.
+ */
+public class CachingReplayInputStream extends ReplayInputStream {
+    private static final Logger LOGGER = Logger.getLogger(CachingReplayInputStream.class.getName());
+
+    /**
+     * Suffix of the cache entry which marks the converted packet data as complete.
+     */
+    public static final String HASH_SUFFIX = ".crc32";
+
+    private final ReplayFile replayFile;
+    private final String cacheEntry;
+    private final String hash;
+
+    /**
+     * The output stream of the cache entry or {@code null} if writing has been completed or abandoned.
+     */
+    private OutputStream cacheOut;
+
+    /**
+     * Creates a new caching replay input stream.
+     * @param registry The registry used for the first packet produced
+     * @param in The actual input stream
+     * @param fileFormatVersion The file format version of the replay packet data
+     * @param fileProtocol The MC protocol version of the replay packet data
+     * @param replayFile The replay file to whose cache the converted packet data is written
+     * @param cacheEntry Name of the cache entry
+     * @param hash Hash of the source packet data, written to the cache once all packets have been converted
+     */
+    public CachingReplayInputStream(PacketTypeRegistry registry, InputStream in, int fileFormatVersion, int fileProtocol,
+                                    ReplayFile replayFile, String cacheEntry, String hash) throws IOException {
+        super(registry, in, fileFormatVersion, fileProtocol);
+        this.replayFile = replayFile;
+        this.cacheEntry = cacheEntry;
+        this.hash = hash;
+
+        replayFile.removeCache(cacheEntry + HASH_SUFFIX);
+        this.cacheOut = replayFile.writeCache(cacheEntry, CacheCodec.FAST);
+
+        if (fileFormatVersion < 14) {
+            // Older replays don't include the login phase, the cached version always does
+            Packet loginSuccess = new PacketLoginSuccess(UUID.nameUUIDFromBytes(new byte[0]), "Player")
+                    .write(PacketTypeRegistry.get(registry.getVersion(), State.LOGIN));
+            ByteBuf buf = Unpooled.buffer();
+            try {
+                new ByteBufNetOutput(buf).writeVarInt(loginSuccess.getId());
+                buf.writeBytes(loginSuccess.getBuf());
+                onConvertedPacket(0, buf);
+            } finally {
+                buf.release();
+                loginSuccess.release();
+            }
+        }
+    }
+
+    @Override
+    protected void onConvertedPacket(int time, ByteBuf packet) {
+        if (cacheOut == null) {
+            return;
+        }
+        try {
+            int length = packet.readableBytes();
+            writeInt(cacheOut, time);
+            writeInt(cacheOut, length);
+            packet.getBytes(packet.readerIndex(), cacheOut, length);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write converted packet data to cache:", e);
+            abandon();
+        }
+    }
+
+    @Override
+    protected void onEndOfStream() {
+        if (cacheOut == null) {
+            return;
+        }
+        try {
+            cacheOut.close();
+            cacheOut = null;
+            try (Writer writer = new OutputStreamWriter(replayFile.writeCache(cacheEntry + HASH_SUFFIX))) {
+                writer.write(hash);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to complete converted packet data cache:", e);
+            abandon();
+        }
+    }
+
+    /**
+     * Stops writing to the cache and removes anything which has already been written.
+     */
+    private void abandon() {
+        try {
+            if (cacheOut != null) {
+                cacheOut.close();
+                cacheOut = null;
+            }
+            replayFile.removeCache(cacheEntry + HASH_SUFFIX);
+            replayFile.removeCache(cacheEntry);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove incomplete converted packet data cache:", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cacheOut != null) {
+            abandon();
+        }
+        super.close();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.github.steveice10.netty.buffer.ByteBuf;
+import com.github.steveice10.netty.buffer.Unpooled;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.viaversion.ViaVersionPacketConverter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replay input stream which reads uncompressed packet data from a memory-mapped region of a file.
+ * Frames are not copied but handed out as slices of the mapped region, so packets read from this stream are
+ * read-only and must not be {@link com.replaymod.replaystudio.protocol.Packet#overwrite() overwritten}.
+ * <br>
+ * The file is mapped in windows of limited size which allows reading recordings larger than 2GB. A window stays
+ * mapped for as long as any packet sliced from it has not yet been released.
+ */
+public class MappedReplayInputStream extends ReplayInputStream {
+
+    private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The channel of the file containing the packet data. Closed when this stream is closed.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Position in the file at which the packet data ends.
+     */
+    private final long end;
+
+    /**
+     * Position in the file which corresponds to index 0 of the {@link #window}.
+     */
+    private long windowStart;
+
+    /**
+     * The currently mapped region. Its reader index is the current position of this stream.
+     */
+    private ByteBuf window = Unpooled.EMPTY_BUFFER;
+
+    /**
+     * Creates a new mapped replay input stream.
+     * @param registry The registry used for the first packet produced, see
+     *                 {@link ReplayInputStream#ReplayInputStream(PacketTypeRegistry, java.io.InputStream, int, int)}
+     * @param channel The channel of the file containing the packet data. Ownership is passed to this stream.
+     * @param offset Offset of the packet data in the file
+     * @param length Length of the packet data in bytes
+     * @param fileFormatVersion The file format version of the replay packet data
+     * @param fileProtocol The MC protocol version of the replay packet data
+     */
+    public MappedReplayInputStream(PacketTypeRegistry registry, FileChannel channel, long offset, long length,
+                                   int fileFormatVersion, int fileProtocol) {
+        super(registry, null, fileFormatVersion >= 14,
+                ViaVersionPacketConverter.createForFileVersion(fileFormatVersion, fileProtocol, registry.getVersion().getId()));
+        this.channel = channel;
+        this.windowStart = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Makes sure that at least the specified amount of bytes are readable from the current window,
+     * mapping a new window starting at the current position if necessary.
+     * @param bytes Amount of bytes
+     * @return {@code false} if there are not enough bytes left in the file
+     */
+    private boolean ensureReadable(int bytes) throws IOException {
+        if (window.readableBytes() >= bytes) {
+            return true;
+        }
+        long position = windowStart + window.readerIndex();
+        long remaining = end - position;
+        if (remaining < bytes) {
+            return false;
+        }
+        long size = Math.min(remaining, Math.max(WINDOW_SIZE, bytes));
+        ByteBuf newWindow = Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+        window.release();
+        window = newWindow;
+        windowStart = position;
+        return true;
+    }
+
+    @Override
+    protected ByteBuf readFrame() throws IOException {
+        if (!ensureReadable(8)) {
+            return null; // reached end of stream
+        }
+        int length = window.getInt(window.readerIndex() + 4);
+        if (length < 0) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        long remaining = end - windowStart - window.readerIndex() - 8;
+        if (length > remaining) {
+            // Also catches lengths for which 8 + length would overflow. Such a frame cannot be told apart from one
+            // cut off by a truncated recording, so it's reported as the end of the file like for regular streams.
+            throw new EOFException("Invalid frame length: " + length + " (" + remaining + " bytes left)");
+        }
+        ensureReadable(8 + length);
+        return window.readRetainedSlice(8 + length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureReadable(1)) {
+            return -1;
+        }
+        return window.readUnsignedByte();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window.release();
+        window = Unpooled.EMPTY_BUFFER;
+        channel.close();
+    }
+}
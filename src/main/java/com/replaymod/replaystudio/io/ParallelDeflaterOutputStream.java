@@ -0,0 +1,203 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream which compresses data written to it into a single raw deflate stream, using multiple threads.
+ * <br>
+ * The data is split into blocks which are compressed independently on the given executor. Each block is primed with
+ * the last 32KB of the previous block as its dictionary (so the compression ratio stays close to that of a single
+ * deflater) and ends on a byte boundary via a sync flush, so the compressed blocks can simply be concatenated.
+ * The calling thread only copies data into blocks and computes the CRC-32.
+ * <br>
+ * The result can be written as a ZIP entry via {@link RawZipOutputStream#putNextRawEntry(String, long)}.
+ */
+public class ParallelDeflaterOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    /**
+     * Maximum number of blocks which are being compressed or waiting to be written at any time.
+     */
+    private final int maxPending;
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] previousBlock;
+    private long size;
+    private boolean finished;
+
+    /**
+     * Creates a new parallel deflater output stream.
+     * @param out The output stream to which the compressed data is written. Will not be closed.
+     * @param executor The executor on which blocks are compressed
+     * @param level The compression level, see {@link Deflater#setLevel(int)}
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, ExecutorService executor, int level) {
+        this.out = out;
+        this.executor = executor;
+        this.level = level;
+        this.maxPending = Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == BLOCK_SIZE) {
+            submitBlock(false);
+        }
+        block[blockLength++] = (byte) b;
+        crc.update(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        size += len;
+        while (len > 0) {
+            if (blockLength == BLOCK_SIZE) {
+                submitBlock(false);
+            }
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+
+        byte[] input = block;
+        int inputLength = blockLength;
+        byte[] dictionary = previousBlock;
+        pending.add(executor.submit(() -> compress(input, inputLength, dictionary, last)));
+
+        previousBlock = input;
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+    }
+
+    private byte[] compress(byte[] input, int inputLength, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            }
+            deflater.setInput(input, 0, inputLength);
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream(inputLength / 2 + 64);
+            byte[] buf = new byte[BLOCK_SIZE / 2];
+            while (true) {
+                int len = deflater.deflate(buf, 0, buf.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                result.write(buf, 0, len);
+                if (last ? deflater.finished() : len < buf.length && deflater.needsInput()) {
+                    break;
+                }
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.remove().get());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Compressing block failed", e.getCause());
+        }
+    }
+
+    /**
+     * Compresses all remaining data and writes the end of the deflate stream.
+     * No more data may be written afterwards.
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        submitBlock(true);
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * @return CRC-32 of the uncompressed data written so far
+     */
+    public long getCrc() {
+        return crc.getValue();
+    }
+
+    /**
+     * @return Number of uncompressed bytes written so far
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Finishes the deflate stream. The underlying output stream is not closed.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+    }
+}
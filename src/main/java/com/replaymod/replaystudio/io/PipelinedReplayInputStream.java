@@ -0,0 +1,339 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.github.steveice10.netty.buffer.ByteBuf;
+import com.github.steveice10.netty.buffer.ByteBufAllocator;
+import com.github.steveice10.netty.buffer.PooledByteBufAllocator;
+import com.github.steveice10.netty.buffer.Unpooled;
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.viaversion.ViaVersionPacketConverter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay input stream which reads, splits and converts packet data on background threads.
+ * <br>
+ * Reading is split into three stages, each running on its own thread and connected to the next one by a bounded queue:
+ * <ol>
+ *     <li>Reading (and thereby inflating) raw chunks of data from the underlying input stream</li>
+ *     <li>Splitting those chunks into individual frames</li>
+ *     <li>Converting (ViaVersion) and decoding the frames into packets</li>
+ * </ol>
+ * Packets are returned in order via {@link #readPacket()}, so this stream can be used as a drop-in replacement for
+ * a regular {@link ReplayInputStream}, allowing downstream processing to overlap with reading the replay.
+ * Conversion has to remain on a single thread as it is stateful.
+ * <br>
+ * Like for a regular {@link ReplayInputStream}, {@link #read()} reads raw bytes from the underlying input stream.
+ * As the background threads take ownership of the underlying input stream once the first packet is read, raw bytes
+ * can only be read before that.
+ */
+public class PipelinedReplayInputStream extends ReplayInputStream {
+
+    private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNK_QUEUE_SIZE = 16;
+    private static final int FRAME_QUEUE_SIZE = 1024;
+    private static final int PACKET_QUEUE_SIZE = 1024;
+    private static final long FAILURE_POLL_INTERVAL = 100;
+
+    /**
+     * Marks the end of a queue of buffers.
+     */
+    private static final ByteBuf END_OF_BUFFERS = Unpooled.EMPTY_BUFFER;
+
+    /**
+     * Marks the end of the queue of frames if the input ended in the middle of a frame.
+     */
+    private static final ByteBuf TRUNCATED_FRAME = Unpooled.wrappedBuffer(new byte[0]);
+
+    /**
+     * Marks the end of the queue of packets.
+     */
+    private static final PacketData END_OF_PACKETS = new PacketData(-1, null);
+
+    private final InputStream in;
+    private final BlockingQueue<ByteBuf> chunks = new ArrayBlockingQueue<>(CHUNK_QUEUE_SIZE);
+    private final BlockingQueue<ByteBuf> frames = new ArrayBlockingQueue<>(FRAME_QUEUE_SIZE);
+    private final BlockingQueue<PacketData> packets = new ArrayBlockingQueue<>(PACKET_QUEUE_SIZE);
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    /**
+     * The first exception thrown by any of the stages.
+     */
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private boolean endOfPackets;
+
+    /**
+     * Registry of the packet most recently returned from {@link #readPacket()}.
+     */
+    private PacketTypeRegistry registry;
+
+    /**
+     * Creates a new pipelined replay input stream. The background threads are started when the first packet is read.
+     * @param registry The registry used for the first packet produced, see
+     *                 {@link ReplayInputStream#ReplayInputStream(PacketTypeRegistry, InputStream, int, int)}
+     * @param in The actual input stream
+     * @param fileFormatVersion The file format version of the replay packet data
+     * @param fileProtocol The MC protocol version of the replay packet data
+     */
+    public PipelinedReplayInputStream(PacketTypeRegistry registry, InputStream in, int fileFormatVersion, int fileProtocol) {
+        super(registry, in, fileFormatVersion >= 14,
+                ViaVersionPacketConverter.createForFileVersion(fileFormatVersion, fileProtocol, registry.getVersion().getId()));
+        this.in = in;
+        this.registry = super.getRegistry();
+    }
+
+    private void start() {
+        startStage("read", this::runRead);
+        startStage("split", this::runSplit);
+        startStage("convert", this::runConvert);
+    }
+
+    private void startStage(String name, Stage stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (Throwable t) {
+                if (!closed && failure == null) {
+                    failure = t;
+                    // Stop the other stages, the consumer will notice the failure once it runs out of packets
+                    for (Thread other : threads) {
+                        if (other != Thread.currentThread()) {
+                            other.interrupt();
+                        }
+                    }
+                }
+            }
+        }, "ReplayStudio-" + name + "-" + Integer.toHexString(hashCode()));
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void runRead() throws IOException, InterruptedException {
+        while (!closed) {
+            ByteBuf chunk = ALLOC.buffer(CHUNK_SIZE);
+            int read;
+            try {
+                read = chunk.writeBytes(in, CHUNK_SIZE);
+            } catch (IOException | RuntimeException e) {
+                chunk.release();
+                throw e;
+            }
+            if (read == -1) {
+                chunk.release();
+                break;
+            }
+            put(chunks, chunk);
+        }
+        chunks.put(END_OF_BUFFERS);
+    }
+
+    private void runSplit() throws IOException, InterruptedException {
+        ByteBuf pending = ALLOC.buffer(CHUNK_SIZE);
+        try {
+            ByteBuf chunk;
+            while ((chunk = chunks.take()) != END_OF_BUFFERS) {
+                pending.writeBytes(chunk);
+                chunk.release();
+
+                while (pending.readableBytes() >= 8) {
+                    int length = pending.getInt(pending.readerIndex() + 4);
+                    if (length < 0) {
+                        throw new IOException("Invalid frame length: " + length);
+                    }
+                    if (pending.readableBytes() - 8 < length) {
+                        break; // frame continues in the next chunk
+                    }
+                    put(frames, pending.readBytes(8 + length));
+                }
+                pending.discardSomeReadBytes();
+            }
+            // Same as for a regular ReplayInputStream, an incomplete frame header is treated as the end of the stream
+            // whereas a frame which is cut short fails (once all frames before it have been returned)
+            frames.put(pending.readableBytes() >= 8 ? TRUNCATED_FRAME : END_OF_BUFFERS);
+        } finally {
+            pending.release();
+        }
+    }
+
+    private void runConvert() throws IOException, InterruptedException {
+        PacketData data;
+        while ((data = super.readPacket()) != null) {
+            try {
+                packets.put(data);
+            } catch (InterruptedException e) {
+                data.release();
+                throw e;
+            }
+        }
+        packets.put(END_OF_PACKETS);
+    }
+
+    /**
+     * Puts the given buffer into the queue, releasing it if interrupted while waiting for space.
+     */
+    private static void put(BlockingQueue<ByteBuf> queue, ByteBuf buf) throws InterruptedException {
+        try {
+            queue.put(buf);
+        } catch (InterruptedException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    @Override
+    protected ByteBuf readFrame() throws IOException {
+        try {
+            ByteBuf frame = frames.take();
+            if (frame == TRUNCATED_FRAME) {
+                throw new EOFException();
+            }
+            return frame == END_OF_BUFFERS ? null : frame;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public PacketData readPacket() throws IOException {
+        if (endOfPackets) {
+            return null;
+        }
+        if (threads.isEmpty()) {
+            start();
+        }
+        PacketData data;
+        try {
+            while ((data = packets.poll(FAILURE_POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+                Throwable failure = this.failure;
+                if (failure != null) {
+                    endOfPackets = true;
+                    throw failure instanceof IOException ? (IOException) failure : new IOException("Reading packets failed", failure);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        if (data == END_OF_PACKETS) {
+            endOfPackets = true;
+            return null;
+        }
+        registry = data.getPacket().getRegistry();
+        return data;
+    }
+
+    @Override
+    public int readPackets(PacketData[] dst) throws IOException {
+        if (dst.length == 0) {
+            return 0;
+        }
+        PacketData first = readPacket();
+        if (first == null) {
+            return -1;
+        }
+        dst[0] = first;
+        // Take whatever else is readily available without blocking
+        int count = 1;
+        PacketData data;
+        while (count < dst.length && (data = packets.poll()) != null) {
+            if (data == END_OF_PACKETS) {
+                endOfPackets = true;
+                break;
+            }
+            dst[count++] = data;
+        }
+        registry = dst[count - 1].getPacket().getRegistry();
+        return count;
+    }
+
+    @Override
+    public PacketTypeRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkRawReadable();
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkRawReadable();
+        return in.read(b, off, len);
+    }
+
+    private void checkRawReadable() throws IOException {
+        if (!threads.isEmpty()) {
+            throw new IOException("Raw bytes cannot be read once packets are being read in the background.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        chunks.forEach(ByteBuf::release);
+        chunks.clear();
+        for (ByteBuf frame : frames) {
+            if (frame != TRUNCATED_FRAME) {
+                frame.release();
+            }
+        }
+        frames.clear();
+        for (PacketData data : packets) {
+            if (data != END_OF_PACKETS) {
+                data.release();
+            }
+        }
+        packets.clear();
+        super.close();
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static com.replaymod.replaystudio.io.ZipCentralDirectory.*;
+
+/**
+ * Writes ZIP files directly to a file channel or output stream.
+ * Unlike {@link java.util.zip.ZipOutputStream}, this allows copying entries of other ZIP files without inflating and
+ * deflating them again (see {@link #copyEntry(FileChannel, ZipCentralDirectory.Entry)}) and writing entries which
+ * have already been compressed elsewhere (see {@link #putNextRawEntry(String, long)}).
+ * New entries are started with {@link #putNextEntry(String, long)}, written to via the {@link OutputStream} methods
+ * and finished with {@link #closeEntry()}. When writing to a file channel, their local file header is updated once
+ * the entry is finished, so no data descriptors are required. When writing to an output stream, data descriptors are
+ * used instead.
+ * Supports ZIP64 archives.
+ */
+public class RawZipOutputStream extends OutputStream {
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x8;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int ZIP64_EXTRA_SIZE = 4 + 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Entries whose uncompressed size might exceed this value get a ZIP64 extra field in their local file header.
+     * Leaves some room for incompressible data growing slightly during compression.
+     */
+    private static final long ZIP64_THRESHOLD = ZIP64_MAGIC - (ZIP64_MAGIC >> 8);
+
+    /**
+     * The file channel, if writing to one. {@code null} if writing to an output stream.
+     */
+    private final FileChannel channel;
+    private final WritableByteChannel out;
+    /**
+     * Number of bytes written when writing to an output stream.
+     */
+    private long written;
+    private final List<ZipCentralDirectory.Entry> entries = new ArrayList<>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The entry currently being written, its sizes and CRC are only set once it is closed.
+     */
+    private ZipCentralDirectory.Entry current;
+    private long currentSize;
+    private long currentCompressedSize;
+    private boolean currentZip64;
+    /**
+     * Whether the current entry receives already compressed data.
+     */
+    private boolean currentRaw;
+    private boolean finished;
+
+    /**
+     * Creates a new ZIP output stream writing to the specified channel, starting at its current position.
+     * To append to an existing ZIP file, position the channel at its end and pass all of its entries which are to be
+     * retained to {@link #keepEntry(ZipCentralDirectory.Entry)}.
+     * @param channel The channel, will be closed when this stream is closed
+     */
+    public RawZipOutputStream(FileChannel channel) {
+        this.channel = channel;
+        this.out = channel;
+    }
+
+    /**
+     * Creates a new ZIP output stream writing to the specified output stream.
+     * @param out The output stream, will be closed when this stream is closed
+     */
+    public RawZipOutputStream(OutputStream out) {
+        this.channel = null;
+        this.out = Channels.newChannel(out);
+    }
+
+    /**
+     * Copies the specified entry of another ZIP file as is, i.e. without decompressing it.
+     * @param source Channel of the other ZIP file
+     * @param entry The entry to be copied
+     * @throws IOException if an I/O error occurs
+     */
+    public void copyEntry(FileChannel source, ZipCentralDirectory.Entry entry) throws IOException {
+        ensureNoEntry();
+        long dataOffset = entry.getDataOffset(source);
+        ZipCentralDirectory.Entry copy = new ZipCentralDirectory.Entry(entry.getName(),
+                entry.getFlags() & ~FLAG_DATA_DESCRIPTOR, entry.getMethod(), entry.getDosTime(), entry.getCrc(),
+                entry.getCompressedSize(), entry.getSize(), position());
+        writeLocalHeader(copy, entry.getSize() >= ZIP64_MAGIC || entry.getCompressedSize() >= ZIP64_MAGIC);
+
+        long position = dataOffset;
+        long remaining = entry.getCompressedSize();
+        while (remaining > 0) {
+            long transferred = source.transferTo(position, remaining, out);
+            if (transferred <= 0) {
+                throw new ZipException("Unexpected end of data for " + entry.getName());
+            }
+            position += transferred;
+            remaining -= transferred;
+            if (channel == null) {
+                written += transferred;
+            }
+        }
+        entries.add(copy);
+    }
+
+    /**
+     * Adds an entry, which already exists in the file this stream is writing to, to the central directory without
+     * writing it again. Used when appending to an existing ZIP file.
+     * @param entry The existing entry
+     * @throws IOException if an I/O error occurs
+     */
+    public void keepEntry(ZipCentralDirectory.Entry entry) throws IOException {
+        ensureNoEntry();
+        entries.add(entry);
+    }
+
+    /**
+     * Starts a new deflated entry. Data written to this stream will be compressed and written to the entry until
+     * {@link #closeEntry()} is called.
+     * @param name Name of the entry
+     * @param sizeHint The expected uncompressed size of the entry or {@code -1} if unknown
+     * @throws IOException if an I/O error occurs
+     */
+    public void putNextEntry(String name, long sizeHint) throws IOException {
+        startEntry(name, sizeHint, false);
+    }
+
+    /**
+     * Starts a new deflated entry whose data has already been compressed. Data written to this stream must be a raw
+     * deflate stream (i.e. as produced by a {@link Deflater} with {@code nowrap}) and is written as is until
+     * {@link #closeRawEntry(long, long)} is called.
+     * @param name Name of the entry
+     * @param sizeHint The expected uncompressed size of the entry or {@code -1} if unknown
+     * @throws IOException if an I/O error occurs
+     */
+    public void putNextRawEntry(String name, long sizeHint) throws IOException {
+        startEntry(name, sizeHint, true);
+    }
+
+    private void startEntry(String name, long sizeHint, boolean raw) throws IOException {
+        ensureNoEntry();
+        int flags = FLAG_UTF8 | (channel == null ? FLAG_DATA_DESCRIPTOR : 0);
+        current = new ZipCentralDirectory.Entry(name, flags, ZipEntry.DEFLATED,
+                javaToDosTime(System.currentTimeMillis()), 0, 0, 0, position());
+        currentSize = 0;
+        currentCompressedSize = 0;
+        // With data descriptors, the local header contains no sizes at all (same as ZipOutputStream)
+        currentZip64 = channel != null && (sizeHint < 0 || sizeHint >= ZIP64_THRESHOLD);
+        currentRaw = raw;
+        crc.reset();
+        deflater.reset();
+        // Sizes and CRC are filled in by closeEntry
+        writeLocalHeader(current, currentZip64);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (current == null) {
+            throw new ZipException("No current entry.");
+        }
+        if (currentRaw) {
+            currentCompressedSize += len;
+            writeFully(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        crc.update(b, off, len);
+        currentSize += len;
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    private void deflate() throws IOException {
+        int len = deflater.deflate(buf, 0, buf.length);
+        if (len > 0) {
+            writeFully(ByteBuffer.wrap(buf, 0, len));
+        }
+    }
+
+    /**
+     * Finishes the current entry.
+     * @throws IOException if an I/O error occurs or the entry turned out to be too large for its local file header
+     */
+    public void closeEntry() throws IOException {
+        if (current == null) {
+            return;
+        }
+        if (currentRaw) {
+            throw new ZipException("Raw entry " + current.getName() + " must be closed via closeRawEntry.");
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        finishEntry(crc.getValue(), currentSize, deflater.getBytesWritten());
+    }
+
+    /**
+     * Finishes the current raw entry.
+     * @param crc CRC-32 of the uncompressed data
+     * @param size Size of the uncompressed data
+     * @throws IOException if an I/O error occurs or the entry turned out to be too large for its local file header
+     * @see #putNextRawEntry(String, long)
+     */
+    public void closeRawEntry(long crc, long size) throws IOException {
+        if (current == null || !currentRaw) {
+            throw new ZipException("No current raw entry.");
+        }
+        finishEntry(crc, size, currentCompressedSize);
+    }
+
+    private void finishEntry(long crc, long size, long compressedSize) throws IOException {
+        boolean zip64 = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        if (channel != null && zip64 && !currentZip64) {
+            throw new ZipException("Entry " + current.getName() + " is larger than expected.");
+        }
+
+        long offset = current.getLocalHeaderOffset();
+        ZipCentralDirectory.Entry entry = new ZipCentralDirectory.Entry(current.getName(), current.getFlags(),
+                current.getMethod(), current.getDosTime(), crc, compressedSize, size, offset);
+        current = null;
+        entries.add(entry);
+
+        if (channel == null) {
+            ByteBuffer descriptor = ByteBuffer.allocate(zip64 ? 24 : 16).order(ByteOrder.LITTLE_ENDIAN);
+            descriptor.putInt(DATA_DESCRIPTOR_SIGNATURE);
+            descriptor.putInt((int) crc);
+            if (zip64) {
+                descriptor.putLong(compressedSize);
+                descriptor.putLong(size);
+            } else {
+                descriptor.putInt((int) compressedSize);
+                descriptor.putInt((int) size);
+            }
+            descriptor.flip();
+            writeFully(descriptor);
+            return;
+        }
+
+        ByteBuffer update = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        update.putInt((int) entry.getCrc());
+        if (currentZip64) {
+            update.putInt((int) ZIP64_MAGIC);
+            update.putInt((int) ZIP64_MAGIC);
+        } else {
+            update.putInt((int) compressedSize);
+            update.putInt((int) size);
+        }
+        update.flip();
+        writeFully(update, offset + 14);
+        if (currentZip64) {
+            int nameLength = entry.getName().getBytes(StandardCharsets.UTF_8).length;
+            ByteBuffer sizes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            sizes.putLong(size);
+            sizes.putLong(compressedSize);
+            sizes.flip();
+            writeFully(sizes, offset + LOCAL_HEADER_SIZE + nameLength + 4);
+        }
+    }
+
+    /**
+     * Finishes the current entry (if any) and writes the central directory.
+     * No more entries may be written afterwards.
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        closeEntry();
+        finished = true;
+
+        long offset = position();
+        for (ZipCentralDirectory.Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long end = position();
+        long size = end - offset;
+
+        int count = entries.size();
+        boolean zip64 = count >= ZIP64_MAGIC_COUNT || size >= ZIP64_MAGIC || offset >= ZIP64_MAGIC;
+        if (zip64) {
+            ByteBuffer buf = ByteBuffer.allocate(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(ZIP64_END_SIGNATURE);
+            buf.putLong(ZIP64_END_SIZE - 12);
+            buf.putShort((short) VERSION_ZIP64);
+            buf.putShort((short) VERSION_ZIP64);
+            buf.putInt(0); // number of this disk
+            buf.putInt(0); // disk with the central directory
+            buf.putLong(count);
+            buf.putLong(count);
+            buf.putLong(size);
+            buf.putLong(offset);
+
+            buf.putInt(ZIP64_LOCATOR_SIGNATURE);
+            buf.putInt(0); // disk with the zip64 end of central directory
+            buf.putLong(end);
+            buf.putInt(1); // total number of disks
+            buf.flip();
+            writeFully(buf);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(END_SIGNATURE);
+        buf.putShort((short) 0); // number of this disk
+        buf.putShort((short) 0); // disk with the central directory
+        buf.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        buf.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        buf.putInt((int) Math.min(size, ZIP64_MAGIC));
+        buf.putInt((int) Math.min(offset, ZIP64_MAGIC));
+        buf.putShort((short) 0); // comment length
+        buf.flip();
+        writeFully(buf);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void ensureNoEntry() throws IOException {
+        if (finished) {
+            throw new ZipException("ZIP file has already been finished.");
+        }
+        closeEntry();
+    }
+
+    private void writeLocalHeader(ZipCentralDirectory.Entry entry, boolean zip64) throws IOException {
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(LOCAL_HEADER_SIZE + name.length + (zip64 ? ZIP64_EXTRA_SIZE : 0))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(LOCAL_HEADER_SIGNATURE);
+        buf.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+        buf.putShort((short) entry.getFlags());
+        buf.putShort((short) entry.getMethod());
+        buf.putInt((int) entry.getDosTime());
+        buf.putInt((int) entry.getCrc());
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : entry.getCompressedSize()));
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : entry.getSize()));
+        buf.putShort((short) name.length);
+        buf.putShort((short) (zip64 ? ZIP64_EXTRA_SIZE : 0));
+        buf.put(name);
+        if (zip64) {
+            buf.putShort((short) ZIP64_EXTRA_ID);
+            buf.putShort((short) (ZIP64_EXTRA_SIZE - 4));
+            buf.putLong(entry.getSize());
+            buf.putLong(entry.getCompressedSize());
+        }
+        buf.flip();
+        writeFully(buf);
+    }
+
+    private void writeCentralHeader(ZipCentralDirectory.Entry entry) throws IOException {
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        boolean zip64Size = entry.getSize() >= ZIP64_MAGIC;
+        boolean zip64CompressedSize = entry.getCompressedSize() >= ZIP64_MAGIC;
+        boolean zip64Offset = entry.getLocalHeaderOffset() >= ZIP64_MAGIC;
+        int extraSize = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+        boolean zip64 = extraSize > 0;
+        if (zip64) {
+            extraSize += 4;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + name.length + extraSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(CENTRAL_HEADER_SIGNATURE);
+        buf.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION)); // version made by
+        buf.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION)); // version needed to extract
+        buf.putShort((short) entry.getFlags());
+        buf.putShort((short) entry.getMethod());
+        buf.putInt((int) entry.getDosTime());
+        buf.putInt((int) entry.getCrc());
+        buf.putInt((int) (zip64CompressedSize ? ZIP64_MAGIC : entry.getCompressedSize()));
+        buf.putInt((int) (zip64Size ? ZIP64_MAGIC : entry.getSize()));
+        buf.putShort((short) name.length);
+        buf.putShort((short) extraSize);
+        buf.putShort((short) 0); // comment length
+        buf.putShort((short) 0); // disk number start
+        buf.putShort((short) 0); // internal file attributes
+        buf.putInt(0); // external file attributes
+        buf.putInt((int) (zip64Offset ? ZIP64_MAGIC : entry.getLocalHeaderOffset()));
+        buf.put(name);
+        if (zip64) {
+            // Order is fixed by the specification
+            buf.putShort((short) ZIP64_EXTRA_ID);
+            buf.putShort((short) (extraSize - 4));
+            if (zip64Size) buf.putLong(entry.getSize());
+            if (zip64CompressedSize) buf.putLong(entry.getCompressedSize());
+            if (zip64Offset) buf.putLong(entry.getLocalHeaderOffset());
+        }
+        buf.flip();
+        writeFully(buf);
+    }
+
+    private long position() throws IOException {
+        return channel != null ? channel.position() : written;
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int len = out.write(buf);
+            if (channel == null) {
+                written += len;
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private static long javaToDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = date.getYear();
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01
+        }
+        return (year - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+                | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.github.steveice10.netty.buffer.Unpooled;
+import com.github.steveice10.packetlib.io.NetInput;
+import com.github.steveice10.packetlib.io.NetOutput;
+import com.github.steveice10.packetlib.io.stream.StreamNetInput;
+import com.github.steveice10.packetlib.io.stream.StreamNetOutput;
+import com.github.steveice10.packetlib.tcp.io.ByteBufNetInput;
+import com.google.common.io.ByteStreams;
+import com.replaymod.replaystudio.protocol.PacketType;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+import static com.replaymod.replaystudio.util.Utils.readInt;
+
+/**
+ * Sparse index mapping timestamps to byte offsets within the uncompressed packet data of a replay.
+ * <br>
+ * An entry is recorded for the first frame at least every {@link #INTERVAL} milliseconds after the login phase.
+ * To resume reading at a given time, the login phase (the first {@link #getLoginPhaseLength()} bytes, if any) has to
+ * be read first, after which everything up to {@link #getOffset(int)} may be skipped.
+ * <br>
+ * Offsets are only meaningful for the exact packet data the index was built from and only if that packet data can
+ * be read without conversion (ViaVersion conversion is stateful and therefore requires all packets).
+ */
+public class RecordingIndex {
+    private static final int VERSION = 1;
+
+    /**
+     * Minimum time in milliseconds between two index entries.
+     */
+    public static final int INTERVAL = 5000;
+
+    private final long loginPhaseLength;
+    private final int[] times;
+    private final long[] offsets;
+
+    private RecordingIndex(long loginPhaseLength, int[] times, long[] offsets) {
+        this.loginPhaseLength = loginPhaseLength;
+        this.times = times;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Builds a new index by scanning the given packet data. Only the frame headers and, during the login phase,
+     * packet ids are read, the remaining packet data is skipped.
+     * @param in The uncompressed packet data, will not be closed
+     * @param loginRegistry Registry for the login phase of the packet data or {@code null} if the packet data does not
+     *                      include the login phase (file format version 13 and below)
+     * @return The index
+     * @throws IOException if an I/O error occurs.
+     */
+    public static RecordingIndex build(InputStream in, PacketTypeRegistry loginRegistry) throws IOException {
+        boolean loginPhase = loginRegistry != null;
+        long loginPhaseLength = 0;
+        int size = 0;
+        int[] times = new int[64];
+        long[] offsets = new long[64];
+
+        long offset = 0;
+        int nextTime = Integer.MIN_VALUE;
+        while (true) {
+            int time = readInt(in);
+            int length = readInt(in);
+            if (time == -1 || length == -1) {
+                break; // reached end of stream
+            }
+
+            if (loginPhase) {
+                byte[] data = new byte[Math.min(length, 5)];
+                ByteStreams.readFully(in, data);
+                ByteStreams.skipFully(in, length - data.length);
+                if (length > 0) {
+                    int packetId = new ByteBufNetInput(Unpooled.wrappedBuffer(data)).readVarInt();
+                    if (loginRegistry.getType(packetId) == PacketType.LoginSuccess) {
+                        loginPhase = false;
+                        loginPhaseLength = offset + 8 + length;
+                    }
+                }
+            } else {
+                if (time >= nextTime) {
+                    if (size == times.length) {
+                        times = Arrays.copyOf(times, size * 2);
+                        offsets = Arrays.copyOf(offsets, size * 2);
+                    }
+                    times[size] = time;
+                    offsets[size] = offset;
+                    size++;
+                    nextTime = time + INTERVAL;
+                }
+                ByteStreams.skipFully(in, length);
+            }
+            offset += 8 + length;
+        }
+
+        return new RecordingIndex(loginPhaseLength, Arrays.copyOf(times, size), Arrays.copyOf(offsets, size));
+    }
+
+    /**
+     * Reads an index previously written by {@link #write(OutputStream)}.
+     * @param rawIn The input stream, will not be closed
+     * @return The index or {@code null} if it was written by an incompatible version
+     * @throws IOException if an I/O error occurs.
+     */
+    public static RecordingIndex read(InputStream rawIn) throws IOException {
+        NetInput in = new StreamNetInput(rawIn);
+        if (in.readVarInt() != VERSION) return null; // Incompatible index version
+        long loginPhaseLength = in.readLong();
+        int size = in.readVarInt();
+        int[] times = new int[size];
+        long[] offsets = new long[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = in.readInt();
+            offsets[i] = in.readLong();
+        }
+        return new RecordingIndex(loginPhaseLength, times, offsets);
+    }
+
+    /**
+     * Writes this index to the given output stream.
+     * @param rawOut The output stream, will not be closed
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(OutputStream rawOut) throws IOException {
+        NetOutput out = new StreamNetOutput(rawOut);
+        out.writeVarInt(VERSION);
+        out.writeLong(loginPhaseLength);
+        out.writeVarInt(times.length);
+        for (int i = 0; i < times.length; i++) {
+            out.writeInt(times[i]);
+            out.writeLong(offsets[i]);
+        }
+    }
+
+    /**
+     * Returns the length in bytes of the login phase at the start of the packet data.
+     * @return Length of the login phase, {@code 0} if the packet data does not include the login phase
+     */
+    public long getLoginPhaseLength() {
+        return loginPhaseLength;
+    }
+
+    /**
+     * Returns the offset of the latest indexed frame whose timestamp is not after the given time.
+     * All frames before that offset (excluding the login phase) have timestamps before the given time.
+     * @param time The time in milliseconds
+     * @return Offset in bytes, at least {@link #getLoginPhaseLength()}
+     */
+    public long getOffset(int time) {
+        int index = Arrays.binarySearch(times, time);
+        if (index < 0) {
+            index = -index - 2; // insertion point - 1
+        }
+        return index < 0 ? loginPhaseLength : offsets[index];
+    }
+
+    /**
+     * Skips the given packet data to the latest indexed frame not after the given time.
+     * The login phase is kept.
+     * @param in The uncompressed packet data, positioned at its start
+     * @param time The time in milliseconds
+     * @return The remaining packet data, beginning with the login phase (if any)
+     * @throws IOException if an I/O error occurs.
+     */
+    public InputStream skip(InputStream in, int time) throws IOException {
+        byte[] loginPhase = new byte[(int) loginPhaseLength];
+        ByteStreams.readFully(in, loginPhase);
+        ByteStreams.skipFully(in, getOffset(time) - loginPhaseLength);
+        return new SequenceInputStream(new ByteArrayInputStream(loginPhase), in);
+    }
+}
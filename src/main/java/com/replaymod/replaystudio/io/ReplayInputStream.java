@@ -36,13 +36,14 @@ import com.replaymod.replaystudio.protocol.packets.PacketLoginSuccess;
 import com.replaymod.replaystudio.stream.PacketStream;
 import com.replaymod.replaystudio.studio.StudioPacketStream;
 import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import com.replaymod.replaystudio.util.Metrics;
 import com.replaymod.replaystudio.viaversion.ViaVersionPacketConverter;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayDeque;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.UUID;
@@ -56,6 +57,10 @@ public class ReplayInputStream extends InputStream {
 
     private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
 
+    private static final Metrics.Timer READ_TIME = Metrics.timer("replay.read");
+    private static final Metrics.Timer CONVERT_TIME = Metrics.timer("replay.convert");
+    private static final Metrics.Counter READ_BYTES = Metrics.counter("replay.bytes");
+
     private PacketTypeRegistry registry;
 
     /**
@@ -84,6 +89,21 @@ public class ReplayInputStream extends InputStream {
      */
     private Queue<PacketData> buffer = new ArrayDeque<>();
 
+    /**
+     * Packets decoded from the current frame. Reused across frames to avoid allocating a new list for each of them.
+     */
+    private final List<Packet> decoded = new ArrayList<>();
+
+    /**
+     * Whether the end of the input has been reached.
+     */
+    private boolean endOfStream;
+
+    /**
+     * Packets (except for the login phase) with timestamps before this time are skipped.
+     */
+    private int skipUntil = Integer.MIN_VALUE;
+
     /**
      * Creates a new replay input stream for reading raw packet data.
      * @param registry The registry used for the first packet produced.
@@ -95,7 +115,20 @@ public class ReplayInputStream extends InputStream {
      * @param fileProtocol The MC protocol version of the replay packet data
      */
     public ReplayInputStream(PacketTypeRegistry registry, InputStream in, int fileFormatVersion, int fileProtocol) throws IOException {
-        boolean includeLoginPhase = fileFormatVersion >= 14;
+        this(registry, in, fileFormatVersion >= 14,
+                ViaVersionPacketConverter.createForFileVersion(fileFormatVersion, fileProtocol, registry.getVersion().getId()));
+    }
+
+    /**
+     * Creates a new replay input stream for reading raw packet data using the specified converter.
+     * @param registry The registry used for the first packet produced, see
+     *                 {@link #ReplayInputStream(PacketTypeRegistry, InputStream, int, int)}
+     * @param in The actual input stream. May be {@code null} if the subclass overrides {@link #readFrame()},
+     *           {@link #read()} and {@link #close()}.
+     * @param includeLoginPhase Whether the packet data includes the login phase (file format version 14+)
+     * @param converter The converter used to convert packets from the replay's protocol to the one of the registry
+     */
+    protected ReplayInputStream(PacketTypeRegistry registry, InputStream in, boolean includeLoginPhase, ViaVersionPacketConverter converter) {
         this.registry = registry;
         this.loginPhase = includeLoginPhase;
         this.outputLoginPhase = registry.getState() == State.LOGIN;
@@ -107,7 +140,7 @@ public class ReplayInputStream extends InputStream {
             this.registry = PacketTypeRegistry.get(registry.getVersion(), State.LOGIN);
         }
         this.in = in;
-        this.viaVersionConverter = ViaVersionPacketConverter.createForFileVersion(fileFormatVersion, fileProtocol, registry.getVersion().getId());
+        this.viaVersionConverter = converter;
     }
 
     @Override
@@ -124,6 +157,15 @@ public class ReplayInputStream extends InputStream {
         return registry;
     }
 
+    /**
+     * Skips all packets with a timestamp before the given time. Packets of the login phase are never skipped.
+     * Skipped packets are still read and converted but not returned.
+     * @param time Timestamp of the first packet which is to be returned
+     */
+    public void skipUntil(int time) {
+        this.skipUntil = time;
+    }
+
     /**
      * Read the next packet from this input stream.
      * @return The packet
@@ -134,36 +176,96 @@ public class ReplayInputStream extends InputStream {
         return buffer.poll();
     }
 
+    /**
+     * Reads up to {@code dst.length} packets from this input stream into the given array.
+     * This blocks until at least one packet is available but may return fewer packets than requested even if the
+     * end of the stream has not yet been reached.
+     * @param dst The array into which packets are stored, starting at index 0
+     * @return The number of packets read or {@code -1} if the end of the stream has been reached
+     * @throws IOException if an I/O error occurs.
+     */
+    public int readPackets(PacketData[] dst) throws IOException {
+        int count = 0;
+        while (count < dst.length) {
+            fillBuffer();
+            PacketData packet = buffer.poll();
+            if (packet == null) {
+                break;
+            }
+            dst[count++] = packet;
+        }
+        return count == 0 && dst.length > 0 ? -1 : count;
+    }
+
+    /**
+     * Reads the next frame from the underlying input.
+     * The returned buffer starts with the frame header (four byte timestamp followed by four byte length) which is
+     * then followed by the packet data. Ownership of the buffer is passed to the caller.
+     * @return The frame or {@code null} if the end of the input has been reached
+     * @throws IOException if an I/O error occurs.
+     */
+    protected ByteBuf readFrame() throws IOException {
+        int next = readInt(in);
+        int length = readInt(in);
+        if (next == -1 || length == -1) {
+            return null; // reached end of stream
+        }
+
+        ByteBuf buf = ALLOC.buffer(8 + length);
+        buf.writeInt(next);
+        buf.writeInt(length);
+        while (length > 0) {
+            int read = buf.writeBytes(in, length);
+            if (read == -1) {
+                buf.release();
+                throw new EOFException();
+            }
+            length -= read;
+        }
+        return buf;
+    }
+
     private void fillBuffer() throws IOException {
         while (buffer.isEmpty()) {
-            int next = readInt(in);
-            int length = readInt(in);
-            if (next == -1 || length == -1) {
+            boolean metrics = Metrics.isEnabled();
+            long start = metrics ? System.nanoTime() : 0;
+            ByteBuf buf = endOfStream ? null : readFrame();
+            if (metrics) {
+                READ_TIME.recordSince(start);
+                start = System.nanoTime();
+            }
+            if (buf == null) {
+                if (!endOfStream) {
+                    endOfStream = true;
+                    onEndOfStream();
+                }
                 break; // reached end of stream
             }
+            int next = buf.readInt();
+            int length = buf.readInt();
             if (length == 0) {
+                buf.release();
                 continue; // skip empty segments
             }
 
-            ByteBuf buf = ALLOC.buffer(length);
-            while (length > 0) {
-                int read = buf.writeBytes(in, length);
-                if (read == -1) {
-                    throw new EOFException();
-                }
-                length -= read;
-            }
-
-            List<Packet> decoded = new LinkedList<>();
+            decoded.clear();
             try {
                 for (ByteBuf packet : viaVersionConverter.convertPacket(buf, loginPhase ? State.LOGIN : State.PLAY)) {
+                    onConvertedPacket(next, packet);
                     int packetId = new ByteBufNetInput(packet).readVarInt();
                     decoded.add(new Packet(registry, packetId, registry.getType(packetId), packet));
                 }
             } catch (Exception e) {
+                buf.release();
+                decoded.forEach(Packet::release);
+                decoded.clear();
                 throw e instanceof IOException ? (IOException) e : new IOException("decoding", e);
             }
             buf.release();
+            if (metrics) {
+                CONVERT_TIME.recordSince(start);
+                READ_BYTES.add(8 + length);
+            }
 
             for (Packet packet : decoded) {
                 PacketType type = packet.getType();
@@ -180,11 +282,33 @@ public class ReplayInputStream extends InputStream {
                     packet.release();
                     continue;
                 }
+                if (next < skipUntil && !loginPhase && type != PacketType.LoginSuccess) {
+                    packet.release();
+                    continue;
+                }
                 buffer.offer(new PacketData(next, packet));
             }
+            decoded.clear();
         }
     }
 
+    /**
+     * Called for every packet after it has been converted to the protocol version of this stream's registry.
+     * This includes packets which are not returned from this stream (e.g. login phase or keep alive packets).
+     * @param time The timestamp of the packet
+     * @param packet The packet data starting with the packet id. Must neither be modified nor released.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void onConvertedPacket(int time, ByteBuf packet) throws IOException {
+    }
+
+    /**
+     * Called once when the end of the packet data has been reached.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void onEndOfStream() throws IOException {
+    }
+
     /**
      * Wraps this {@link ReplayInputStream} into a {@link PacketStream}.
      * Closing the replay input stream will close the packet stream and vice versa.
@@ -25,12 +25,10 @@
 package com.replaymod.replaystudio.io;
 
 import com.github.steveice10.netty.buffer.ByteBuf;
-import com.github.steveice10.netty.buffer.ByteBufAllocator;
-import com.github.steveice10.netty.buffer.PooledByteBufAllocator;
-import com.github.steveice10.packetlib.tcp.io.ByteBufNetOutput;
 import com.google.gson.Gson;
 import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.data.RecordingSegment;
 import com.replaymod.replaystudio.protocol.Packet;
 import com.replaymod.replaystudio.protocol.PacketType;
 import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
@@ -42,12 +40,14 @@ import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import static com.replaymod.replaystudio.util.Utils.writeInt;
-
 /**
  * Output stream capable of writing {@link Packet}s and (optionally)
  * {@link ReplayMetaData}.
@@ -55,7 +55,9 @@ import static com.replaymod.replaystudio.util.Utils.writeInt;
 public class ReplayOutputStream extends OutputStream {
 
     private static final Gson GSON = new Gson();
-    private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+    private static final String ENTRY_SEGMENT = "recording/%d.tmcpr";
+    private static final String ENTRY_SEGMENTS = "recording/segments.json";
+    private static final int SCRATCH_SIZE = 64 * 1024;
 
     /**
      * Meta data for the current replay. Gets written after all packets are written.
@@ -65,14 +67,30 @@ public class ReplayOutputStream extends OutputStream {
     /**
      * The actual output stream.
      * If we write to a ZIP output stream, this is the same as {@link #zipOut}.
+     * If we compress in parallel, this is the {@link #deflaterOut} of the current entry.
      */
-    private final OutputStream out;
+    private OutputStream out;
 
     /**
      * If we write to a ZIP output stream instead of just raw data, this holds a reference to that output stream.
      */
     private final ZipOutputStream zipOut;
 
+    /**
+     * If we write to a ZIP output stream and compress in parallel, this holds a reference to that output stream.
+     */
+    private final RawZipOutputStream rawZipOut;
+
+    /**
+     * Executor on which entries are compressed if compressing in parallel.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * If compressing in parallel, the deflater of the current entry.
+     */
+    private ParallelDeflaterOutputStream deflaterOut;
+
     /**
      * Duration of the replay written. This gets updated with each packet and is afterwards used to set the
      * duration in the replay meta data.
@@ -81,6 +99,22 @@ public class ReplayOutputStream extends OutputStream {
 
     private boolean loginPhase = true;
 
+    /**
+     * Duration of each segment in milliseconds or {@code 0} if the packet data is not segmented.
+     */
+    private final int segmentDuration;
+
+    /**
+     * All segments written so far, the last one is the current segment.
+     */
+    private final List<RecordingSegment> segments = new ArrayList<>();
+
+    /**
+     * Frames are assembled in this buffer so that they can be written to the output stream in one go.
+     */
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+    private int scratchLength;
+
     /**
      * Creates a new replay output stream which will not compress packets written to it nor write any meta data.
      * The resulting output can be read directly by a {@link ReplayInputStream}.
@@ -89,7 +123,10 @@ public class ReplayOutputStream extends OutputStream {
     public ReplayOutputStream(OutputStream out) {
         this.out = out;
         this.zipOut = null;
+        this.rawZipOut = null;
+        this.executor = null;
         this.metaData = null;
+        this.segmentDuration = 0;
     }
 
     /**
@@ -101,6 +138,40 @@ public class ReplayOutputStream extends OutputStream {
      * @throws IOException If an exception occurred while writing the first entry to the zip output stream
      */
     public ReplayOutputStream(ProtocolVersion version, OutputStream out, ReplayMetaData metaData) throws IOException {
+        this(version, out, metaData, 0);
+    }
+
+    /**
+     * Creates a new replay output stream which will write its packets and the specified meta data
+     * in a zip output stream according to the MCPR format.
+     * If a segment duration is given, the packet data is split into independently compressed segments according to
+     * {@link ReplayMetaData#SEGMENTED_FILE_FORMAT_VERSION}. The login phase is always written as its own segment.
+     *
+     * @param out The actual output stream
+     * @param metaData The meta data written to the output
+     * @param segmentDuration Duration of each segment in milliseconds, {@code 0} to write a single recording entry
+     * @throws IOException If an exception occurred while writing the first entry to the zip output stream
+     */
+    public ReplayOutputStream(ProtocolVersion version, OutputStream out, ReplayMetaData metaData, int segmentDuration) throws IOException {
+        this(version, out, metaData, segmentDuration, null);
+    }
+
+    /**
+     * Creates a new replay output stream which will write its packets and the specified meta data
+     * in a zip output stream according to the MCPR format.
+     * If a segment duration is given, the packet data is split into independently compressed segments according to
+     * {@link ReplayMetaData#SEGMENTED_FILE_FORMAT_VERSION}. The login phase is always written as its own segment.
+     * If an executor is given, all entries are compressed in blocks on that executor (see
+     * {@link ParallelDeflaterOutputStream}) and the calling thread merely buffers the packet data.
+     *
+     * @param out The actual output stream
+     * @param metaData The meta data written to the output
+     * @param segmentDuration Duration of each segment in milliseconds, {@code 0} to write a single recording entry
+     * @param executor The executor used for compression or {@code null} to compress on the calling thread
+     * @throws IOException If an exception occurred while writing the first entry to the zip output stream
+     */
+    public ReplayOutputStream(ProtocolVersion version, OutputStream out, ReplayMetaData metaData, int segmentDuration,
+                              ExecutorService executor) throws IOException {
         Studio studio = new ReplayStudio();
         if (metaData == null) {
             metaData = new ReplayMetaData();
@@ -109,22 +180,41 @@ public class ReplayOutputStream extends OutputStream {
             metaData.setDate(System.currentTimeMillis());
         }
         metaData.setFileFormat("MCPR");
-        metaData.setFileFormatVersion(ReplayMetaData.CURRENT_FILE_FORMAT_VERSION);
+        metaData.setFileFormatVersion(segmentDuration > 0
+                ? ReplayMetaData.SEGMENTED_FILE_FORMAT_VERSION : ReplayMetaData.CURRENT_FILE_FORMAT_VERSION);
         metaData.setProtocolVersion(version.getId());
         metaData.setGenerator("ReplayStudio v" + studio.getVersion());
         this.metaData = metaData;
+        this.segmentDuration = segmentDuration;
 
-        this.out = zipOut = new ZipOutputStream(out);
-
-        zipOut.putNextEntry(new ZipEntry("recording.tmcpr"));
+        this.executor = executor;
+        if (executor != null) {
+            this.out = rawZipOut = new RawZipOutputStream(out);
+            this.zipOut = null;
+        } else {
+            this.out = zipOut = new ZipOutputStream(out);
+            this.rawZipOut = null;
+        }
 
+        if (segmentDuration > 0) {
+            nextSegment(0);
+        } else {
+            putNextEntry("recording.tmcpr");
+        }
     }
 
     @Override
     public void write(int b) throws IOException {
+        flushScratch();
         out.write(b);
     }
 
+    @Override
+    public void flush() throws IOException {
+        flushScratch();
+        out.flush();
+    }
+
     /**
      * Writes the specified packet data to the underlying output stream.
      * @param data The packet data
@@ -145,31 +235,145 @@ public class ReplayOutputStream extends OutputStream {
      * @see #write(PacketData)
      */
     public void write(long time, Packet packet) throws IOException {
-        if (packet.getRegistry().getState() != State.LOGIN && loginPhase) {
-            PacketTypeRegistry registry = PacketTypeRegistry.get(packet.getProtocolVersion(), State.LOGIN);
-            doWrite(0, new PacketLoginSuccess(UUID.nameUUIDFromBytes(new byte[0]), "Player").write(registry));
+        append(time, packet);
+        flushScratch();
+    }
+
+    /**
+     * Writes all of the specified packet data to the underlying output stream.
+     * Consecutive frames are combined into as few writes to the underlying stream as possible.
+     * All packets are released, even if writing fails part way through.
+     * @param data The packet data, in order
+     * @throws IOException - if an I/O error occurs.
+     *      In particular, an IOException may be thrown if the output stream has been closed.
+     * @see #write(PacketData)
+     */
+    public void write(List<PacketData> data) throws IOException {
+        int written = 0;
+        try {
+            for (PacketData packetData : data) {
+                append(packetData.getTime(), packetData.getPacket());
+                written++;
+            }
+            flushScratch();
+        } catch (IOException | RuntimeException e) {
+            // append always releases its packet, including the one which failed
+            for (PacketData packetData : data.subList(Math.min(written + 1, data.size()), data.size())) {
+                packetData.release();
+            }
+            throw e;
         }
-        doWrite(time, packet);
     }
 
-    private void doWrite(long time, Packet packet) throws IOException {
+    /**
+     * Writes a raw frame to the underlying output stream without decoding its content.
+     * The packet data has to be valid for the protocol version of this stream, no conversion is applied.
+     * Writing a raw frame ends the login phase of this stream, so if the output is to include a login phase, it must
+     * either be written as raw frames as well or via {@link #write(long, Packet)} before any raw frames.
+     * @param time The timestamp
+     * @param data Buffer containing the packet data (starting with the packet id)
+     * @param offset Offset of the packet data in the buffer
+     * @param length Length of the packet data
+     * @throws IOException - if an I/O error occurs.
+     *      In particular, an IOException may be thrown if the output stream has been closed.
+     */
+    public void writeFrame(int time, byte[] data, int offset, int length) throws IOException {
+        loginPhase = false;
         if (duration < time) {
-            duration = (int) time;
+            duration = time;
+        }
+
+        RecordingSegment segment = null;
+        if (segmentDuration > 0) {
+            segment = segments.get(segments.size() - 1);
+            if (segments.size() == 1 || time >= segment.getStartTime() + segmentDuration) {
+                segment = nextSegment(time);
+            }
+        }
+
+        if (scratchLength + 8 + length > scratch.length) {
+            flushScratch();
+        }
+        int pos = putInt(scratch, scratchLength, time);
+        pos = putInt(scratch, pos, length);
+        if (8 + length <= scratch.length) {
+            System.arraycopy(data, offset, scratch, pos, length);
+            scratchLength = pos + length;
+        } else {
+            // Too large for the scratch buffer, write header and packet data separately
+            out.write(scratch, 0, pos);
+            out.write(data, offset, length);
+        }
+
+        if (segment != null) {
+            segment.setEndTime(time);
+            segment.setSize(segment.getSize() + 8 + length);
+        }
+    }
+
+    /**
+     * Appends the frame for the specified packet, preceded by a LoginSuccess packet if the packet is the first one
+     * after an omitted login phase. The packet is released, even if appending fails.
+     */
+    private void append(long time, Packet packet) throws IOException {
+        if (packet.getRegistry().getState() != State.LOGIN && loginPhase) {
+            try {
+                PacketTypeRegistry registry = PacketTypeRegistry.get(packet.getProtocolVersion(), State.LOGIN);
+                doWrite(0, new PacketLoginSuccess(UUID.nameUUIDFromBytes(new byte[0]), "Player").write(registry));
+            } catch (IOException | RuntimeException e) {
+                packet.release();
+                throw e;
+            }
         }
+        doWrite(time, packet);
+    }
 
-        ByteBuf packetIdBuf = ALLOC.buffer();
+    /**
+     * Appends the frame for the specified packet to the scratch buffer. Frames which do not fit into the scratch
+     * buffer are written directly. The packet is released, even if writing fails.
+     */
+    private void doWrite(long time, Packet packet) throws IOException {
+        ByteBuf buf = packet.getBuf();
         try {
-            new ByteBufNetOutput(packetIdBuf).writeVarInt(packet.getId());
-
-            int packetIdLen = packetIdBuf.readableBytes();
-            int packetBufLen = packet.getBuf().readableBytes();
-            writeInt(out, (int) time);
-            writeInt(out, packetIdLen + packetBufLen);
-            packetIdBuf.readBytes(out, packetIdLen);
-            packet.getBuf().getBytes(packet.getBuf().readerIndex(), out, packetBufLen);
+            if (duration < time) {
+                duration = (int) time;
+            }
+
+            RecordingSegment segment = null;
+            if (segmentDuration > 0) {
+                segment = segments.get(segments.size() - 1);
+                // The login phase is kept in its own segment, all others each span the segment duration
+                if (!loginPhase && (segments.size() == 1 || time >= segment.getStartTime() + segmentDuration)) {
+                    segment = nextSegment((int) time);
+                }
+            }
+
+            int packetIdLen = varIntLength(packet.getId());
+            int packetBufLen = buf.readableBytes();
+            int frameLen = 8 + packetIdLen + packetBufLen;
+            if (scratchLength + frameLen > scratch.length) {
+                flushScratch();
+            }
+
+            int pos = scratchLength;
+            pos = putInt(scratch, pos, (int) time);
+            pos = putInt(scratch, pos, packetIdLen + packetBufLen);
+            pos = putVarInt(scratch, pos, packet.getId());
+            if (frameLen <= scratch.length) {
+                buf.getBytes(buf.readerIndex(), scratch, pos, packetBufLen);
+                scratchLength = pos + packetBufLen;
+            } else {
+                // Too large for the scratch buffer, write header and packet data separately
+                out.write(scratch, 0, pos);
+                buf.getBytes(buf.readerIndex(), out, packetBufLen);
+            }
+
+            if (segment != null) {
+                segment.setEndTime((int) time);
+                segment.setSize(segment.getSize() + 8 + packetIdLen + packetBufLen);
+            }
         } finally {
-            packetIdBuf.release();
-            packet.getBuf().release();
+            buf.release();
         }
 
         if (packet.getType() == PacketType.LoginSuccess) {
@@ -177,15 +381,92 @@ public class ReplayOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Writes the frames in the scratch buffer to the underlying output stream.
+     */
+    private void flushScratch() throws IOException {
+        if (scratchLength > 0) {
+            out.write(scratch, 0, scratchLength);
+            scratchLength = 0;
+        }
+    }
+
+    private static int putInt(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) (value >>> 24);
+        buf[pos + 1] = (byte) (value >>> 16);
+        buf[pos + 2] = (byte) (value >>> 8);
+        buf[pos + 3] = (byte) value;
+        return pos + 4;
+    }
+
+    private static int putVarInt(byte[] buf, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            length++;
+            value >>>= 7;
+        }
+        return length;
+    }
+
+    /**
+     * Finishes the current segment (if any) and starts a new one.
+     * @param time Timestamp of the first packet in the new segment
+     * @return The new segment
+     */
+    private RecordingSegment nextSegment(int time) throws IOException {
+        if (!segments.isEmpty()) {
+            closeEntry();
+        }
+        RecordingSegment segment = new RecordingSegment();
+        segment.setName(String.format(ENTRY_SEGMENT, segments.size()));
+        segment.setStartTime(time);
+        segment.setEndTime(time);
+        segments.add(segment);
+        putNextEntry(segment.getName());
+        return segment;
+    }
+
+    private void putNextEntry(String name) throws IOException {
+        if (rawZipOut != null) {
+            rawZipOut.putNextRawEntry(name, -1);
+            out = deflaterOut = new ParallelDeflaterOutputStream(rawZipOut, executor, Deflater.DEFAULT_COMPRESSION);
+        } else {
+            zipOut.putNextEntry(new ZipEntry(name));
+        }
+    }
+
+    private void closeEntry() throws IOException {
+        flushScratch();
+        if (rawZipOut != null) {
+            if (deflaterOut != null) {
+                deflaterOut.finish();
+                rawZipOut.closeRawEntry(deflaterOut.getCrc(), deflaterOut.getSize());
+                out = rawZipOut;
+                deflaterOut = null;
+            }
+        } else {
+            zipOut.closeEntry();
+        }
+    }
+
     /**
      * Starts a new entry in this replay zip file.
      * The previous entry is therefore closed.
      * @param name Name of the new entry
      */
     public void nextEntry(String name) throws IOException {
-        if (zipOut != null) {
-            zipOut.closeEntry();
-            zipOut.putNextEntry(new ZipEntry(name));
+        if (zipOut != null || rawZipOut != null) {
+            closeEntry();
+            putNextEntry(name);
         } else {
             throw new UnsupportedOperationException("Cannot start new entry when writing raw replay output.");
         }
@@ -193,13 +474,20 @@ public class ReplayOutputStream extends OutputStream {
 
     @Override
     public void close() throws IOException {
-        if (zipOut != null) {
-            zipOut.closeEntry();
+        flushScratch();
+        if (zipOut != null || rawZipOut != null) {
+            closeEntry();
+
+            if (segmentDuration > 0) {
+                putNextEntry(ENTRY_SEGMENTS);
+                out.write(GSON.toJson(segments).getBytes());
+                closeEntry();
+            }
 
             metaData.setDuration(duration);
-            zipOut.putNextEntry(new ZipEntry("metaData.json"));
-            zipOut.write(GSON.toJson(metaData).getBytes());
-            zipOut.closeEntry();
+            putNextEntry("metaData.json");
+            out.write(GSON.toJson(metaData).getBytes());
+            closeEntry();
         }
         out.close();
     }
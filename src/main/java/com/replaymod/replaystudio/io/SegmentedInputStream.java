@@ -0,0 +1,137 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.google.common.base.Optional;
+import com.replaymod.replaystudio.data.RecordingSegment;
+import com.replaymod.replaystudio.replay.ReplayFile;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Input stream reading the concatenated packet data of the segments of a segmented replay.
+ * Segments are only opened once the previous one has been read completely, so at most one segment is open at a time.
+ */
+public class SegmentedInputStream extends InputStream {
+    private final ReplayFile replayFile;
+    private final Iterator<RecordingSegment> segments;
+    private InputStream current;
+
+    /**
+     * Creates a new segmented input stream.
+     * @param replayFile The replay file containing the segments
+     * @param segments The segments to be read, in order
+     */
+    public SegmentedInputStream(ReplayFile replayFile, List<RecordingSegment> segments) {
+        this.replayFile = replayFile;
+        this.segments = segments.iterator();
+    }
+
+    /**
+     * Opens the next segment, closing the current one.
+     * @return {@code false} if there are no more segments
+     */
+    private boolean nextSegment() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (!segments.hasNext()) {
+            return false;
+        }
+        String name = segments.next().getName();
+        Optional<InputStream> in = replayFile.get(name);
+        if (!in.isPresent()) {
+            throw new FileNotFoundException("Missing segment " + name);
+        }
+        current = in.get();
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (current != null || nextSegment()) {
+            int b = current.read();
+            if (b != -1) {
+                return b;
+            }
+            if (!nextSegment()) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current != null || nextSegment()) {
+            int read = current.read(b, off, len);
+            if (read != -1) {
+                return read;
+            }
+            if (!nextSegment()) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        while (current != null || nextSegment()) {
+            long skipped = current.skip(n);
+            if (skipped > 0) {
+                return skipped;
+            }
+            // Either the end of the current segment or skip isn't supported, fall back to read
+            int b = current.read();
+            if (b != -1) {
+                return 1;
+            }
+            if (!nextSegment()) {
+                break;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        while (segments.hasNext()) {
+            segments.next();
+        }
+    }
+}
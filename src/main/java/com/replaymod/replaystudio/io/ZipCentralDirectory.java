@@ -0,0 +1,315 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of the central directory of a ZIP file.
+ * Unlike {@link java.util.zip.ZipFile}, this exposes the location of each entry's data within the file which allows
+ * accessing the raw (possibly compressed) bytes of an entry directly.
+ * Supports ZIP64 archives.
+ */
+public class ZipCentralDirectory {
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int ZIP64_END_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+
+    static final long ZIP64_MAGIC = 0xffffffffL;
+    static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    private final Map<String, Entry> entries;
+    private final long offset;
+    private final long end;
+
+    private ZipCentralDirectory(Map<String, Entry> entries, long offset, long end) {
+        this.entries = entries;
+        this.offset = offset;
+        this.end = end;
+    }
+
+    /**
+     * Reads the central directory of the ZIP file accessible through the specified channel.
+     * @param channel Channel of the ZIP file
+     * @return The central directory
+     * @throws IOException if an I/O error occurs or the file is not a valid ZIP file
+     */
+    public static ZipCentralDirectory read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+
+        // Find the end of central directory record by scanning backwards (it may be followed by a comment)
+        int tailSize = (int) Math.min(fileSize, END_SIZE + 0xffff);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+        int endPos = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE && i + END_SIZE + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos == -1) {
+            throw new ZipException("End of central directory not found.");
+        }
+        long endOffset = fileSize - tailSize + endPos;
+
+        long count = tail.getShort(endPos + 10) & 0xffff;
+        long size = tail.getInt(endPos + 12) & ZIP64_MAGIC;
+        long offset = tail.getInt(endPos + 16) & ZIP64_MAGIC;
+        long end = endOffset;
+        if ((count == ZIP64_MAGIC_COUNT || size == ZIP64_MAGIC || offset == ZIP64_MAGIC)
+                && endOffset >= ZIP64_LOCATOR_SIZE) {
+            ByteBuffer locator = readFully(channel, endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64EndOffset = locator.getLong(8);
+                ByteBuffer zip64End = readFully(channel, zip64EndOffset, ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new ZipException("Invalid ZIP64 end of central directory record.");
+                }
+                count = zip64End.getLong(32);
+                size = zip64End.getLong(40);
+                offset = zip64End.getLong(48);
+                end = zip64EndOffset;
+            }
+        }
+
+        if (size > Integer.MAX_VALUE || offset + size > fileSize) {
+            throw new ZipException("Invalid central directory.");
+        }
+        ByteBuffer buf = readFully(channel, offset, (int) size);
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (long i = 0; i < count; i++) {
+            Entry entry = readEntry(buf);
+            entries.put(entry.name, entry);
+        }
+        return new ZipCentralDirectory(entries, offset, end);
+    }
+
+    private static Entry readEntry(ByteBuffer buf) throws IOException {
+        int pos = buf.position();
+        if (buf.remaining() < CENTRAL_HEADER_SIZE || buf.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid central directory file header.");
+        }
+        Entry entry = new Entry();
+        entry.flags = buf.getShort(pos + 8) & 0xffff;
+        entry.method = buf.getShort(pos + 10) & 0xffff;
+        entry.dosTime = buf.getInt(pos + 12) & ZIP64_MAGIC;
+        entry.crc = buf.getInt(pos + 16) & ZIP64_MAGIC;
+        entry.compressedSize = buf.getInt(pos + 20) & ZIP64_MAGIC;
+        entry.size = buf.getInt(pos + 24) & ZIP64_MAGIC;
+        int nameLength = buf.getShort(pos + 28) & 0xffff;
+        int extraLength = buf.getShort(pos + 30) & 0xffff;
+        int commentLength = buf.getShort(pos + 32) & 0xffff;
+        entry.localHeaderOffset = buf.getInt(pos + 42) & ZIP64_MAGIC;
+
+        byte[] name = new byte[nameLength];
+        buf.position(pos + CENTRAL_HEADER_SIZE);
+        buf.get(name);
+        entry.name = new String(name, StandardCharsets.UTF_8);
+
+        // Replace any sizes/offsets which didn't fit by their ZIP64 counterparts
+        int extraEnd = buf.position() + extraLength;
+        while (buf.position() + 4 <= extraEnd) {
+            int id = buf.getShort() & 0xffff;
+            int length = buf.getShort() & 0xffff;
+            int next = buf.position() + length;
+            if (id == ZIP64_EXTRA_ID) {
+                if (entry.size == ZIP64_MAGIC) {
+                    entry.size = buf.getLong();
+                }
+                if (entry.compressedSize == ZIP64_MAGIC) {
+                    entry.compressedSize = buf.getLong();
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC) {
+                    entry.localHeaderOffset = buf.getLong();
+                }
+            }
+            buf.position(next);
+        }
+        buf.position(extraEnd + commentLength);
+        return entry;
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Returns the entry with the specified name.
+     * @param name Name of the entry
+     * @return The entry or {@code null} if no such entry exists
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Returns all entries in the order in which they appear in the central directory.
+     * @return Unmodifiable list of entries
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Returns the offset of the central directory in the file.
+     * This is also where the data of the last entry ends (unless there's garbage in between).
+     * @return Offset in bytes
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the offset of the first (ZIP64) end of central directory record.
+     * @return Offset in bytes
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * A single entry in the central directory.
+     */
+    public static class Entry {
+        private String name;
+        private int flags;
+        private int method;
+        private long dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+
+        private Entry() {
+        }
+
+        Entry(String name, int flags, int method, long dosTime, long crc, long compressedSize, long size,
+              long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        /**
+         * @return The compression method, one of {@link java.util.zip.ZipEntry#STORED} or
+         *          {@link java.util.zip.ZipEntry#DEFLATED}
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * @return Last modification time in MS-DOS format
+         */
+        public long getDosTime() {
+            return dosTime;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        /**
+         * Returns the offset of the (possibly compressed) data of this entry in the file.
+         * This requires reading the local file header as its extra field may differ from the one in the central
+         * directory.
+         * @param channel Channel of the ZIP file
+         * @return Offset in bytes
+         * @throws IOException if an I/O error occurs or the local file header is invalid
+         */
+        public long getDataOffset(FileChannel channel) throws IOException {
+            ByteBuffer header = readFully(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local file header for " + name);
+            }
+            int nameLength = header.getShort(26) & 0xffff;
+            int extraLength = header.getShort(28) & 0xffff;
+            return localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", method=" + method +
+                    ", compressedSize=" + compressedSize +
+                    ", size=" + size +
+                    ", localHeaderOffset=" + localHeaderOffset +
+                    '}';
+        }
+    }
+}
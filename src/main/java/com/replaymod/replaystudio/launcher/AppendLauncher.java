@@ -0,0 +1,134 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Closeables;
+import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.io.ReplayOutputStream;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.protocol.packets.PacketLoginSuccess;
+import com.replaymod.replaystudio.replay.ReplayFile;
+import com.replaymod.replaystudio.replay.ReplayMetaData;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import com.replaymod.replaystudio.studio.ReplayStudio;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import org.apache.commons.cli.CommandLine;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Launcher which concatenates multiple replays into one.
+ * Packet data is copied frame by frame with only the timestamps being rewritten, packets are never decoded.
+ * The login phase of all but the first replay is dropped, all replays must be of the same protocol version.
+ */
+public class AppendLauncher {
+
+    private final Studio studio = new ReplayStudio();
+
+    public void launch(CommandLine cmd) throws IOException {
+        List<String> files = new ArrayList<>();
+        files.add(cmd.getOptionValue('a'));
+        files.addAll(Arrays.asList(cmd.getArgs()));
+        if (files.size() < 3) {
+            throw new IllegalArgumentException("Expected at least two input files and one output file.");
+        }
+        List<String> inputs = files.subList(0, files.size() - 1);
+        OutputFile output = OutputFile.parse(files.get(files.size() - 1));
+        if (output.isDiscarded()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        List<ReplayFile> inFiles = new ArrayList<>();
+        try {
+            for (String input : inputs) {
+                inFiles.add(new ZipReplayFile(studio, new File(input)));
+            }
+            ReplayMetaData meta = new ReplayMetaData(inFiles.get(0).getMetaData());
+            ProtocolVersion version = meta.getProtocolVersion();
+            Set<String> players = new LinkedHashSet<>();
+            for (int i = 0; i < inFiles.size(); i++) {
+                ReplayMetaData inMeta = inFiles.get(i).getMetaData();
+                if (inMeta.getProtocolVersion() != version) {
+                    throw new IllegalArgumentException("Protocol version of " + inputs.get(i) + " (" + inMeta.getProtocolVersion()
+                            + ") differs from the one of the first replay (" + version + ").");
+                }
+                players.addAll(Arrays.asList(inMeta.getPlayers()));
+            }
+            meta.setPlayers(players.toArray(new String[0]));
+
+            try (ReplayOutputStream out = output.open(version, meta)) {
+                long offset = 0;
+                for (int i = 0; i < inFiles.size(); i++) {
+                    System.out.print("Appending replay " + (i + 1) + " of " + inFiles.size() + "...\r");
+                    ReplayFile inFile = inFiles.get(i);
+                    ReplayMetaData inMeta = inFile.getMetaData();
+                    boolean includesLoginPhase = inMeta.getFileFormatVersion() >= 14;
+                    if (i == 0 && !includesLoginPhase) {
+                        // Raw frames of older replays do not include the login phase, so we have to end it ourselves
+                        PacketTypeRegistry registry = PacketTypeRegistry.get(version, State.LOGIN);
+                        out.write(0, new PacketLoginSuccess(UUID.nameUUIDFromBytes(new byte[0]), "Player").write(registry));
+                    }
+
+                    Optional<InputStream> rawIn = inFile.getRawPacketData();
+                    if (!rawIn.isPresent()) {
+                        continue;
+                    }
+                    long lastTime = 0;
+                    try (InputStream in = new BufferedInputStream(rawIn.get())) {
+                        FrameReader frames = new FrameReader(in,
+                                includesLoginPhase ? PacketTypeRegistry.get(version, State.LOGIN) : null);
+                        while (frames.next()) {
+                            if (i > 0 && frames.isLoginPhase()) {
+                                continue; // We're already logged in
+                            }
+                            lastTime = Math.max(lastTime, frames.getTime());
+                            out.writeFrame((int) (offset + frames.getTime()), frames.getData(), 0, frames.getLength());
+                        }
+                    }
+                    offset += lastTime;
+                }
+            }
+        } finally {
+            for (ReplayFile inFile : inFiles) {
+                Closeables.close(inFile, true);
+            }
+        }
+
+        System.out.println("Done after " + (System.nanoTime() - start) + "ns");
+    }
+}
@@ -24,46 +24,125 @@
  */
 package com.replaymod.replaystudio.launcher;
 
-import com.replaymod.replaystudio.util.ThreadLocalOutputStream;
+import com.replaymod.replaystudio.studio.ReplayStudio;
+import com.replaymod.replaystudio.util.Metrics;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class for launching a daemon which listens on port 4002 (specified through env var {@code replaystudio.port}) for
  * requests and executes these.
  * No authentication is performed!
+ * <br>
+ * Each connection may submit any number of jobs without waiting for earlier ones to finish. Jobs are identified by
+ * an id chosen by the client which is unique among its unfinished jobs. All messages are binary frames starting with
+ * their type followed by the job id (both encoded as by {@link DataOutput}). Texts sent by the daemon are encoded as
+ * an int length followed by that many bytes of UTF-8, so they are not limited in size like {@code UTF} strings.
+ * <br>
+ * Client to daemon:
+ * <ul>
+ *     <li>{@code SUBMIT (byte 1), int id, int argc, argc x UTF arg}: Queues the command line</li>
+ *     <li>{@code CANCEL (byte 2), int id}: Cancels the job, whether queued or running</li>
+ *     <li>{@code METRICS (byte 3), int id}: Requests a text dump of the daemon's metrics, the id is only echoed</li>
+ * </ul>
+ * Daemon to client:
+ * <ul>
+ *     <li>{@code ACCEPTED (byte 1), int id}: The job has been queued</li>
+ *     <li>{@code REJECTED (byte 2), int id, text reason}: The job was not queued, e.g. because the queue is full</li>
+ *     <li>{@code STARTED (byte 3), int id}: The job is now running</li>
+ *     <li>{@code PROGRESS (byte 4), int id, float progress}: Progress of the job between 0 and 1 (stream mode only)</li>
+ *     <li>{@code DONE (byte 5), int id}: The job completed successfully</li>
+ *     <li>{@code FAILED (byte 6), int id, text stacktrace}: The job failed</li>
+ *     <li>{@code CANCELLED (byte 7), int id}: The job was cancelled</li>
+ *     <li>{@code METRICS (byte 8), int id, text dump}: Metrics as requested, one "name value" pair per line</li>
+ * </ul>
+ * Every accepted job ends with exactly one of DONE, FAILED or CANCELLED. Closing the connection cancels all of its jobs.
+ * Anything a job prints goes to the daemon's own stdout and is not forwarded to the client.
+ * <br>
+ * Metrics are also exposed via JMX, see {@link Metrics}.
  */
 public class DaemonLauncher {
     private static final int PORT = Integer.parseInt(System.getProperty("replaystudio.port", "4002"));
+    private static final int QUEUE_SIZE = Integer.parseInt(System.getProperty("replaystudio.queue", "256"));
+    private static final int MAX_CONNECTIONS = Integer.parseInt(System.getProperty("replaystudio.connections", "64"));
+    private static final int CACHE_SIZE = Integer.parseInt(System.getProperty("replaystudio.cache.size", "32"));
+    private static final long CACHE_IDLE = Long.parseLong(System.getProperty("replaystudio.cache.idle", "300"));
 
-    private ExecutorService worker;
-    private ThreadLocalOutputStream systemOut;
+    private static final byte SUBMIT = 1;
+    private static final byte CANCEL = 2;
+    private static final byte METRICS_REQUEST = 3;
+
+    private static final byte ACCEPTED = 1;
+    private static final byte REJECTED = 2;
+    private static final byte STARTED = 3;
+    private static final byte PROGRESS = 4;
+    private static final byte DONE = 5;
+    private static final byte FAILED = 6;
+    private static final byte CANCELLED = 7;
+    private static final byte METRICS = 8;
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int FINISHED = 2;
+
+    private ThreadPoolExecutor worker;
+    private final ReplayFileCache replayCache = new ReplayFileCache(new ReplayStudio(), CACHE_SIZE, CACHE_IDLE * 1000);
+    private final Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+
+    private final Metrics.Counter rejected = Metrics.counter("daemon.rejected");
+    private final Metrics.Timer queueTime = Metrics.timer("daemon.queued");
 
     public void launch(CommandLine cmd) throws Exception {
         int threads = Integer.parseInt(cmd.getOptionValue('d', "" + Runtime.getRuntime().availableProcessors()));
-        worker = Executors.newFixedThreadPool(threads);
+        worker = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE));
+
+        Metrics.setEnabled(true);
+        Metrics.gauge("daemon.queue", () -> worker.getQueue().size());
+        Metrics.gauge("daemon.active", () -> worker.getActiveCount());
+        Metrics.gauge("daemon.connections", () -> MAX_CONNECTIONS - connections.availablePermits());
+        Metrics.registerMBean();
+
+        ScheduledExecutorService cacheEviction = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ReplayStudio-cache-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionInterval = Math.max(1, CACHE_IDLE / 10);
+        cacheEviction.scheduleWithFixedDelay(replayCache::evictIdle, evictionInterval, evictionInterval, TimeUnit.SECONDS);
 
-        System.setOut(new PrintStream(systemOut = new ThreadLocalOutputStream(System.out)));
         ServerSocket serverSocket = new ServerSocket(PORT);
         System.out.println("Daemon started on port " + PORT + " with " + threads + " worker threads.");
         while (!Thread.interrupted()) {
             Socket socket = serverSocket.accept();
+            if (!connections.tryAcquire()) {
+                System.out.println("Rejecting connection from " + socket.getRemoteSocketAddress() + ": too many connections");
+                socket.close();
+                continue;
+            }
             try {
-                Client client = new Client(socket);
-                new Thread(client).start();
+                Thread thread = new Thread(new Client(socket), "ReplayStudio-daemon-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
             } catch (IOException e) {
+                connections.release();
                 e.printStackTrace();
             }
         }
@@ -71,71 +150,201 @@ public class DaemonLauncher {
 
     private class Client implements Runnable {
         private final Socket socket;
-        private final BufferedReader in;
+        private final DataInputStream in;
         private final DataOutputStream out;
+        private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
 
         public Client(Socket socket) throws IOException {
             this.socket = socket;
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.out = new DataOutputStream(socket.getOutputStream());
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
         }
 
-        @SuppressWarnings("deprecation")
         @Override
         public void run() {
             try {
-                while (!socket.isClosed()) {
-                    String command = in.readLine();
-                    out.write(0);
-                    out.write(0);
-                    Future future = worker.submit(() -> {
-                        System.out.println("[" + Thread.currentThread().getName() + "] Running: " + command);
-                        systemOut.setOutput(out);
-                        List<String> parts = new ArrayList<>();
-                        Matcher m = Pattern.compile("([^\"]\\S*|\".+?\")\\s*").matcher(command);
-                        while (m.find())
-                            parts.add(m.group(1).replace("\"", ""));
-
-                        try {
-                            out.write(0);
-                            out.write(1);
-                            Launcher.run(parts.toArray(new String[parts.size()]));
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            try {
-                                out.write(0);
-                                out.write(3);
-                                out.writeUTF(ExceptionUtils.getStackTrace(e));
-                                out.close();
-                                socket.close();
-                            } catch (IOException e1) {
-                                e1.printStackTrace();
-                            }
-                        }
-                        systemOut.setOutput(systemOut.getDefault());
-                        System.out.println("[" + Thread.currentThread().getName() + "] Done: " + command);
-                    });
+                while (true) {
+                    byte type;
                     try {
-                        future.get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        e.printStackTrace();
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
                     }
-                    if (!socket.isClosed()) {
-                        out.write(0);
-                        out.write(2);
+                    int id = in.readInt();
+                    if (type == SUBMIT) {
+                        String[] args = new String[in.readInt()];
+                        for (int i = 0; i < args.length; i++) {
+                            args[i] = in.readUTF();
+                        }
+                        submit(id, args);
+                    } else if (type == CANCEL) {
+                        Job job = jobs.get(id);
+                        if (job != null) {
+                            job.cancel();
+                        }
+                    } else if (type == METRICS_REQUEST) {
+                        send(METRICS, id, Metrics.dump());
+                    } else {
+                        throw new IOException("Unknown frame type: " + type);
                     }
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
-                if (!socket.isClosed()) {
-                    try {
-                        socket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                jobs.values().forEach(Job::cancel);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                connections.release();
+            }
+        }
+
+        private void submit(int id, String[] args) {
+            Job job = new Job(this, id, args);
+            if (jobs.putIfAbsent(id, job) != null) {
+                send(REJECTED, id, "Duplicate job id");
+                return;
+            }
+            try {
+                worker.execute(job);
+            } catch (RejectedExecutionException e) {
+                jobs.remove(id);
+                rejected.add(1);
+                send(REJECTED, id, "Queue is full");
+                return;
+            }
+            send(ACCEPTED, id, null);
+        }
+
+        private void send(byte type, int id, String message) {
+            byte[] bytes = message != null ? message.getBytes(StandardCharsets.UTF_8) : null;
+            synchronized (out) {
+                try {
+                    out.writeByte(type);
+                    out.writeInt(id);
+                    if (bytes != null) {
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    // Client is gone, its jobs are cancelled once the reading side notices
+                    closeQuietly();
+                }
+            }
+        }
+
+        private void sendProgress(int id, float progress) {
+            synchronized (out) {
+                try {
+                    out.writeByte(PROGRESS);
+                    out.writeInt(id);
+                    out.writeFloat(progress);
+                    out.flush();
+                } catch (IOException e) {
+                    closeQuietly();
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private class Job implements Runnable {
+        private final Client client;
+        private final int id;
+        private final String[] args;
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final long submitted = System.nanoTime();
+        private volatile boolean cancelled;
+        private Thread runner;
+
+        Job(Client client, int id, String[] args) {
+            this.client = client;
+            this.id = id;
+            this.args = args;
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(QUEUED, RUNNING)) {
+                return; // Cancelled while queued
+            }
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            queueTime.recordSince(submitted);
+            long start = System.nanoTime();
+            System.out.println("[" + Thread.currentThread().getName() + "] Running job " + id + ": " + String.join(" ", args));
+            client.send(STARTED, id, null);
+            Throwable failure = null;
+            try {
+                Launcher.run(args, progress -> {
+                    if (cancelled) {
+                        throw new CancellationException();
                     }
+                    client.sendProgress(id, (float) progress);
+                }, replayCache);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    Thread.interrupted(); // Do not leak a cancellation into the next job of this thread
                 }
+                state.set(FINISHED);
+                client.jobs.remove(id);
+                Metrics.timer("daemon.job." + commandType(args)).recordSince(start);
             }
+            if (cancelled) {
+                client.send(CANCELLED, id, null);
+            } else if (failure != null) {
+                failure.printStackTrace();
+                client.send(FAILED, id, ExceptionUtils.getStackTrace(failure));
+            } else {
+                client.send(DONE, id, null);
+            }
+            System.out.println("[" + Thread.currentThread().getName() + "] Done job " + id);
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (state.compareAndSet(QUEUED, FINISHED)) {
+                worker.remove(this);
+                client.jobs.remove(id);
+                client.send(CANCELLED, id, null);
+                return;
+            }
+            // Running jobs stop at their next progress update or blocking operation
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the type of command described by the arguments, in the same order of precedence as {@link Launcher}.
+     */
+    private static String commandType(String[] args) {
+        List<String> list = Arrays.asList(args);
+        if (list.contains("-s") || list.contains("--stream") || list.contains("-q") || list.contains("--squash")) {
+            return list.contains("-b") || list.contains("--batch") ? "batch" : "stream";
+        } else if (list.contains("-p") || list.contains("--parts")) {
+            return "split";
+        } else if (list.contains("-a") || list.contains("--append")) {
+            return "append";
+        } else if (list.contains("-r") || list.contains("--reverse")) {
+            return "reverse";
         }
+        return "other";
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.google.common.io.ByteStreams;
+import com.replaymod.replaystudio.protocol.PacketType;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.replaymod.replaystudio.util.Utils.readInt;
+
+/**
+ * Reads raw frames from uncompressed packet data without decoding them.
+ * Only the packet ids of frames in the login phase are read to find its end.
+ */
+class FrameReader {
+    private final InputStream in;
+    private final PacketTypeRegistry loginRegistry;
+    private boolean loginPhase;
+
+    private int time;
+    private int length;
+    private byte[] data = new byte[8192];
+    private boolean frameInLoginPhase;
+
+    /**
+     * @param in The packet data
+     * @param loginRegistry Registry for the login phase of the packet data or {@code null} if the packet data does not
+     *                      include the login phase (file format version 13 and below)
+     */
+    FrameReader(InputStream in, PacketTypeRegistry loginRegistry) {
+        this.in = in;
+        this.loginRegistry = loginRegistry;
+        this.loginPhase = loginRegistry != null;
+    }
+
+    /**
+     * Reads the next frame.
+     * @return {@code false} if the end of the packet data has been reached, {@code true} otherwise
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean next() throws IOException {
+        time = readInt(in);
+        length = readInt(in);
+        if (time == -1 || length == -1) {
+            return false; // reached end of stream
+        }
+        if (length > data.length) {
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        ByteStreams.readFully(in, data, 0, length);
+
+        frameInLoginPhase = loginPhase;
+        if (loginPhase && length > 0 && loginRegistry.getType(getPacketId()) == PacketType.LoginSuccess) {
+            loginPhase = false;
+        }
+        return true;
+    }
+
+    int getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the length of the current frame, excluding its header.
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the buffer containing the packet data of the current frame, starting with the packet id.
+     * The buffer is reused for the next frame.
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns whether the current frame is part of the login phase, including the frame containing the LoginSuccess
+     * packet.
+     */
+    boolean isLoginPhase() {
+        return frameInLoginPhase;
+    }
+
+    private int getPacketId() {
+        int value = 0;
+        for (int i = 0; i < 5 && i < length; i++) {
+            byte b = data[i];
+            value |= (b & 0x7f) << (i * 7);
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return value;
+    }
+}
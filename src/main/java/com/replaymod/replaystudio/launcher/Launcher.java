@@ -31,6 +31,8 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import java.util.function.DoubleConsumer;
+
 public class Launcher {
     public static void main(String[] args) throws Exception {
         try {
@@ -41,6 +43,17 @@ public class Launcher {
     }
 
     public static void run(String[] args) throws Exception {
+        run(args, null, null);
+    }
+
+    /**
+     * Runs the launcher with the specified arguments.
+     * @param args The command line arguments
+     * @param progressListener Receives the progress (between 0 and 1) of stream mode runs instead of it being
+     *                         printed, may be {@code null}
+     * @param replayCache Cache of input replays to be used in stream mode, may be {@code null}
+     */
+    public static void run(String[] args, DoubleConsumer progressListener, ReplayFileCache replayCache) throws Exception {
         Options options = new Options();
         options.addOption("h", "help", false, "Shows the help page.");
         options.addOption("w", "wait", true, "[Debugging] Amount of seconds to wait before starting.");
@@ -58,10 +71,20 @@ public class Launcher {
                 "This is equivalent to -c \"(<a,<b,<c,>d)(a,b,c&d)\"");
         options.addOption("q", "squash", false, "Squash the supplied replay and save the result in the second replay file.\n" +
                 "This is equivalent to -c \"(<a,>b)(a[b)\"");
+        options.addOption("t", "threads", true, "Compresses the output on the specified amount of threads. " +
+                "(Only supported in stream mode)");
+        options.addOption("P", "parallel", false, "Runs stream filters in parallel, each on its own thread where possible. " +
+                "(Only supported in stream mode)");
+        options.addOption("b", "batch", true, "Applies the stream filters to every replay in the first supplied " +
+                "directory (or matching the supplied glob) on the specified amount of threads. The second argument is " +
+                "the output file in which \"{name}\" is replaced by the name of the input replay. " +
+                "(Only supported in stream mode)");
         options.addOption("r", "reverse", false, "Reverses the packet order in the specified replay and writes it" +
                 "to the specified output file. Note that the output file if raw packet data, not a zipped replay with meta data.");
-        options.addOption("d", "daemon", true, "Runs replay studio as a daemon listening for requests. Pass in the amount" +
-                "of concurrent worker threads. The port of the daemon is defined by the environment variable 'replaystudio.port' (default 4002).");
+        options.addOption("d", "daemon", true, "Runs replay studio as a daemon listening for requests. Pass in the amount " +
+                "of concurrent worker threads. The port of the daemon is defined by the environment variable 'replaystudio.port' (default 4002), " +
+                "the maximum amount of queued jobs by 'replaystudio.queue' (default 256). Up to 'replaystudio.cache.size' " +
+                "(default 32) unused input replays are kept open for 'replaystudio.cache.idle' seconds (default 300).");
 
         CommandLineParser parser = new GnuParser();
         CommandLine cmd;
@@ -92,7 +115,11 @@ public class Launcher {
         }
 
         if (cmd.hasOption('s') || cmd.hasOption('q')) {
-            new StreamLauncher().launch(cmd);
+            new StreamLauncher(progressListener, replayCache).launch(cmd);
+        } else if (cmd.hasOption('p')) {
+            new SplitLauncher().launch(cmd);
+        } else if (cmd.hasOption('a')) {
+            new AppendLauncher().launch(cmd);
         } else if (cmd.hasOption('r')) {
             new ReverseLauncher().launch(cmd);
         } else if (cmd.hasOption('d')) {
@@ -0,0 +1,90 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.replaymod.replaystudio.io.ReplayOutputStream;
+import com.replaymod.replaystudio.replay.ReplayMetaData;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * An output file argument of the form {@code <file>[!<name>[!<singleplayer>[!<time>]]]}.
+ * The optional suffixes override the respective fields of the meta data, an output of {@code x} discards the replay.
+ */
+class OutputFile {
+    private final String path;
+    private final String serverName;
+    private final Boolean singleplayer;
+    private final Long date;
+
+    private OutputFile(String path, String serverName, Boolean singleplayer, Long date) {
+        this.path = path;
+        this.serverName = serverName;
+        this.singleplayer = singleplayer;
+        this.date = date;
+    }
+
+    static OutputFile parse(String arg) {
+        String[] parts = arg.split("!", 4);
+        return new OutputFile(parts[0],
+                parts.length > 1 ? parts[1] : null,
+                parts.length > 2 ? Boolean.parseBoolean(parts[2]) : null,
+                parts.length > 3 ? Long.parseLong(parts[3]) : null);
+    }
+
+    /**
+     * Returns whether this output should be discarded.
+     */
+    boolean isDiscarded() {
+        return "x".equals(path);
+    }
+
+    /**
+     * Opens a replay output stream for this file.
+     * @param version The protocol version of the packet data
+     * @param metaData Meta data for the replay, a copy with the overrides of this output applied is written
+     * @return The output stream or {@code null} if this output is discarded
+     * @throws IOException if an I/O error occurs.
+     */
+    ReplayOutputStream open(ProtocolVersion version, ReplayMetaData metaData) throws IOException {
+        if (isDiscarded()) {
+            return null;
+        }
+        metaData = new ReplayMetaData(metaData);
+        if (serverName != null) {
+            metaData.setServerName(serverName);
+        }
+        if (singleplayer != null) {
+            metaData.setSingleplayer(singleplayer);
+        }
+        if (date != null) {
+            metaData.setDate(date);
+        }
+        return new ReplayOutputStream(version, new BufferedOutputStream(new FileOutputStream(path)), metaData);
+    }
+}
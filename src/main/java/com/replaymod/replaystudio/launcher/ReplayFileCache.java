@@ -0,0 +1,273 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.replay.ReplayFile;
+import com.replaymod.replaystudio.replay.ReplayMetaData;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used cache of open replay files and their meta data, so consecutive jobs on the same replay do not
+ * have to re-open and re-parse it.
+ * Cached replays are only ever read from. An entry is invalidated once the file's size or modification time changes.
+ * Replays which are no longer in use are closed when they are evicted, either because the cache holds more than the
+ * maximum amount of replays or because they have not been used for longer than the maximum idle time.
+ */
+public class ReplayFileCache implements Closeable {
+    private final Studio studio;
+    private final int maxSize;
+    private final long maxIdleMillis;
+
+    /**
+     * All cached entries in access order.
+     */
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Creates a new cache.
+     * @param studio The studio used to open replay files
+     * @param maxSize Maximum amount of replays kept open while not in use
+     * @param maxIdleMillis Time in milliseconds after which unused replays are closed
+     */
+    public ReplayFileCache(Studio studio, int maxSize, long maxIdleMillis) {
+        this.studio = studio;
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * Returns a handle for the specified replay file which has to be closed once it is no longer used.
+     * @param file The replay file
+     * @return The handle
+     * @throws IOException if an I/O error occurs while opening the replay
+     */
+    public Handle acquire(File file) throws IOException {
+        file = file.getAbsoluteFile();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(file);
+            if (entry != null && (entry.length != length || entry.lastModified != lastModified)) {
+                entries.remove(file);
+                entry.evicted = true;
+                closeIfUnused(entry);
+                entry = null;
+            }
+            if (entry != null) {
+                entry.refs++;
+                return new Handle(this, entry);
+            }
+        }
+
+        // Open the replay outside of the lock, if another thread races us, the later one will simply not be cached
+        ReplayFile replayFile = new ZipReplayFile(studio, file);
+        ReplayMetaData metaData;
+        try {
+            metaData = replayFile.getMetaData();
+        } catch (IOException | RuntimeException e) {
+            replayFile.close();
+            throw e;
+        }
+        entry = new Entry(file, replayFile, metaData, length, lastModified);
+        entry.refs++;
+        synchronized (this) {
+            if (!entries.containsKey(file)) {
+                entries.put(file, entry);
+                evict();
+            } else {
+                entry.evicted = true;
+            }
+        }
+        return new Handle(this, entry);
+    }
+
+    /**
+     * Closes all unused replays which have not been used for longer than the maximum idle time.
+     */
+    public void evictIdle() {
+        List<Entry> closed = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Entry> iter = entries.values().iterator();
+            while (iter.hasNext()) {
+                Entry entry = iter.next();
+                if (entry.refs == 0 && now - entry.lastUsed > maxIdleMillis) {
+                    iter.remove();
+                    entry.evicted = true;
+                    closed.add(entry);
+                }
+            }
+        }
+        closed.forEach(Entry::close);
+    }
+
+    /**
+     * Closes unused replays, least recently used first, until at most {@link #maxSize} unused replays remain.
+     */
+    private synchronized void evict() {
+        int unused = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.refs == 0) {
+                unused++;
+            }
+        }
+        Iterator<Entry> iter = entries.values().iterator();
+        while (unused > maxSize && iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.refs == 0) {
+                iter.remove();
+                entry.evicted = true;
+                entry.close();
+                unused--;
+            }
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.refs--;
+        entry.lastUsed = System.currentTimeMillis();
+        if (entry.evicted) {
+            closeIfUnused(entry);
+        } else {
+            evict();
+        }
+    }
+
+    private void closeIfUnused(Entry entry) {
+        if (entry.refs == 0) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Closes all replays which are not in use and evicts those which are (they are closed once released).
+     */
+    @Override
+    public synchronized void close() {
+        for (Entry entry : entries.values()) {
+            entry.evicted = true;
+            closeIfUnused(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Opens the specified replay without caching it. Closing the handle closes the replay.
+     * @param studio The studio used to open the replay
+     * @param file The replay file
+     * @return The handle
+     * @throws IOException if an I/O error occurs while opening the replay
+     */
+    public static Handle uncached(Studio studio, File file) throws IOException {
+        ReplayFile replayFile = new ZipReplayFile(studio, file);
+        ReplayMetaData metaData;
+        try {
+            metaData = replayFile.getMetaData();
+        } catch (IOException | RuntimeException e) {
+            replayFile.close();
+            throw e;
+        }
+        return new Handle(null, new Entry(file, replayFile, metaData, 0, 0));
+    }
+
+    private static class Entry {
+        private final File file;
+        private final ReplayFile replayFile;
+        private final ReplayMetaData metaData;
+        private final long length;
+        private final long lastModified;
+        private int refs;
+        private long lastUsed = System.currentTimeMillis();
+        private boolean evicted;
+
+        Entry(File file, ReplayFile replayFile, ReplayMetaData metaData, long length, long lastModified) {
+            this.file = file;
+            this.replayFile = replayFile;
+            this.metaData = metaData;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        void close() {
+            try {
+                replayFile.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close cached replay " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * A replay in use. Only methods which read from the replay may be called on it.
+     */
+    public static class Handle implements Closeable {
+        /**
+         * The cache this handle belongs to or {@code null} if the replay is not cached.
+         */
+        private final ReplayFileCache cache;
+        private final Entry entry;
+        private boolean closed;
+
+        private Handle(ReplayFileCache cache, Entry entry) {
+            this.cache = cache;
+            this.entry = entry;
+        }
+
+        public ReplayFile getReplayFile() {
+            return entry.replayFile;
+        }
+
+        /**
+         * Returns the meta data of the replay. The returned instance is shared and must not be modified.
+         * @return The meta data
+         */
+        public ReplayMetaData getMetaData() {
+            return entry.metaData;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                if (cache != null) {
+                    cache.release(entry);
+                } else {
+                    entry.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Closeables;
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.io.ReplayOutputStream;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.protocol.packets.PacketLoginSuccess;
+import com.replaymod.replaystudio.replay.ReplayFile;
+import com.replaymod.replaystudio.replay.ReplayMetaData;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import com.replaymod.replaystudio.studio.ReplayStudio;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import org.apache.commons.cli.CommandLine;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Launcher which splits a replay into multiple parts at the specified times.
+ * Packet data is copied frame by frame with only the timestamps being rewritten. The state at the start of each part
+ * is taken from {@link ReplayFile#getStateAt(PacketTypeRegistry, int)}, which only has to squash the packets since the
+ * closest squash checkpoint in the cache of the input file.
+ */
+public class SplitLauncher {
+
+    private final Studio studio = new ReplayStudio();
+
+    public void launch(CommandLine cmd) throws IOException {
+        String[] args = cmd.getArgs();
+        String[] times = cmd.getOptionValue('p').split(":");
+        long[] splits = new long[times.length];
+        for (int i = 0; i < times.length; i++) {
+            splits[i] = StreamLauncher.timeStampToMillis(times[i]);
+            if (splits[i] <= 0 || i > 0 && splits[i] <= splits[i - 1]) {
+                throw new IllegalArgumentException("Split positions must be positive and in ascending order.");
+            }
+        }
+        if (args.length != splits.length + 2) {
+            throw new IllegalArgumentException("Expected one input and " + (splits.length + 1) + " output files.");
+        }
+        OutputFile[] outputs = new OutputFile[splits.length + 1];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = OutputFile.parse(args[i + 1]);
+        }
+
+        long start = System.nanoTime();
+
+        try (ReplayFile inFile = new ZipReplayFile(studio, new File(args[0]))) {
+            ReplayMetaData meta = inFile.getMetaData();
+            ProtocolVersion version = meta.getProtocolVersion();
+            PacketTypeRegistry loginRegistry = PacketTypeRegistry.get(version, State.LOGIN);
+            boolean includesLoginPhase = meta.getFileFormatVersion() >= 14;
+
+            Optional<InputStream> rawIn = inFile.getRawPacketData();
+            if (!rawIn.isPresent()) {
+                throw new IOException("Input file has no packet data.");
+            }
+            ReplayOutputStream out = null;
+            try (InputStream in = new BufferedInputStream(rawIn.get())) {
+                FrameReader frames = new FrameReader(in, includesLoginPhase ? loginRegistry : null);
+
+                int part = 0;
+                long partStart = 0;
+                out = startPart(inFile, outputs[0], version, meta, 0, includesLoginPhase);
+                while (frames.next()) {
+                    int time = frames.getTime();
+                    while (part < splits.length && time >= splits[part]) {
+                        closePart(out);
+                        out = null;
+                        partStart = splits[part++];
+                        System.out.print("Writing part " + (part + 1) + " of " + outputs.length + "...\r");
+                        out = startPart(inFile, outputs[part], version, meta, partStart, includesLoginPhase);
+                    }
+
+                    if (out != null) {
+                        out.writeFrame((int) Math.max(0, time - partStart), frames.getData(), 0, frames.getLength());
+                    }
+                }
+
+                // Parts starting after the end of the replay only contain its final state
+                while (part < splits.length) {
+                    closePart(out);
+                    out = null;
+                    partStart = splits[part++];
+                    out = startPart(inFile, outputs[part], version, meta, partStart, includesLoginPhase);
+                }
+                closePart(out);
+                out = null;
+            } finally {
+                // Only still set if we failed part way through a part
+                Closeables.close(out, true);
+            }
+        }
+
+        System.out.println("Done after " + (System.nanoTime() - start) + "ns");
+    }
+
+    private static void closePart(ReplayOutputStream out) throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * Opens the output of a part and writes its initial state.
+     * @param inFile The replay being split
+     * @param time Start time of the part in the original replay, the state consists of all packets before that time
+     * @return The output stream or {@code null} if the part is discarded
+     */
+    private ReplayOutputStream startPart(ReplayFile inFile, OutputFile output, ProtocolVersion version,
+                                         ReplayMetaData meta, long time, boolean includesLoginPhase) throws IOException {
+        ReplayMetaData partMeta = new ReplayMetaData(meta);
+        partMeta.setDate(meta.getDate() + time);
+        ReplayOutputStream out = output.open(version, partMeta);
+        if (out == null) {
+            return null;
+        }
+
+        try {
+            if (!includesLoginPhase) {
+                // Raw frames of older replays do not include the login phase, so we have to end it ourselves
+                PacketTypeRegistry registry = PacketTypeRegistry.get(version, State.LOGIN);
+                out.write(0, new PacketLoginSuccess(UUID.nameUUIDFromBytes(new byte[0]), "Player").write(registry));
+            }
+
+            if (time > 0) {
+                // Older replays have no login phase which could be part of the state
+                State state = includesLoginPhase ? State.LOGIN : State.PLAY;
+                List<PacketData> packets = inFile.getStateAt(PacketTypeRegistry.get(version, state), (int) time - 1);
+                if (packets == null) {
+                    throw new IOException("Input file has no packet data.");
+                }
+                int written = 0;
+                try {
+                    for (PacketData data : packets) {
+                        out.write(0, data.getPacket()); // releases the packet
+                        written++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    for (PacketData data : packets.subList(Math.min(written + 1, packets.size()), packets.size())) {
+                        data.release();
+                    }
+                    throw e;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Closeables.close(out, true);
+            throw e;
+        }
+        return out;
+    }
+}
@@ -24,42 +24,118 @@
  */
 package com.replaymod.replaystudio.launcher;
 
+import com.google.common.io.Closeables;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.filter.StageSafeFilter;
 import com.replaymod.replaystudio.filter.StreamFilter;
 import com.replaymod.replaystudio.io.ReplayOutputStream;
 import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
 import com.replaymod.replaystudio.replay.ReplayFile;
 import com.replaymod.replaystudio.replay.ReplayMetaData;
-import com.replaymod.replaystudio.replay.ZipReplayFile;
 import com.replaymod.replaystudio.stream.PacketStream;
+import com.replaymod.replaystudio.stream.ParallelPacketStream;
 import com.replaymod.replaystudio.studio.ReplayStudio;
+import com.replaymod.replaystudio.util.Metrics;
 import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
 import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
 import org.apache.commons.cli.CommandLine;
 
 import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import static java.lang.System.in;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
 
 public class StreamLauncher {
 
+    /**
+     * Number of packets retrieved from the stream at once.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private static final Metrics.Timer WRITE_TIME = Metrics.timer("stream.write");
+    private static final Metrics.Counter PACKETS = Metrics.counter("stream.packets");
+
     private final Studio studio = new ReplayStudio();
 
+    /**
+     * Receives the progress (between 0 and 1) of the current run or {@code null} if progress is printed instead.
+     */
+    private final DoubleConsumer progressListener;
+
+    /**
+     * Cache from which input replays are taken or {@code null} if they are opened for each run.
+     */
+    private final ReplayFileCache replayCache;
+
+    public StreamLauncher() {
+        this(null, null);
+    }
+
+    public StreamLauncher(DoubleConsumer progressListener, ReplayFileCache replayCache) {
+        this.progressListener = progressListener;
+        this.replayCache = replayCache;
+    }
+
     public void launch(CommandLine cmd) throws IOException {
         // Removes the first minute, applies sample_filter on the whole stream and applies some_other at 3m for 10s:
         //   remove(-1m),sample_filter,some_other(3m-3m10s)
-        List<PacketStream.FilterInfo> filters = new ArrayList<>();
         String[] instructions;
         if (cmd.hasOption('q')) {
             instructions = new String[]{"squash"};
         } else {
             instructions = cmd.getOptionValue('s').split(",");
         }
+
+        String input = cmd.getArgs()[0];
+        String output = cmd.getArgs()[1];
+
+        ExecutorService compressionExecutor = null;
+        if (cmd.hasOption('t')) {
+            compressionExecutor = Executors.newFixedThreadPool(Integer.parseInt(cmd.getOptionValue('t')));
+        }
+        try {
+            if (cmd.hasOption('b')) {
+                launchBatch(instructions, input, output, Integer.parseInt(cmd.getOptionValue('b')),
+                        cmd.hasOption('P'), compressionExecutor);
+            } else {
+                long start = System.nanoTime();
+                System.out.println("Generating " + ("x".equals(output) ? 0 : 1) + " replay via 1 stream from 1 input applying " + instructions.length + " filter(s)");
+                long packets = process(parseFilters(instructions), input, output, cmd.hasOption('P'), compressionExecutor, true);
+                long nanos = System.nanoTime() - start;
+                double seconds = nanos / 1e9;
+                System.out.println("Done after " + nanos + "ns: " + packets + " packets, " + String.format("%.0f packets/s, %.2f MB/s",
+                        packets / seconds, new File(input).length() / 1e6 / seconds));
+            }
+            if (Metrics.isEnabled()) {
+                System.out.print(Metrics.dump());
+            }
+        } finally {
+            if (compressionExecutor != null) {
+                compressionExecutor.shutdown();
+            }
+        }
+    }
+
+    private List<PacketStream.FilterInfo> parseFilters(String[] instructions) {
+        List<PacketStream.FilterInfo> filters = new ArrayList<>();
         for (String instruction : instructions) {
             long start, end;
             if (instruction.charAt(instruction.length()-1) == ')') {
@@ -80,64 +156,253 @@ public class StreamLauncher {
             } else {
                 config = new JsonObject();
             }
-            StreamFilter filter = studio.loadStreamFilter(instruction);
+            StreamFilter filter;
+            synchronized (studio) { // The service loader of the studio is not thread-safe
+                filter = studio.loadStreamFilter(instruction);
+            }
             if (filter == null) {
                 throw new IllegalStateException("Filter not found: " + instruction);
             }
             filter.init(studio,config);
             filters.add(new PacketStream.FilterInfo(filter, start, end));
         }
+        return filters;
+    }
 
-        String input = cmd.getArgs()[0];
-        String output = cmd.getArgs()[1];
+    /**
+     * Runs the filters over a single input replay.
+     * @param output Path of the output file or "x" to drop the output
+     * @param showProgress Whether to print the pipeline and the progress
+     * @return The number of packets in the output
+     */
+    private long process(List<PacketStream.FilterInfo> filters, String input, String output, boolean parallel,
+                         ExecutorService compressionExecutor, boolean showProgress) throws IOException {
+        File inputFile = new File(input);
+        try (ReplayFileCache.Handle handle = replayCache != null
+                ? replayCache.acquire(inputFile) : ReplayFileCache.uncached(studio, inputFile)) {
+            ReplayFile inFile = handle.getReplayFile();
+            ReplayMetaData meta = handle.getMetaData();
+            ProtocolVersion inputVersion = meta.getProtocolVersion();
+            File outputFile = "x".equals(output) ? null : new File(output);
+            OutputStream fileOut = null;
+            ReplayOutputStream out = null;
+            boolean success = false;
+            try {
+                if (outputFile != null) {
+                    fileOut = new BufferedOutputStream(new FileOutputStream(outputFile));
+                    out = new ReplayOutputStream(inputVersion, fileOut, null, 0, compressionExecutor);
+                }
+                PacketStream source = inFile.getMappedPacketData(PacketTypeRegistry.get(inputVersion, State.LOGIN)).asPacketStream();
+                boolean metrics = Metrics.isEnabled();
+                long packets = 0;
+                try (PacketStream stream = parallel ? new ParallelPacketStream(source) : source) {
+                    // Process stream
+                    stream.start();
 
-        long start = System.nanoTime();
-        System.out.println("Generating " + ("x".equals(output) ? 0 : 1) + " replay via 1 stream from 1 input applying " + filters.size() + " filter(s)");
-
-        ReplayFile inFile = new ZipReplayFile(studio, new File(input));
-        ReplayMetaData meta = inFile.getMetaData();
-        ProtocolVersion inputVersion = meta.getProtocolVersion();
-        ReplayOutputStream out;
-        if (!"x".equals(output)) {
-            OutputStream buffOut = new BufferedOutputStream(new FileOutputStream(output));
-            out = new ReplayOutputStream(inputVersion, buffOut, null);
-        } else {
-            out = null;
+                    if (showProgress) {
+                        stream.addFilter(new ProgressFilter(meta.getDuration(), progressListener));
+                    }
+                    for (PacketStream.FilterInfo info : filters) {
+                        stream.addFilter(info.getFilter(), info.getFrom(), info.getTo());
+                    }
+
+                    if (showProgress) {
+                        System.out.println("Built pipeline: " + stream);
+                    }
+
+                    PacketData[] batch = new PacketData[BATCH_SIZE];
+                    int read;
+                    if (out != null) { // Write output
+                        while ((read = stream.next(batch)) != -1) {
+                            long start = metrics ? System.nanoTime() : 0;
+                            try {
+                                out.write(Arrays.asList(batch).subList(0, read));
+                            } finally {
+                                Arrays.fill(batch, 0, read, null); // released by the output stream
+                            }
+                            if (metrics) {
+                                WRITE_TIME.recordSince(start);
+                            }
+                            packets += read;
+                        }
+
+                        List<PacketData> remaining = stream.end();
+                        packets += remaining.size();
+                        out.write(remaining);
+                    } else { // Drop output
+                        while ((read = stream.next(batch)) != -1) {
+                            for (int i = 0; i < read; i++) {
+                                batch[i].release();
+                            }
+                            packets += read;
+                        }
+                        for (PacketData data : stream.end()) {
+                            data.release();
+                            packets++;
+                        }
+                    }
+                }
+                if (out != null) {
+                    out.close();
+                }
+                success = true;
+                if (metrics) {
+                    PACKETS.add(packets);
+                }
+                return packets;
+            } finally {
+                if (!success && outputFile != null) {
+                    // Failed or cancelled, don't leave a half-written output behind
+                    Closeables.close(out, true);
+                    Closeables.close(fileOut, true);
+                    Files.deleteIfExists(outputFile.toPath());
+                }
+            }
         }
-        PacketStream stream = inFile.getPacketData(PacketTypeRegistry.get(inputVersion, State.LOGIN)).asPacketStream();
+    }
 
-        // Process stream
-        stream.start();
+    /**
+     * Runs the filters over every replay in a directory (or matching a glob in its last path component), largest
+     * replays first, on a fixed thread pool. All jobs share this JVM, so class loading, registry initialization and
+     * ViaVersion bootstrap only happen once.
+     * @param input Directory or glob of the input replays
+     * @param output Template for output files in which {@code {name}} is replaced by the input file name without
+     *               its extension, or "x" to drop the outputs. Every input must resolve to a distinct output file.
+     * @param threads Number of replays processed concurrently
+     */
+    private void launchBatch(String[] instructions, String input, String output, int threads, boolean parallel,
+                             ExecutorService compressionExecutor) throws IOException {
+        boolean dropOutput = "x".equals(output);
+        if (!dropOutput && !output.contains("{name}")) {
+            throw new IllegalArgumentException("Output template must contain {name} (or be x) in batch mode: " + output);
+        }
+        List<File> inputs = listInputs(input);
+        // Largest replays first, so a big one does not end up running alone at the end
+        inputs.sort(Comparator.comparingLong(File::length).reversed());
 
-        stream.addFilter(new ProgressFilter(meta.getDuration()));
-        for (PacketStream.FilterInfo info : filters) {
-            stream.addFilter(info.getFilter(), info.getFrom(), info.getTo());
+        // Resolve all outputs up front, concurrent jobs writing to the same file would silently overwrite each other
+        Map<File, String> targets = new LinkedHashMap<>();
+        Map<String, File> targetInputs = new HashMap<>();
+        for (File file : inputs) {
+            String name = file.getName();
+            int extension = name.lastIndexOf('.');
+            if (extension > 0) {
+                name = name.substring(0, extension);
+            }
+            String target = dropOutput ? output : output.replace("{name}", name);
+            if (!dropOutput) {
+                File other = targetInputs.put(new File(target).getCanonicalPath(), file);
+                if (other != null) {
+                    throw new IllegalArgumentException("Inputs " + other + " and " + file + " both resolve to output " + target);
+                }
+            }
+            targets.put(file, target);
         }
 
-        System.out.println("Built pipeline: " + stream);
+        System.out.println("Processing " + inputs.size() + " replay(s) on " + threads + " thread(s) applying "
+                + instructions.length + " filter(s)");
+        long start = System.nanoTime();
 
-        PacketData data;
-        if (out != null) { // Write output
-            while ((data = stream.next()) != null) {
-                out.write(data);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<BatchResult>> futures = new ArrayList<>();
+        long totalBytes = 0;
+        int failed = 0;
+        try {
+            for (File file : inputs) {
+                String target = targets.get(file);
+                futures.add(pool.submit(() -> {
+                    long jobStart = System.nanoTime();
+                    try {
+                        // Filters are stateful, so each replay gets its own instances
+                        process(parseFilters(instructions), file.getPath(), target, parallel, compressionExecutor, false);
+                        return new BatchResult(file, target, file.length(), System.nanoTime() - jobStart, null);
+                    } catch (Throwable t) {
+                        return new BatchResult(file, target, file.length(), System.nanoTime() - jobStart, t);
+                    }
+                }));
             }
+            pool.shutdown();
 
-            for (PacketData d : stream.end()) {
-                out.write(d);
+            int completed = 0;
+            for (Future<BatchResult> future : futures) {
+                BatchResult result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                if (result.error == null) {
+                    totalBytes += result.bytes;
+                    System.out.println("OK     " + result.input + " -> " + result.output
+                            + " (" + result.bytes + " bytes in " + result.nanos / 1000000 + "ms)");
+                } else {
+                    failed++;
+                    System.out.println("FAILED " + result.input + ": " + result.error);
+                }
+                if (progressListener != null) {
+                    progressListener.accept((double) ++completed / futures.size());
+                }
+            }
+        } finally {
+            // Only has an effect if we were interrupted or cancelled (e.g. by the progress listener) part way through
+            for (Future<BatchResult> future : futures) {
+                future.cancel(true);
             }
+            pool.shutdownNow();
+        }
+
+        long nanos = System.nanoTime() - start;
+        double seconds = nanos / 1e9;
+        System.out.println("Done after " + nanos + "ns: " + (inputs.size() - failed) + " succeeded, " + failed + " failed, "
+                + String.format("%.2f MB/s, %.2f replays/s", totalBytes / 1e6 / seconds, inputs.size() / seconds));
+    }
 
-            out.close();
-        } else { // Drop output
-            while (stream.next() != null);
-            stream.end();
+    /**
+     * Lists the input replays of a batch.
+     * @param input Either a directory, in which case all {@code .mcpr} files in it are returned, or a path whose last
+     *              component is a glob pattern (e.g. {@code replays/2017-*.mcpr})
+     */
+    private static List<File> listInputs(String input) throws IOException {
+        Path path = Paths.get(input);
+        Path dir;
+        PathMatcher matcher;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            matcher = FileSystems.getDefault().getPathMatcher("glob:*.mcpr");
+        } else {
+            dir = path.getParent() == null ? Paths.get(".") : path.getParent();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
         }
+        List<File> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file) && matcher.matches(file.getFileName())) {
+                    inputs.add(file.toFile());
+                }
+            }
+        }
+        return inputs;
+    }
 
-        in.close();
+    private static class BatchResult {
+        private final File input;
+        private final String output;
+        private final long bytes;
+        private final long nanos;
+        private final Throwable error;
 
-        System.out.println("Done after " + (System.nanoTime() - start) + "ns");
+        BatchResult(File input, String output, long bytes, long nanos, Throwable error) {
+            this.input = input;
+            this.output = output;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.error = error;
+        }
     }
 
-    private long timeStampToMillis(String string) {
+    static long timeStampToMillis(String string) {
         if (string.length() == 0) {
             return -1;
         }
@@ -174,13 +439,15 @@ public class StreamLauncher {
         }
     }
 
-    private static class ProgressFilter implements StreamFilter {
+    private static class ProgressFilter implements StageSafeFilter {
 
         private final long total;
+        private final DoubleConsumer listener;
         private int lastUpdate;
 
-        public ProgressFilter(long total) {
+        public ProgressFilter(long total, DoubleConsumer listener) {
             this.total = total;
+            this.listener = listener;
         }
 
         @Override
@@ -203,14 +470,20 @@ public class StreamLauncher {
             int pct = (int) (data.getTime() * 100 / total);
             if (pct > lastUpdate) {
                 lastUpdate = pct;
-                System.out.print("Processing... " + pct + "%\r");
+                if (listener != null) {
+                    listener.accept(pct / 100.0);
+                } else {
+                    System.out.print("Processing... " + pct + "%\r");
+                }
             }
             return true;
         }
 
         @Override
         public void onEnd(PacketStream stream, long timestamp) {
-            System.out.println();
+            if (listener == null) {
+                System.out.println();
+            }
         }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.protocol;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A value decoded from the content of a packet which is cached on the packet once it has been decoded.
+ * Fields are compared by identity, so instances should be kept in constants.
+ * @param <T> Type of the decoded value
+ * @see Packet#decode(DecodedField)
+ */
+public final class DecodedField<T> {
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * Index of the slot in which the value of this field is cached.
+     */
+    final int index = nextIndex.getAndIncrement();
+    private final Decoder<T> decoder;
+
+    public DecodedField(Decoder<T> decoder) {
+        this.decoder = decoder;
+    }
+
+    T decode(Packet packet) throws IOException {
+        return decoder.decode(packet);
+    }
+
+    /**
+     * Returns the number of fields created so far.
+     */
+    static int count() {
+        return nextIndex.get();
+    }
+
+    public interface Decoder<T> {
+        /**
+         * Decodes the value from the specified packet.
+         * @param packet The packet
+         * @return The value, {@code null} values are not cached
+         */
+        T decode(Packet packet) throws IOException;
+    }
+}
@@ -40,6 +40,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -50,6 +51,13 @@ public class Packet {
     private final PacketType type;
     private final ByteBuf buf;
 
+    /**
+     * Values decoded from the content of this packet, populated lazily by {@link #decode(DecodedField)}.
+     * Shared with copies of this packet (as they share the same content), which may be used on other threads.
+     * It is invalidated when any of them is overwritten, see {@link DecodedValues}.
+     */
+    private DecodedValues decoded;
+
     public Packet(PacketTypeRegistry registry, PacketType type) {
         this(registry, type, Unpooled.buffer());
     }
@@ -95,7 +103,12 @@ public class Packet {
     }
 
     public Packet copy() {
-        return new Packet(registry, id, type, buf.retainedSlice());
+        Packet copy = new Packet(registry, id, type, buf.retainedSlice());
+        if (decoded == null) {
+            decoded = new DecodedValues();
+        }
+        copy.decoded = decoded;
+        return copy;
     }
 
     public boolean release() {
@@ -106,7 +119,41 @@ public class Packet {
         return new Reader(this, buf);
     }
 
+    /**
+     * Returns the value of the specified field for this packet, decoding it only if it hasn't been decoded before.
+     * @param field The field
+     * @return The decoded value
+     * @throws IOException if an I/O error occurs while decoding
+     */
+    public <T> T decode(DecodedField<T> field) throws IOException {
+        DecodedValues decoded = this.decoded;
+        int version = 0;
+        if (decoded != null) {
+            version = decoded.version();
+            T value = decoded.get(field);
+            if (value != null) {
+                return value;
+            }
+        }
+        T value = field.decode(this);
+        if (value != null) {
+            if (decoded == null) {
+                this.decoded = decoded = new DecodedValues();
+            }
+            decoded.put(field, value, version);
+        }
+        return value;
+    }
+
+    private void invalidateDecoded() {
+        DecodedValues decoded = this.decoded;
+        if (decoded != null) {
+            decoded.invalidate();
+        }
+    }
+
     public Writer overwrite() {
+        invalidateDecoded();
         buf.writerIndex(buf.readerIndex());
         return new Writer(this, buf);
     }
@@ -134,6 +181,42 @@ public class Packet {
         return Objects.hash(registry, id, buf);
     }
 
+    /**
+     * Cache of decoded values, possibly shared by multiple packets and accessed from multiple threads.
+     * Each value is only stored if the content has not changed since decoding started, as determined by a version
+     * which is incremented every time the content is invalidated (i.e. when it is about to be overwritten and once it
+     * has been overwritten). Thereby a value decoded from the old content (or while it was being overwritten) never
+     * ends up in the cache.
+     */
+    private static final class DecodedValues {
+        private Object[] values = new Object[DecodedField.count()];
+        private int version;
+
+        synchronized int version() {
+            return version;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized <T> T get(DecodedField<T> field) {
+            return field.index < values.length ? (T) values[field.index] : null;
+        }
+
+        synchronized <T> void put(DecodedField<T> field, T value, int version) {
+            if (this.version != version) {
+                return; // content changed while decoding
+            }
+            if (field.index >= values.length) {
+                values = Arrays.copyOf(values, DecodedField.count());
+            }
+            values[field.index] = value;
+        }
+
+        synchronized void invalidate() {
+            version++;
+            Arrays.fill(values, null);
+        }
+    }
+
     public static class Reader extends ByteBufNetInput implements AutoCloseable {
         private final Packet packet;
         private final ByteBuf buf;
@@ -215,6 +298,8 @@ public class Packet {
 
         @Override
         public void close() {
+            // Anything decoded while we were writing may be based on partially written content
+            packet.invalidateDecoded();
         }
 
         public void writePosition(IPosition pos) throws IOException {
@@ -24,6 +24,7 @@
  */
 package com.replaymod.replaystudio.protocol.packets;
 
+import com.replaymod.replaystudio.protocol.DecodedField;
 import com.replaymod.replaystudio.protocol.Packet;
 import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
 
@@ -34,7 +35,23 @@ import java.util.Collections;
 import java.util.List;
 
 public class EntityId {
+    private static final DecodedField<Integer> ENTITY_ID = new DecodedField<>(EntityId::readEntityId);
+    private static final DecodedField<List<Integer>> ENTITY_IDS = new DecodedField<>(EntityId::readEntityIds);
+
     public static List<Integer> getEntityIds(Packet packet) throws IOException {
+        List<Integer> entityIds = packet.decode(ENTITY_IDS);
+        return entityIds != null ? entityIds : Collections.emptyList();
+    }
+
+    public static Integer getEntityId(Packet packet) throws IOException {
+        return packet.decode(ENTITY_ID);
+    }
+
+    /**
+     * Reads the entity ids from the specified packet.
+     * @return Unmodifiable list of entity ids or {@code null} if there are none
+     */
+    private static List<Integer> readEntityIds(Packet packet) throws IOException {
         switch (packet.getType()) {
             case EntityCollectItem: try (Packet.Reader in = packet.reader()) {
                 if (packet.atLeast(ProtocolVersion.v1_8)) {
@@ -44,7 +61,7 @@ public class EntityId {
                 }
             }
             case DestroyEntities:
-                return PacketDestroyEntities.getEntityIds(packet);
+                return Collections.unmodifiableList(PacketDestroyEntities.getEntityIds(packet));
             case SetPassengers: try (Packet.Reader in = packet.reader()) {
                 int entityId = in.readVarInt();
                 int len = in.readVarInt();
@@ -53,7 +70,7 @@ public class EntityId {
                 for (int i = 0; i < len; i++) {
                     result.add(in.readVarInt());
                 }
-                return result;
+                return Collections.unmodifiableList(result);
             }
             case EntityAttach: try (Packet.Reader in = packet.reader()) {
                 return Arrays.asList(in.readInt(), in.readInt());
@@ -73,12 +90,12 @@ public class EntityId {
                 if (entityId != null) {
                     return Collections.singletonList(entityId);
                 } else {
-                    return Collections.emptyList();
+                    return null;
                 }
         }
     }
 
-    public static Integer getEntityId(Packet packet) throws IOException {
+    private static Integer readEntityId(Packet packet) throws IOException {
         switch (packet.getType()) {
             case OpenHorseWindow: try (Packet.Reader in = packet.reader()) {
                 in.readByte();
@@ -24,6 +24,7 @@
  */
 package com.replaymod.replaystudio.protocol.packets;
 
+import com.replaymod.replaystudio.protocol.DecodedField;
 import com.replaymod.replaystudio.protocol.Packet;
 import com.replaymod.replaystudio.protocol.PacketType;
 import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
@@ -35,7 +36,14 @@ import com.replaymod.replaystudio.util.DPosition;
 import java.io.IOException;
 
 public class PacketEntityMovement {
+    private static final DecodedField<Triple<DPosition, Pair<Float, Float>, Boolean>> MOVEMENT =
+            new DecodedField<>(PacketEntityMovement::readMovement);
+
     public static Triple<DPosition, Pair<Float, Float>, Boolean> getMovement(Packet packet) throws IOException {
+        return packet.decode(MOVEMENT);
+    }
+
+    private static Triple<DPosition, Pair<Float, Float>, Boolean> readMovement(Packet packet) throws IOException {
         PacketType type = packet.getType();
         boolean hasPos = type == PacketType.EntityPosition || type == PacketType.EntityPositionRotation;
         boolean hasRot = type == PacketType.EntityRotation || type == PacketType.EntityPositionRotation;
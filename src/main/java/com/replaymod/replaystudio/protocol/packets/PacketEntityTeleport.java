@@ -24,6 +24,7 @@
  */
 package com.replaymod.replaystudio.protocol.packets;
 
+import com.replaymod.replaystudio.protocol.DecodedField;
 import com.replaymod.replaystudio.protocol.Packet;
 import com.replaymod.replaystudio.protocol.PacketType;
 import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
@@ -33,7 +34,13 @@ import com.replaymod.replaystudio.util.Location;
 import java.io.IOException;
 
 public class PacketEntityTeleport {
+    private static final DecodedField<Location> LOCATION = new DecodedField<>(PacketEntityTeleport::readLocation);
+
     public static Location getLocation(Packet packet) throws IOException {
+        return packet.decode(LOCATION);
+    }
+
+    private static Location readLocation(Packet packet) throws IOException {
         try (Packet.Reader in = packet.reader()) {
             if (packet.atLeast(ProtocolVersion.v1_8)) {
                 in.readVarInt(); // entity id
@@ -24,6 +24,7 @@
  */
 package com.replaymod.replaystudio.protocol.packets;
 
+import com.replaymod.replaystudio.protocol.DecodedField;
 import com.replaymod.replaystudio.protocol.Packet;
 import com.replaymod.replaystudio.protocol.PacketType;
 import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
@@ -33,7 +34,13 @@ import com.replaymod.replaystudio.util.Location;
 import java.io.IOException;
 
 public class SpawnEntity {
+    private static final DecodedField<Location> LOCATION = new DecodedField<>(SpawnEntity::readLocation);
+
     public static Location getLocation(Packet packet) throws IOException {
+        return packet.decode(LOCATION);
+    }
+
+    private static Location readLocation(Packet packet) throws IOException {
         PacketType type = packet.getType();
         switch (type) {
             case SpawnExpOrb: try (Packet.Reader in = packet.reader()) {
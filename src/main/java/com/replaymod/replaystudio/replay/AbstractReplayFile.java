@@ -27,16 +27,26 @@ package com.replaymod.replaystudio.replay;
 import com.google.common.base.Optional;
 import com.google.common.io.Closeables;
 import com.google.gson.*;
+import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.Studio;
 import com.replaymod.replaystudio.data.Marker;
 import com.replaymod.replaystudio.data.ModInfo;
+import com.replaymod.replaystudio.data.RecordingSegment;
 import com.replaymod.replaystudio.data.ReplayAssetEntry;
+import com.replaymod.replaystudio.filter.SquashFilter;
+import com.replaymod.replaystudio.io.CachingReplayInputStream;
+import com.replaymod.replaystudio.io.PipelinedReplayInputStream;
+import com.replaymod.replaystudio.io.RecordingIndex;
+import com.replaymod.replaystudio.io.SegmentedInputStream;
 import com.replaymod.replaystudio.io.ReplayInputStream;
 import com.replaymod.replaystudio.io.ReplayOutputStream;
 import com.replaymod.replaystudio.pathing.PathingRegistry;
 import com.replaymod.replaystudio.pathing.path.Timeline;
 import com.replaymod.replaystudio.pathing.serialize.TimelineSerialization;
 import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.stream.IteratorStream;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
@@ -48,6 +58,7 @@ public abstract class AbstractReplayFile implements ReplayFile {
 
     private static final String ENTRY_META_DATA = "metaData.json";
     protected static final String ENTRY_RECORDING = "recording.tmcpr";
+    protected static final String ENTRY_RECORDING_SEGMENTS = "recording/segments.json";
     private static final String ENTRY_RESOURCE_PACK = "resourcepack/%s.zip";
     private static final String ENTRY_RESOURCE_PACK_INDEX = "resourcepack/index.json";
     private static final String ENTRY_THUMB_OLD = "thumb";
@@ -58,6 +69,14 @@ public abstract class AbstractReplayFile implements ReplayFile {
     private static final String ENTRY_ASSET = "asset/%s_%s.%s";
     private static final Pattern PATTERN_ASSETS = Pattern.compile("asset/.*");
     private static final String ENTRY_MODS = "mods.json";
+    private static final String CACHE_ENTRY_CONVERTED_RECORDING = "recording_%d.tmcpr";
+    private static final String CACHE_ENTRY_RECORDING_INDEX = "recording_index.bin";
+    private static final String CACHE_ENTRY_SQUASH_CHECKPOINT = "squash_%d_%d.tmcpr";
+
+    /**
+     * Interval in milliseconds of replay time between squash checkpoints, see {@link #getStateAt(PacketTypeRegistry, int)}.
+     */
+    private static final int SQUASH_CHECKPOINT_INTERVAL = 5 * 60 * 1000;
 
     private static final byte[] THUMB_MAGIC_NUMBERS = {0, 1, 1, 2, 3, 5, 8};
 
@@ -97,7 +116,7 @@ public abstract class AbstractReplayFile implements ReplayFile {
 
     @Override
     public ReplayInputStream getPacketData(PacketTypeRegistry registry) throws IOException {
-        Optional<InputStream> in = get(ENTRY_RECORDING);
+        Optional<InputStream> in = getRawPacketData();
         if (!in.isPresent()) {
             return null;
         }
@@ -105,8 +124,304 @@ public abstract class AbstractReplayFile implements ReplayFile {
         return new ReplayInputStream(registry, in.get(), metaData.getFileFormatVersion(), metaData.getRawProtocolVersionOr0());
     }
 
+    @Override
+    public ReplayInputStream getPipelinedPacketData(PacketTypeRegistry registry) throws IOException {
+        Optional<InputStream> in = getRawPacketData();
+        if (!in.isPresent()) {
+            return null;
+        }
+        ReplayMetaData metaData = getMetaData();
+        return new PipelinedReplayInputStream(registry, in.get(), metaData.getFileFormatVersion(), metaData.getRawProtocolVersionOr0());
+    }
+
+    @Override
+    public ReplayInputStream getCachedPacketData(PacketTypeRegistry registry) throws IOException {
+        String hash = getRecordingHash();
+        ReplayMetaData metaData = getMetaData();
+        int protocol = registry.getVersion().getId();
+        if (hash == null || metaData == null || metaData.getProtocolVersion().getId() == protocol) {
+            return getPacketData(registry); // cannot be cached or doesn't need any conversion
+        }
+
+        String cacheEntry = String.format(CACHE_ENTRY_CONVERTED_RECORDING, protocol);
+        if (hash.equals(getCacheHash(cacheEntry))) {
+            Optional<InputStream> cached = getCache(cacheEntry);
+            if (cached.isPresent()) {
+                return new ReplayInputStream(registry, cached.get(), ReplayMetaData.CURRENT_FILE_FORMAT_VERSION, protocol);
+            }
+        }
+
+        Optional<InputStream> in = getRawPacketData();
+        if (!in.isPresent()) {
+            return null;
+        }
+        return new CachingReplayInputStream(registry, in.get(), metaData.getFileFormatVersion(),
+                metaData.getRawProtocolVersionOr0(), this, cacheEntry, hash);
+    }
+
+    @Override
+    public ReplayInputStream getPacketData(PacketTypeRegistry registry, int fromTime) throws IOException {
+        ReplayMetaData metaData = getMetaData();
+        boolean seekable = metaData != null && metaData.getProtocolVersion().getId() == registry.getVersion().getId();
+        List<RecordingSegment> segments = getRecordingSegments();
+        String hash = segments == null ? getRecordingHash() : null;
+        RecordingIndex index = null;
+        if (seekable && hash != null) {
+            index = getRecordingIndex(hash, metaData);
+        }
+
+        ReplayInputStream replayIn;
+        if (seekable && segments != null) {
+            // Keep the login phase segment and skip all segments which end before the requested time
+            List<RecordingSegment> remaining = new ArrayList<>();
+            for (RecordingSegment segment : segments) {
+                if (remaining.isEmpty() || segment.getEndTime() >= fromTime || remaining.size() > 1) {
+                    remaining.add(segment);
+                }
+            }
+            replayIn = new ReplayInputStream(registry, new SegmentedInputStream(this, remaining),
+                    metaData.getFileFormatVersion(), metaData.getRawProtocolVersionOr0());
+        } else if (index != null) {
+            Optional<InputStream> in = getRawPacketData();
+            if (!in.isPresent()) {
+                return null;
+            }
+            InputStream skipped;
+            try {
+                skipped = index.skip(in.get(), fromTime);
+            } catch (IOException e) {
+                Closeables.close(in.get(), true);
+                throw e;
+            }
+            replayIn = new ReplayInputStream(registry, skipped, metaData.getFileFormatVersion(), metaData.getRawProtocolVersionOr0());
+        } else {
+            // Cannot seek, need to convert all packets up to the requested time
+            replayIn = getPacketData(registry);
+            if (replayIn == null) {
+                return null;
+            }
+        }
+        replayIn.skipUntil(fromTime);
+        return replayIn;
+    }
+
+    @Override
+    public List<RecordingSegment> getRecordingSegments() throws IOException {
+        Optional<InputStream> in = get(ENTRY_RECORDING_SEGMENTS);
+        if (!in.isPresent()) {
+            return null;
+        }
+        try (Reader is = new InputStreamReader(in.get())) {
+            return Arrays.asList(new Gson().fromJson(is, RecordingSegment[].class));
+        }
+    }
+
+    @Override
+    public Optional<InputStream> getRawPacketData() throws IOException {
+        List<RecordingSegment> segments = getRecordingSegments();
+        if (segments == null) {
+            return get(ENTRY_RECORDING);
+        }
+        return Optional.of(new SegmentedInputStream(this, segments));
+    }
+
+    private RecordingIndex getRecordingIndex(String hash, ReplayMetaData metaData) throws IOException {
+        if (hash.equals(getCacheHash(CACHE_ENTRY_RECORDING_INDEX))) {
+            Optional<InputStream> cached = getCache(CACHE_ENTRY_RECORDING_INDEX);
+            if (cached.isPresent()) {
+                try (InputStream in = cached.get()) {
+                    RecordingIndex index = RecordingIndex.read(in);
+                    if (index != null) {
+                        return index;
+                    }
+                }
+            }
+        }
+
+        Optional<InputStream> in = getRawPacketData();
+        if (!in.isPresent()) {
+            return null;
+        }
+        PacketTypeRegistry loginRegistry = null;
+        if (metaData.getFileFormatVersion() >= 14) {
+            loginRegistry = PacketTypeRegistry.get(metaData.getProtocolVersion(), State.LOGIN);
+        }
+        RecordingIndex index;
+        try (InputStream is = in.get()) {
+            index = RecordingIndex.build(is, loginRegistry);
+        }
+
+        removeCache(CACHE_ENTRY_RECORDING_INDEX + CachingReplayInputStream.HASH_SUFFIX);
+        try (OutputStream out = writeCache(CACHE_ENTRY_RECORDING_INDEX, CacheCodec.STORE)) {
+            index.write(out);
+        }
+        try (Writer writer = new OutputStreamWriter(writeCache(CACHE_ENTRY_RECORDING_INDEX + CachingReplayInputStream.HASH_SUFFIX))) {
+            writer.write(hash);
+        }
+        return index;
+    }
+
+    @Override
+    public List<PacketData> getStateAt(PacketTypeRegistry registry, int time) throws IOException {
+        String hash = getRecordingHash();
+        // Snapshots of the squashed state are cached at regular intervals, such that only the packets since the closest
+        // earlier one have to be squashed. Without a hash (e.g. modified packet data) they cannot be validated, so we
+        // have to squash everything.
+        boolean checkpoints = hash != null && getMetaData() != null;
+        ProtocolVersion version = registry.getVersion();
+        // Checkpoints always include the login phase, so they can be used regardless of the requested state
+        PacketTypeRegistry loginRegistry = PacketTypeRegistry.get(version, State.LOGIN);
+
+        SquashFilter squash = new SquashFilter();
+        IteratorStream squashStream = new IteratorStream(new ArrayList<PacketData>().listIterator(), squash);
+        try {
+            // Start from the latest checkpoint at or before the requested time, if there is one
+            int checkpoint = 0;
+            if (checkpoints) {
+                checkpoint = time / SQUASH_CHECKPOINT_INTERVAL * SQUASH_CHECKPOINT_INTERVAL;
+                while (checkpoint > 0 && !readSquashCheckpoint(squash, squashStream, loginRegistry, checkpoint, hash)) {
+                    checkpoint -= SQUASH_CHECKPOINT_INTERVAL;
+                }
+            }
+
+            // Then squash the remaining packets, storing any checkpoints we pass along the way
+            ReplayInputStream in;
+            if (!checkpoints) {
+                in = getPacketData(registry);
+            } else if (checkpoint > 0) {
+                in = getPacketData(PacketTypeRegistry.get(version, State.PLAY), checkpoint);
+            } else {
+                in = getPacketData(loginRegistry);
+            }
+            if (in == null) {
+                squash.release();
+                return null;
+            }
+            int nextCheckpoint = checkpoint + SQUASH_CHECKPOINT_INTERVAL;
+            try (ReplayInputStream closeable = in) {
+                PacketData data;
+                while ((data = in.readPacket()) != null) {
+                    if (data.getTime() > time) {
+                        data.release();
+                        break;
+                    }
+                    while (checkpoints && data.getTime() >= nextCheckpoint) {
+                        writeSquashCheckpoint(squash, version.getId(), nextCheckpoint, hash);
+                        nextCheckpoint += SQUASH_CHECKPOINT_INTERVAL;
+                    }
+                    squash.onPacket(squashStream, data);
+                    data.release();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            squash.release();
+            throw e;
+        }
+
+        List<PacketData> state = new ArrayList<>();
+        squash.onEnd(new IteratorStream(state.listIterator(), squash), time);
+        if (registry.getState() != State.LOGIN) {
+            state.removeIf(data -> {
+                if (data.getPacket().getRegistry().getState() == State.LOGIN) {
+                    data.release();
+                    return true;
+                }
+                return false;
+            });
+        }
+        return state;
+    }
+
+    /**
+     * Feeds the squash checkpoint at the given time into the given filter, if it exists and is up to date.
+     * @return {@code true} if the checkpoint has been read, {@code false} if it is missing or outdated
+     */
+    private boolean readSquashCheckpoint(SquashFilter squash, IteratorStream squashStream,
+                                         PacketTypeRegistry loginRegistry, int time, String hash) throws IOException {
+        int protocol = loginRegistry.getVersion().getId();
+        String cacheEntry = String.format(CACHE_ENTRY_SQUASH_CHECKPOINT, protocol, time);
+        if (!hash.equals(getCacheHash(cacheEntry))) {
+            return false;
+        }
+        Optional<InputStream> cached = getCache(cacheEntry);
+        if (!cached.isPresent()) {
+            return false;
+        }
+        try (ReplayInputStream in = new ReplayInputStream(loginRegistry, cached.get(),
+                ReplayMetaData.CURRENT_FILE_FORMAT_VERSION, protocol)) {
+            PacketData data;
+            while ((data = in.readPacket()) != null) {
+                squash.onPacket(squashStream, data);
+                data.release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the current state of the given filter (which must not yet include any packets at or after the given
+     * time) as the squash checkpoint for that time.
+     */
+    private void writeSquashCheckpoint(SquashFilter squash, int protocol, int time, String hash) throws IOException {
+        String cacheEntry = String.format(CACHE_ENTRY_SQUASH_CHECKPOINT, protocol, time);
+        if (hash.equals(getCacheHash(cacheEntry))) {
+            return; // already up to date
+        }
+
+        SquashFilter snapshot = squash.copy();
+        List<PacketData> state = new ArrayList<>();
+        snapshot.onEnd(new IteratorStream(state.listIterator(), snapshot), time);
+        OutputStream cacheOut;
+        try {
+            removeCache(cacheEntry + CachingReplayInputStream.HASH_SUFFIX);
+            cacheOut = writeCache(cacheEntry, CacheCodec.FAST);
+        } catch (IOException | RuntimeException e) {
+            state.forEach(PacketData::release);
+            throw e;
+        }
+        try (ReplayOutputStream out = new ReplayOutputStream(cacheOut)) {
+            out.write(state); // releases the packets
+        }
+        try (Writer writer = new OutputStreamWriter(writeCache(cacheEntry + CachingReplayInputStream.HASH_SUFFIX))) {
+            writer.write(hash);
+        }
+    }
+
+    /**
+     * Returns the hash of the packet data from which the given cache entry has been derived.
+     * @param cacheEntry Name of the cache entry
+     * @return The hash or {@code null} if the cache entry is missing or incomplete
+     * @throws IOException If an I/O error occurs
+     */
+    private String getCacheHash(String cacheEntry) throws IOException {
+        Optional<InputStream> cachedHash = getCache(cacheEntry + CachingReplayInputStream.HASH_SUFFIX);
+        if (!cachedHash.isPresent()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(cachedHash.get()))) {
+            return reader.readLine();
+        }
+    }
+
+    /**
+     * Returns a hash of the current packet data which is used to validate caches derived from it.
+     * @return The hash or {@code null} if it is unknown (e.g. because the packet data has been modified)
+     * @throws IOException If an I/O error occurs
+     */
+    protected String getRecordingHash() throws IOException {
+        return null;
+    }
+
     @Override
     public ReplayOutputStream writePacketData() throws IOException {
+        // The new packet data replaces any existing segments
+        List<RecordingSegment> segments = getRecordingSegments();
+        if (segments != null) {
+            for (RecordingSegment segment : segments) {
+                remove(segment.getName());
+            }
+            remove(ENTRY_RECORDING_SEGMENTS);
+        }
         return new ReplayOutputStream(write(ENTRY_RECORDING));
     }
 
@@ -0,0 +1,142 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.replay;
+
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression used for entries in the cache of a replay file.
+ * The codec is recorded at the start of each cache entry, so entries can be read without knowing how they were
+ * written. Entries written before codecs were introduced are always {@link #GZIP}.
+ * @see ReplayFile#writeCache(String, CacheCodec)
+ */
+public enum CacheCodec {
+    /**
+     * No compression. Use for data which is already compressed or which needs to be read as fast as possible.
+     */
+    STORE(1),
+    /**
+     * Deflate with the fastest compression level.
+     */
+    FAST(2),
+    /**
+     * GZIP with the default compression level.
+     */
+    GZIP(0);
+
+    private static final byte[] MAGIC = {'R', 'S', 'C'};
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int id;
+
+    CacheCodec(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Wraps the given raw output stream such that data written to it is encoded with this codec.
+     * @param out The raw output stream
+     * @return The encoding output stream
+     * @throws IOException If an I/O error occurs
+     */
+    public OutputStream wrap(OutputStream out) throws IOException {
+        // Compressing streams are buffered as cache entries are usually written in many tiny writes
+        if (this == GZIP) {
+            // recognizable by the GZIP header itself
+            return new BufferedOutputStream(new GZIPOutputStream(out), BUFFER_SIZE);
+        }
+        out.write(MAGIC);
+        out.write(id);
+        if (this == FAST) {
+            return new BufferedOutputStream(new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            }, BUFFER_SIZE);
+        }
+        return out;
+    }
+
+    /**
+     * Wraps the given raw input stream such that data read from it is decoded with whichever codec it was written.
+     * @param rawIn The raw input stream, closed if it cannot be decoded
+     * @return The decoding input stream
+     * @throws IOException If an I/O error occurs
+     */
+    public static InputStream unwrap(InputStream rawIn) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(rawIn, BUFFER_SIZE);
+        try {
+            in.mark(MAGIC.length + 1);
+            byte[] header = new byte[MAGIC.length + 1];
+            int read = 0;
+            while (read < header.length) {
+                int len = in.read(header, read, header.length - read);
+                if (len == -1) break;
+                read += len;
+            }
+            if (read == header.length && header[0] == MAGIC[0] && header[1] == MAGIC[1] && header[2] == MAGIC[2]) {
+                switch (header[3]) {
+                    case 1:
+                        return in;
+                    case 2:
+                        return new BufferedInputStream(new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+                            @Override
+                            public void close() throws IOException {
+                                try {
+                                    super.close();
+                                } finally {
+                                    inf.end();
+                                }
+                            }
+                        }, BUFFER_SIZE);
+                    default:
+                        throw new IOException("Unknown cache codec: " + header[3]);
+                }
+            }
+            in.reset();
+            return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            Closeables.close(in, true);
+            throw e;
+        }
+    }
+}
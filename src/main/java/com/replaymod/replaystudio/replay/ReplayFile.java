@@ -25,8 +25,10 @@
 package com.replaymod.replaystudio.replay;
 
 import com.google.common.base.Optional;
+import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.data.Marker;
 import com.replaymod.replaystudio.data.ModInfo;
+import com.replaymod.replaystudio.data.RecordingSegment;
 import com.replaymod.replaystudio.data.ReplayAssetEntry;
 import com.replaymod.replaystudio.io.ReplayInputStream;
 import com.replaymod.replaystudio.io.ReplayOutputStream;
@@ -44,6 +46,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -97,6 +100,18 @@ public interface ReplayFile extends Closeable {
      */
     OutputStream writeCache(String entry) throws IOException;
 
+    /**
+     * Write to the specified cache entry of this replay file like {@link #writeCache(String)} but using the given
+     * codec. {@link #getCache(String)} detects the codec automatically.
+     * @param entry The entry
+     * @param codec The codec used to compress the entry
+     * @return An output stream to write to
+     * @throws IOException If an I/O error occurs
+     */
+    default OutputStream writeCache(String entry, CacheCodec codec) throws IOException {
+        return writeCache(entry);
+    }
+
     /**
      * Removes the entry from this replay file.
      * Changes will not be written unless {@link #save()} is called.
@@ -132,6 +147,109 @@ public interface ReplayFile extends Closeable {
 
     ReplayInputStream getPacketData(PacketTypeRegistry registry) throws IOException;
 
+    /**
+     * Returns the packet data like {@link #getPacketData(PacketTypeRegistry)} but starting at the given time.
+     * All packets before that time, except for the login phase, are skipped. Where possible, a seek index kept in the
+     * cache is used to skip those packets without reading them.
+     * Note that no attempt is made to reconstruct the state (e.g. loaded chunks) at the given time.
+     * @param registry The registry used for the first packet produced
+     * @param fromTime Timestamp in milliseconds of the first packet to be returned
+     * @return The packet data or {@code null} if this replay file has no packet data
+     * @throws IOException If an I/O error occurs
+     * @see com.replaymod.replaystudio.io.RecordingIndex
+     */
+    default ReplayInputStream getPacketData(PacketTypeRegistry registry, int fromTime) throws IOException {
+        ReplayInputStream in = getPacketData(registry);
+        if (in != null) {
+            in.skipUntil(fromTime);
+        }
+        return in;
+    }
+
+    /**
+     * Returns the packet data like {@link #getPacketData(PacketTypeRegistry)} but, if the recording is available
+     * uncompressed on the local disk, reads it from a memory-mapped view of the file instead of copying each packet.
+     * Packets read from such a stream are read-only and must not be overwritten.
+     * Falls back to {@link #getPacketData(PacketTypeRegistry)} if the recording cannot be mapped.
+     * @param registry The registry used for the first packet produced
+     * @return The packet data or {@code null} if this replay file has no packet data
+     * @throws IOException If an I/O error occurs
+     * @see com.replaymod.replaystudio.io.MappedReplayInputStream
+     */
+    default ReplayInputStream getMappedPacketData(PacketTypeRegistry registry) throws IOException {
+        return getPacketData(registry);
+    }
+
+    /**
+     * Returns the packet data like {@link #getPacketData(PacketTypeRegistry)}.
+     * If the packet data needs to be converted to the protocol version of the registry, the converted packet data is
+     * additionally written to the cache while it is being read. Once it has been read completely, subsequent calls
+     * will read the already converted packet data from the cache instead.
+     * Falls back to {@link #getPacketData(PacketTypeRegistry)} if the packet data cannot be cached.
+     * @param registry The registry used for the first packet produced
+     * @return The packet data or {@code null} if this replay file has no packet data
+     * @throws IOException If an I/O error occurs
+     */
+    default ReplayInputStream getCachedPacketData(PacketTypeRegistry registry) throws IOException {
+        return getPacketData(registry);
+    }
+
+    /**
+     * Returns the packet data like {@link #getPacketData(PacketTypeRegistry)} but reads, converts and decodes it on
+     * background threads, so that these steps overlap with the processing of the returned packets.
+     * Falls back to {@link #getPacketData(PacketTypeRegistry)} if not supported.
+     * @param registry The registry used for the first packet produced
+     * @return The packet data or {@code null} if this replay file has no packet data
+     * @throws IOException If an I/O error occurs
+     * @see com.replaymod.replaystudio.io.PipelinedReplayInputStream
+     */
+    default ReplayInputStream getPipelinedPacketData(PacketTypeRegistry registry) throws IOException {
+        return getPacketData(registry);
+    }
+
+    /**
+     * Returns packets which recreate the state of the replay at the given time, i.e. the result of squashing all
+     * packets up to and including that time with a {@link com.replaymod.replaystudio.filter.SquashFilter}.
+     * All returned packets have the given time as their timestamp. Ownership of them is passed to the caller.
+     * The default implementation does not support this and always returns {@code null}.
+     * @param registry The registry used for the first packet produced.
+     *                 Packets of the login phase are only included if it is in LOGIN state.
+     * @param time Timestamp in milliseconds of the requested state
+     * @return The packets or {@code null} if this replay file has no packet data or does not support this
+     * @throws IOException If an I/O error occurs
+     */
+    default List<PacketData> getStateAt(PacketTypeRegistry registry, int time) throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns the segment table of replays in the segmented file format.
+     * The default implementation does not support the segmented format and always returns {@code null}.
+     * @return The segments in order or {@code null} if the packet data of this replay is not segmented
+     * @throws IOException If an I/O error occurs
+     * @see ReplayMetaData#SEGMENTED_FILE_FORMAT_VERSION
+     */
+    default List<RecordingSegment> getRecordingSegments() throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns the packet data of this replay as it is stored in the file, i.e. the uncompressed frames without any
+     * conversion applied. For segmented replays this is the concatenation of all segments.
+     * The default implementation only supports unsegmented replays and returns the {@code recording.tmcpr} entry.
+     * @return The packet data or {@link Optional#absent()} if this replay file has no packet data
+     * @throws IOException If an I/O error occurs
+     */
+    default Optional<InputStream> getRawPacketData() throws IOException {
+        return get("recording.tmcpr");
+    }
+
+    /**
+     * Returns an output stream for writing the (non-segmented) packet data of this replay.
+     * Any existing segments are removed.
+     * @return The output stream
+     * @throws IOException If an I/O error occurs
+     */
     ReplayOutputStream writePacketData() throws IOException;
 
     Map<Integer, String> getResourcePackIndex() throws IOException;
@@ -38,6 +38,13 @@ import java.util.Objects;
 public class ReplayMetaData {
     public static final int CURRENT_FILE_FORMAT_VERSION = 14;
 
+    /**
+     * File format version of replays which store their packet data in independently compressed segments (see
+     * {@link com.replaymod.replaystudio.data.RecordingSegment}) instead of a single {@code recording.tmcpr} entry.
+     * Writing this format is opt-in as older readers do not support it.
+     */
+    public static final int SEGMENTED_FILE_FORMAT_VERSION = 15;
+
     /**
      * Mapping from replay file version to protocol version for versions prior to 10.
      * For 10+ see https://github.com/ReplayMod/ReplayStudio/issues/9 (i.e. {@link #protocol}).
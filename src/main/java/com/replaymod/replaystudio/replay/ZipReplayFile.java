@@ -28,19 +28,25 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.io.Closeables;
 import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.data.RecordingSegment;
+import com.replaymod.replaystudio.io.MappedReplayInputStream;
+import com.replaymod.replaystudio.io.RawZipOutputStream;
+import com.replaymod.replaystudio.io.ReplayInputStream;
+import com.replaymod.replaystudio.io.ZipCentralDirectory;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
 import com.replaymod.replaystudio.util.Utils;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.zip.CRC32;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import static com.google.common.io.Files.*;
 import static java.nio.file.Files.*;
@@ -59,6 +65,7 @@ public class ZipReplayFile extends AbstractReplayFile {
     private final File changedFiles;
     private final File removedFiles;
     private final File sourceFile;
+    private final File appendFile;
 
     private CRC32 recordingCrc;
 
@@ -67,6 +74,11 @@ public class ZipReplayFile extends AbstractReplayFile {
      */
     private boolean shouldSaveInputFile;
 
+    /**
+     * Whether {@link #save()} should append changes to the existing file instead of rewriting it.
+     */
+    private boolean incrementalSave;
+
     private final Map<String, OutputStream> outputStreams = new HashMap<>();
     private final Map<String, File> changedEntries = new HashMap<>();
     private final Set<String> removedEntries = new HashSet<>();
@@ -88,6 +100,7 @@ public class ZipReplayFile extends AbstractReplayFile {
         changedFiles = new File(tmpFiles, "changed");
         removedFiles = new File(tmpFiles, "removed");
         sourceFile = new File(tmpFiles, "source");
+        appendFile = new File(tmpFiles, "append");
 
         if (input != null && input.exists()) {
             // Save input file path in case of crash
@@ -104,6 +117,20 @@ public class ZipReplayFile extends AbstractReplayFile {
         this.input = input;
         this.cache = cache;
 
+        // Roll back any incremental save which didn't complete last time
+        if (appendFile.exists()) {
+            String[] marker = new String(readAllBytes(appendFile.toPath()), Charsets.UTF_8).split("\n");
+            long originalLength = Long.parseLong(marker[0]);
+            boolean committed = marker.length > 1 && Long.parseLong(marker[1]) >= 0;
+            // A committed save only failed to remove its marker, its new central directory is complete
+            if (!committed && output.exists() && output.length() > originalLength) {
+                try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(originalLength);
+                }
+            }
+            Files.delete(appendFile.toPath());
+        }
+
         if (input != null && input.exists()) {
             this.zipFile = new ZipFile(input);
         }
@@ -194,7 +221,74 @@ public class ZipReplayFile extends AbstractReplayFile {
         if (!Files.exists(path)) {
             return Optional.absent();
         }
-        return Optional.of(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path))));
+        return Optional.of(CacheCodec.unwrap(Files.newInputStream(path)));
+    }
+
+    @Override
+    public ReplayInputStream getMappedPacketData(PacketTypeRegistry registry) throws IOException {
+        File file;
+        if (changedEntries.containsKey(ENTRY_RECORDING)) {
+            file = changedEntries.get(ENTRY_RECORDING);
+        } else if (zipFile != null && !removedEntries.contains(ENTRY_RECORDING)) {
+            ZipEntry zipEntry = zipFile.getEntry(ENTRY_RECORDING);
+            if (zipEntry == null || zipEntry.getMethod() != ZipEntry.STORED) {
+                return getPacketData(registry);
+            }
+            file = new File(zipFile.getName());
+        } else {
+            return getPacketData(registry);
+        }
+
+        ReplayMetaData metaData = getMetaData();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long offset = 0;
+            long length = channel.size();
+            if (!changedEntries.containsKey(ENTRY_RECORDING)) {
+                ZipCentralDirectory.Entry entry = ZipCentralDirectory.read(channel).getEntry(ENTRY_RECORDING);
+                offset = entry.getDataOffset(channel);
+                length = entry.getSize();
+            }
+            return new MappedReplayInputStream(registry, channel, offset, length,
+                    metaData.getFileFormatVersion(), metaData.getRawProtocolVersionOr0());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected String getRecordingHash() throws IOException {
+        List<RecordingSegment> segments = getRecordingSegments();
+        if (segments == null) {
+            // Same value as stored in ENTRY_RECORDING_HASH but also available for legacy replays
+            return getCrc(ENTRY_RECORDING);
+        }
+        StringBuilder hash = new StringBuilder();
+        for (RecordingSegment segment : segments) {
+            String crc = getCrc(segment.getName());
+            if (crc == null) {
+                return null;
+            }
+            hash.append(hash.length() == 0 ? "" : "-").append(crc);
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Returns the CRC of the given (unmodified) zip entry.
+     * @param entry Name of the entry
+     * @return The CRC or {@code null} if the entry has been modified or its CRC is unknown
+     */
+    private String getCrc(String entry) {
+        if (zipFile == null || changedEntries.containsKey(entry) || removedEntries.contains(entry)) {
+            return null;
+        }
+        ZipEntry zipEntry = zipFile.getEntry(entry);
+        if (zipEntry == null || zipEntry.getCrc() == -1) {
+            return null;
+        }
+        return String.valueOf(zipEntry.getCrc());
     }
 
     @Override
@@ -290,9 +384,14 @@ public class ZipReplayFile extends AbstractReplayFile {
 
     @Override
     public OutputStream writeCache(String entry) throws IOException {
+        return writeCache(entry, CacheCodec.GZIP);
+    }
+
+    @Override
+    public OutputStream writeCache(String entry, CacheCodec codec) throws IOException {
         Path path = cache.toPath().resolve(entry);
         Files.createDirectories(path.getParent());
-        return new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        return codec.wrap(new BufferedOutputStream(Files.newOutputStream(path)));
     }
 
     @Override
@@ -320,6 +419,117 @@ public class ZipReplayFile extends AbstractReplayFile {
         if (zipFile != null && changedEntries.isEmpty() && removedEntries.isEmpty()) {
             return; // No changes, no need to save
         }
+        if (incrementalSave && zipFile != null
+                && new File(zipFile.getName()).getCanonicalFile().equals(output.getCanonicalFile())) {
+            saveIncrementally();
+        } else {
+            rewrite();
+        }
+    }
+
+    /**
+     * Sets whether {@link #save()} should append new and changed entries to the end of the existing replay file and
+     * write a new central directory after them, instead of rewriting the whole file.
+     * This is only possible once the input and output file are the same. Removed and replaced entries are merely
+     * dropped from the central directory, so their data remains in the file until {@link #compact()} is called.
+     * Note that such a file can only be read correctly via its central directory (e.g. by {@link ZipFile}), not
+     * sequentially (e.g. by {@link java.util.zip.ZipInputStream}).
+     * @param incrementalSave {@code true} to enable incremental saving
+     */
+    public void setIncrementalSave(boolean incrementalSave) {
+        this.incrementalSave = incrementalSave;
+    }
+
+    /**
+     * Saves this replay file by rewriting it completely, thereby reclaiming any space left unused by previous
+     * incremental saves.
+     * @throws IOException If an I/O error occurs
+     * @see #setIncrementalSave(boolean)
+     */
+    public void compact() throws IOException {
+        rewrite();
+    }
+
+    private void saveIncrementally() throws IOException {
+        for (OutputStream out : outputStreams.values()) {
+            Closeables.close(out, false);
+        }
+        outputStreams.clear();
+        zipFile.close();
+
+        // Remember the original length, so we can roll back if we crash before the new central directory is written
+        long originalLength = output.length();
+        boolean committed = false;
+        try {
+            createParentDirs(appendFile);
+            writeAppendMarker(originalLength, -1);
+
+            FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try (RawZipOutputStream out = new RawZipOutputStream(channel)) {
+                ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(channel);
+                channel.position(originalLength);
+                for (ZipCentralDirectory.Entry entry : centralDirectory.getEntries()) {
+                    if (!changedEntries.containsKey(entry.getName()) && !removedEntries.contains(entry.getName())) {
+                        out.keepEntry(entry);
+                    }
+                }
+                for (Map.Entry<String, File> e : changedEntries.entrySet()) {
+                    out.putNextEntry(e.getKey(), e.getValue().length());
+                    Utils.copy(new BufferedInputStream(new FileInputStream(e.getValue())), out);
+                    out.closeEntry();
+                }
+                out.finish();
+                channel.force(true);
+                // Commit point: from now on recovery keeps the new central directory instead of rolling back
+                writeAppendMarker(originalLength, channel.size());
+                committed = true;
+            }
+            Files.delete(appendFile.toPath());
+        } catch (IOException | RuntimeException e) {
+            recoverIncrementalSave(originalLength, committed, e);
+            throw e;
+        }
+
+        close();
+        zipFile = new ZipFile(output);
+    }
+
+    /**
+     * Restores a usable state after an incremental save has failed, such that the caller may keep using this replay
+     * file. Unless the save had already been committed, the output file is truncated back to its original length.
+     * The changes remain pending and will be written by the next save.
+     * If recovery fails as well, the marker is kept, so the save is rolled back the next time the file is opened.
+     * @param originalLength Length of the output file before the save
+     * @param committed Whether the new central directory had been committed
+     * @param cause The exception which caused the save to fail, any further exceptions are added to it
+     */
+    private void recoverIncrementalSave(long originalLength, boolean committed, Throwable cause) {
+        try {
+            if (!committed) {
+                try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(originalLength);
+                }
+            }
+            Files.deleteIfExists(appendFile.toPath());
+            zipFile = new ZipFile(output);
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Replaces the marker of an incremental save in progress.
+     * It is written to a temporary file first and then moved into place, so a crash never leaves a partial marker.
+     * @param originalLength Length of the output file before the save
+     * @param committedLength Length of the output file once the save has completed or -1 if it has not yet completed
+     */
+    private void writeAppendMarker(long originalLength, long committedLength) throws IOException {
+        Path tmp = new File(tmpFiles, "append.tmp").toPath();
+        Files.write(tmp, (originalLength + "\n" + committedLength).getBytes(Charsets.UTF_8));
+        Files.move(tmp, appendFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void rewrite() throws IOException {
         File outputFile = createTempFile("replaystudio", "replayfile").toFile();
         saveTo(outputFile);
         close();
@@ -337,18 +547,23 @@ public class ZipReplayFile extends AbstractReplayFile {
         }
         outputStreams.clear();
 
-        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+        FileChannel channel = FileChannel.open(target.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (RawZipOutputStream out = new RawZipOutputStream(channel)) {
             if (zipFile != null) {
-                for (ZipEntry entry : Collections.list(zipFile.entries())) {
-                    if (!changedEntries.containsKey(entry.getName()) && !removedEntries.contains(entry.getName())) {
-                        out.putNextEntry(entry);
-                        Utils.copy(zipFile.getInputStream(entry), out);
+                // Unchanged entries are copied as is, without decompressing and compressing them again
+                try (FileChannel in = FileChannel.open(new File(zipFile.getName()).toPath(), StandardOpenOption.READ)) {
+                    for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(in).getEntries()) {
+                        if (!changedEntries.containsKey(entry.getName()) && !removedEntries.contains(entry.getName())) {
+                            out.copyEntry(in, entry);
+                        }
                     }
                 }
             }
             for (Map.Entry<String, File> e : changedEntries.entrySet()) {
-                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.putNextEntry(e.getKey(), e.getValue().length());
                 Utils.copy(new BufferedInputStream(new FileInputStream(e.getValue())), out);
+                out.closeEntry();
             }
         }
     }
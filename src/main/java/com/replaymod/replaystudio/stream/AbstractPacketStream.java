@@ -29,6 +29,8 @@ import com.google.common.collect.Lists;
 import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.filter.StreamFilter;
 import com.replaymod.replaystudio.protocol.Packet;
+import com.replaymod.replaystudio.protocol.PacketType;
+import com.replaymod.replaystudio.util.Metrics;
 
 import java.io.IOException;
 import java.util.*;
@@ -106,6 +108,11 @@ public abstract class AbstractPacketStream implements PacketStream {
             throw new IllegalStateException("Cannot get next data from within stream pipeline");
         }
 
+        @Override
+        public int next(PacketData[] dst) {
+            throw new IllegalStateException("Cannot get next data from within stream pipeline");
+        }
+
         @Override
         public void start() {
             throw new IllegalStateException("Cannot start from within stream pipeline");
@@ -117,93 +124,221 @@ public abstract class AbstractPacketStream implements PacketStream {
         }
     }
 
+    /**
+     * A single stage of the pipeline.
+     * Packets are queued in its {@link #input} and, once processed, added to its {@link #output}, which is either the
+     * input of the following stage or the output of the whole stream.
+     */
     private class StreamElement {
         private final FilterInfo filter;
+        private final StreamFilter streamFilter;
         private final PacketStreamContext context = new PacketStreamContext(this);
-        private final Queue<PacketData> inserted = new LinkedList<>();
+        private final Queue<PacketData> input = new ArrayDeque<>();
+        private final Queue<PacketData> inserted = new ArrayDeque<>();
+        private Queue<PacketData> output;
         private boolean active;
         private long lastTimestamp;
-        private StreamElement next;
 
         /**
-         * When using this constructor make sure to override {@link #process(PacketData)} as it will throw NPE otherwise.
+         * Bounds (inclusive) of the time frame in which the filter applies, unlimited bounds are replaced by
+         * {@link Long#MIN_VALUE} and {@link Long#MAX_VALUE} respectively.
          */
-        protected StreamElement() {
-            filter = null;
-        }
+        private final long from, to;
+
+        /**
+         * Whether the filter is interested in packets of a type, indexed by {@link PacketType#ordinal()}.
+         * {@code null} if it is interested in all packets.
+         */
+        private final boolean[] subscribed;
+
+        /**
+         * Packets taken from the input which are currently being processed.
+         */
+        private PacketData[] batch = new PacketData[16];
+        /**
+         * Copy of the batch passed to the filter, used to find the packets it removed.
+         */
+        private PacketData[] original = new PacketData[16];
+
+        /**
+         * Time spent in this stage, shared by all stages with the same filter name.
+         */
+        private final Metrics.Timer timer;
 
         public StreamElement(FilterInfo filter) {
             this.filter = checkNotNull(filter);
+            this.streamFilter = filter.getFilter();
+            this.timer = Metrics.timer("filter." + streamFilter.getName());
+            this.from = filter.getFrom() == -1 ? Long.MIN_VALUE : filter.getFrom();
+            this.to = filter.getTo() == -1 ? Long.MAX_VALUE : filter.getTo();
+
+            EnumSet<PacketType> types = streamFilter.getPacketTypes();
+            if (types != null) {
+                subscribed = new boolean[PacketType.values().length];
+                for (PacketType type : types) {
+                    subscribed[type.ordinal()] = true;
+                }
+            } else {
+                subscribed = null;
+            }
         }
 
-        public void process(PacketData data) throws IOException {
+        private boolean applies(long time) {
+            return from <= time && time <= to;
+        }
+
+        private boolean isSubscribed(PacketData data) {
+            if (subscribed == null) {
+                return true;
+            }
+            PacketType type = data.getPacket().getType();
+            return type != null && subscribed[type.ordinal()];
+        }
+
+        /**
+         * Processes all packets queued in the input of this stage.
+         * If there are multiple packets, the filter applies to all of them and it supports
+         * {@link StreamFilter#onPackets(PacketStream, PacketData[], int)}, they are passed to it as a single batch.
+         */
+        public void processQueued() throws IOException {
+            if (input.isEmpty()) {
+                return;
+            }
+            if (Metrics.isEnabled()) {
+                long start = System.nanoTime();
+                try {
+                    processQueued0();
+                } finally {
+                    timer.recordSince(start);
+                }
+            } else {
+                processQueued0();
+            }
+        }
+
+        private void processQueued0() throws IOException {
+            int size = input.size();
+            if (size == 1) {
+                process(input.poll());
+                return;
+            }
+
+            if (batch.length < size) {
+                batch = new PacketData[Integer.highestOneBit(size) << 1];
+                original = new PacketData[batch.length];
+            }
+            boolean appliesToAll = true;
+            for (int i = 0; i < size; i++) {
+                PacketData data = input.poll();
+                appliesToAll &= applies(data.getTime());
+                batch[i] = data;
+            }
+
+            try {
+                int kept = -1;
+                if (appliesToAll) {
+                    if (!active) {
+                        streamFilter.onStart(context);
+                        active = true;
+                    }
+                    System.arraycopy(batch, 0, original, 0, size);
+                    kept = streamFilter.onPackets(context, batch, size);
+                }
+                if (kept == -1) {
+                    for (int i = 0; i < size; i++) {
+                        process(batch[i]);
+                    }
+                } else {
+                    // Release all packets which are no longer in the batch
+                    for (int i = 0, j = 0; i < size; i++) {
+                        if (j < kept && original[i] == batch[j]) {
+                            j++;
+                        } else {
+                            original[i].getPacket().getBuf().release();
+                        }
+                    }
+                    for (int i = 0; i < kept; i++) {
+                        emit(batch[i]);
+                    }
+                    emitInserted();
+                }
+            } finally {
+                Arrays.fill(batch, 0, size, null);
+                Arrays.fill(original, 0, size, null);
+            }
+        }
+
+        private void process(PacketData data) throws IOException {
             boolean keep = true;
-            if (data != null && filter.applies(data.getTime())) {
+            if (applies(data.getTime())) {
                 if (!active) {
-                    filter.getFilter().onStart(context);
+                    streamFilter.onStart(context);
                     active = true;
                 }
-                keep = filter.getFilter().onPacket(context, data);
+                keep = !isSubscribed(data) || streamFilter.onPacket(context, data);
                 if (!keep) {
                     data.getPacket().getBuf().release();
                 }
             } else if (active) {
-                filter.getFilter().onEnd(context, lastTimestamp);
+                streamFilter.onEnd(context, lastTimestamp);
                 active = false;
-                for (PacketData d : inserted) {
-                    if (d.getTime() > lastTimestamp) {
-                        lastTimestamp = d.getTime();
-                    }
-                    next.process(d);
-                }
-                inserted.clear();
+                emitInserted();
             }
-            if (data != null && keep) {
-                if (data.getTime() > lastTimestamp) {
-                    lastTimestamp = data.getTime();
-                }
-                next.process(data);
-            }
-            for (PacketData d : inserted) {
-                if (d.getTime() > lastTimestamp) {
-                    lastTimestamp = d.getTime();
-                }
-                next.process(d);
+            if (keep) {
+                emit(data);
             }
-            inserted.clear();
-            if (data == null) {
-                next.process(null);
+            emitInserted();
+        }
+
+        /**
+         * Ends the filter of this stage if it is still active.
+         */
+        public void end() throws IOException {
+            if (active) {
+                streamFilter.onEnd(context, lastTimestamp);
+                active = false;
+                emitInserted();
             }
         }
 
-        @Override
-        public String toString() {
-            return (active ? "" : "in") + "active " + filter;
+        /**
+         * Releases all packets queued in this stage.
+         */
+        public void release() {
+            input.forEach(PacketData::release);
+            input.clear();
+            inserted.forEach(PacketData::release);
+            inserted.clear();
         }
-    }
 
-    private class StreamElementEnd extends StreamElement {
-        public StreamElementEnd() {
-            super();
+        private void emitInserted() {
+            PacketData d;
+            while ((d = inserted.poll()) != null) {
+                emit(d);
+            }
         }
 
-        @Override
-        public void process(PacketData data) {
-            if (data != null) {
-                AbstractPacketStream.this.inserted.add(data);
+        private void emit(PacketData data) {
+            if (data.getTime() > lastTimestamp) {
+                lastTimestamp = data.getTime();
             }
+            output.add(data);
         }
 
         @Override
         public String toString() {
-            return "Out";
+            return (active ? "" : "in") + "active " + filter;
         }
     }
 
-    private final Queue<PacketData> inserted = new LinkedList<>();
+    private final Queue<PacketData> inserted = new ArrayDeque<>();
     private final List<StreamElement> filters = new ArrayList<>();
+    private boolean closed;
 
-    private StreamElement firstElement;
+    /**
+     * All stages of the pipeline in order.
+     */
+    private StreamElement[] pipe = new StreamElement[0];
 
     @Override
     public void insert(PacketData packet) {
@@ -216,22 +351,29 @@ public abstract class AbstractPacketStream implements PacketStream {
     }
 
     private void buildPipe() {
-        Iterator<StreamElement> iter = filters.iterator();
-        StreamElement l = null;
-        while (iter.hasNext()) {
-            StreamElement e = iter.next();
-            if (l == null) {
-                firstElement = e;
-            } else {
-                l.next = e;
-            }
-            l = e;
-        }
-        if (l == null) {
-            firstElement = new StreamElementEnd();
-        } else {
-            l.next = new StreamElementEnd();
+        StreamElement[] pipe = filters.toArray(new StreamElement[0]);
+        for (int i = 0; i < pipe.length; i++) {
+            pipe[i].output = i + 1 < pipe.length ? pipe[i + 1].input : inserted;
         }
+        this.pipe = pipe;
+    }
+
+    /**
+     * Processes all packets queued in any stage of the pipeline.
+     * Stages are processed one after the other, so each of them sees all packets in order without any recursion.
+     */
+    private void pump() throws IOException {
+        StreamElement[] pipe;
+        do {
+            pipe = this.pipe;
+            for (StreamElement element : pipe) {
+                element.processQueued();
+            }
+        } while (pipe != this.pipe); // Filters were added or removed while processing, make sure nothing is left behind
+    }
+
+    private Queue<PacketData> head() {
+        return pipe.length == 0 ? inserted : pipe[0].input;
     }
 
     @Override
@@ -249,14 +391,33 @@ public abstract class AbstractPacketStream implements PacketStream {
     public void removeFilter(StreamFilter filter) {
         Iterator<StreamElement> iter = filters.iterator();
         while (iter.hasNext()) {
-            if (filter == iter.next().filter.getFilter()) {
+            StreamElement element = iter.next();
+            if (filter == element.streamFilter) {
+                // Pass on any packets which have yet to be processed by the removed stage
+                element.output.addAll(element.input);
+                element.input.clear();
                 iter.remove();
             }
         }
         buildPipe();
     }
 
-    protected abstract PacketData nextInput();
+    protected abstract PacketData nextInput() throws IOException;
+
+    /**
+     * Reads up to {@code dst.length} packets from the input of this stream.
+     * The default implementation calls {@link #nextInput()} until the array is full or the input has ended.
+     * @param dst The array into which packets are stored, starting at index 0
+     * @return The number of packets read or {@code -1} if the end of the input has been reached
+     */
+    protected int nextInputs(PacketData[] dst) throws IOException {
+        int count = 0;
+        PacketData data;
+        while (count < dst.length && (data = nextInput()) != null) {
+            dst[count++] = data;
+        }
+        return count == 0 && dst.length > 0 ? -1 : count;
+    }
 
     @Override
     public PacketData next() throws IOException {
@@ -265,11 +426,36 @@ public abstract class AbstractPacketStream implements PacketStream {
             if (next == null) {
                 break;
             }
-            firstElement.process(next);
+            head().add(next);
+            pump();
         }
         return inserted.poll();
     }
 
+    @Override
+    public int next(PacketData[] dst) throws IOException {
+        if (dst.length == 0) {
+            return 0;
+        }
+        while (inserted.isEmpty()) {
+            int read = nextInputs(dst);
+            if (read == -1) {
+                return -1;
+            }
+            Queue<PacketData> head = head();
+            for (int i = 0; i < read; i++) {
+                head.add(dst[i]);
+            }
+            pump();
+        }
+        int count = 0;
+        PacketData data;
+        while (count < dst.length && (data = inserted.poll()) != null) {
+            dst[count++] = data;
+        }
+        return count;
+    }
+
     @Override
     public Collection<FilterInfo> getFilters() {
         return Collections.unmodifiableList(Lists.transform(filters, (e) -> e.filter));
@@ -277,29 +463,44 @@ public abstract class AbstractPacketStream implements PacketStream {
 
     @Override
     public List<PacketData> end() throws IOException {
-        firstElement.process(null);
+        pump();
+        for (StreamElement element : pipe) {
+            element.end();
+            pump();
+        }
         List<PacketData> result = new LinkedList<>(inserted);
         inserted.clear();
+        close();
         return result;
     }
 
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (StreamElement element : pipe) {
+            element.release();
+        }
+        inserted.forEach(PacketData::release);
+        inserted.clear();
+        cleanup();
+    }
+
     /**
      * Clean up this packet stream (e.g. close input streams, etc.)
+     * Called once when this stream is closed.
      */
-    protected abstract void cleanup();
+    protected abstract void cleanup() throws IOException;
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("PacketStream[");
-        StreamElement e = firstElement;
-        while (e != null) {
-            sb.append(e);
-            if (e.next != null) {
-                sb.append(" -> ");
-            }
-            e = e.next;
+        for (StreamElement e : pipe) {
+            sb.append(e).append(" -> ");
         }
-        sb.append("]");
+        sb.append("Out]");
         return sb.toString();
     }
 }
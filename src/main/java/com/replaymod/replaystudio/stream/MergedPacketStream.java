@@ -0,0 +1,196 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.stream;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.io.ReplayInputStream;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A packet stream which merges the packets of multiple replay input streams ordered by their timestamps.
+ * Packets with the same timestamp are ordered by the index of their input, packets of a single input always retain
+ * their order.
+ * <p>
+ * Each input is read ahead by a small, fixed amount of packets, so memory usage is bounded regardless of the length
+ * of the inputs. Note that the login phase of all inputs is merged as well, so generally only the first input should
+ * be opened with a registry in LOGIN state.
+ * <p>
+ * The inputs are owned by this stream. They are closed once the end of this stream has been reached via
+ * {@link #end()} or, if it is abandoned before that, by calling {@link #close()}.
+ */
+public class MergedPacketStream extends AbstractPacketStream {
+
+    /**
+     * Number of packets read ahead from each input.
+     */
+    private static final int READ_AHEAD = 64;
+
+    private final Input[] inputs;
+
+    /**
+     * Inputs which have packets left, ordered by the timestamp of their next packet.
+     */
+    private final PriorityQueue<Input> queue;
+
+    private boolean started;
+
+    /**
+     * Creates a new merged packet stream.
+     * @param inputs The inputs, they are closed when this stream is closed
+     */
+    public MergedPacketStream(List<ReplayInputStream> inputs) {
+        this(inputs, new long[inputs.size()]);
+    }
+
+    /**
+     * Creates a new merged packet stream.
+     * @param inputs The inputs, they are closed when this stream is closed
+     * @param offsets Offsets (milliseconds) added to the timestamps of all packets of the input at the same index
+     */
+    public MergedPacketStream(List<ReplayInputStream> inputs, long[] offsets) {
+        if (inputs.size() != offsets.length) {
+            throw new IllegalArgumentException("Expected " + inputs.size() + " offsets but got " + offsets.length);
+        }
+        this.inputs = new Input[inputs.size()];
+        for (int i = 0; i < this.inputs.length; i++) {
+            this.inputs[i] = new Input(i, inputs.get(i), offsets[i]);
+        }
+        this.queue = new PriorityQueue<>(Math.max(1, this.inputs.length), (a, b) -> {
+            int result = Long.compare(a.nextTime(), b.nextTime());
+            return result != 0 ? result : Integer.compare(a.index, b.index);
+        });
+    }
+
+    @Override
+    protected PacketData nextInput() throws IOException {
+        if (!started) {
+            started = true;
+            for (Input input : inputs) {
+                if (input.fill()) {
+                    queue.add(input);
+                }
+            }
+        }
+        Input input = queue.poll();
+        if (input == null) {
+            return null;
+        }
+        PacketData data = input.poll();
+        if (input.fill()) {
+            queue.add(input);
+        }
+        return data;
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    /**
+     * Closes all inputs and releases any packets read ahead from them.
+     * All inputs are closed even if closing one of them fails, the first failure is then rethrown.
+     */
+    @Override
+    protected void cleanup() throws IOException {
+        IOException failure = null;
+        for (Input input : inputs) {
+            input.release();
+            try {
+                input.in.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        queue.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static class Input {
+        private final int index;
+        private final ReplayInputStream in;
+        private final long offset;
+        private final PacketData[] buffer = new PacketData[READ_AHEAD];
+        private int position;
+        private int size;
+        private boolean endOfStream;
+
+        Input(int index, ReplayInputStream in, long offset) {
+            this.index = index;
+            this.in = in;
+            this.offset = offset;
+        }
+
+        /**
+         * Makes sure that the read-ahead buffer contains at least one packet.
+         * @return {@code false} if the end of this input has been reached, {@code true} otherwise
+         */
+        boolean fill() throws IOException {
+            if (position < size) {
+                return true;
+            }
+            if (endOfStream) {
+                return false;
+            }
+            position = 0;
+            size = in.readPackets(buffer);
+            if (size == -1) {
+                size = 0;
+                endOfStream = true;
+                return false;
+            }
+            return true;
+        }
+
+        long nextTime() {
+            return buffer[position].getTime() + offset;
+        }
+
+        PacketData poll() {
+            PacketData data = buffer[position];
+            buffer[position++] = null;
+            return offset == 0 ? data : new PacketData(data.getTime() + offset, data.getPacket());
+        }
+
+        /**
+         * Releases all packets left in the read-ahead buffer.
+         */
+        void release() {
+            while (position < size) {
+                buffer[position].release();
+                buffer[position++] = null;
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.filter.StreamFilter;
 import com.replaymod.replaystudio.protocol.Packet;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
@@ -36,7 +37,7 @@ import java.util.Objects;
 /**
  * Represents a stream of packets.
  */
-public interface PacketStream {
+public interface PacketStream extends Closeable {
 
     /**
      * Information on the time frame for which a filter should apply and the filter itself.
@@ -169,6 +170,22 @@ public interface PacketStream {
      */
     PacketData next() throws IOException;
 
+    /**
+     * Retrieves the next elements in this stream applying all filters.
+     * Blocks until at least one packet is available but may return fewer packets than requested even if the end of
+     * the stream has not yet been reached.
+     * @param dst The array into which packets are stored, starting at index 0
+     * @return The number of packets retrieved or {@code -1} if the end of the stream has been reached
+     */
+    default int next(PacketData[] dst) throws IOException {
+        int count = 0;
+        PacketData data;
+        while (count < dst.length && (data = next()) != null) {
+            dst[count++] = data;
+        }
+        return count == 0 && dst.length > 0 ? -1 : count;
+    }
+
     /**
      * Starts this packet stream (e.g. opening input streams, etc.).
      */
@@ -181,4 +198,15 @@ public interface PacketStream {
      */
     List<PacketData> end() throws IOException;
 
+    /**
+     * Closes this packet stream (e.g. closing input streams, stopping threads, etc.) and releases all packets which
+     * have not yet been retrieved from it.
+     * This must be called if the stream is abandoned before reaching its end, it is called automatically by
+     * {@link #end()}. Calling it more than once has no effect.
+     * The default implementation does nothing.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
 }
@@ -0,0 +1,441 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.stream;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.filter.StageSafeFilter;
+import com.replaymod.replaystudio.filter.StreamFilter;
+import com.replaymod.replaystudio.protocol.Packet;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A packet stream which runs its filters in parallel on multiple threads.
+ * <p>
+ * Every filter implementing {@link StageSafeFilter} runs on a thread of its own, consecutive filters which don't are
+ * grouped together and share a thread. Reading from the source stream happens on another separate thread.
+ * The threads are connected by bounded queues, so a slow stage stalls the stages before it instead of letting packets
+ * pile up in memory. Packets are passed between threads in batches to keep synchronization overhead low.
+ * <p>
+ * Each stage behaves exactly like an {@link AbstractPacketStream} with the filters of that stage, however filters
+ * added from within a filter are only added to the stage of that filter.
+ * Filters can only be added to or removed from this stream before the first packet has been retrieved.
+ */
+public class ParallelPacketStream implements PacketStream {
+
+    /**
+     * Maximum number of packets passed between stages at once.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Maximum number of batches queued between two stages.
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * Interval (in milliseconds) in which the consumer checks for failures while waiting for packets.
+     */
+    private static final long FAILURE_POLL_INTERVAL = 100;
+
+    /**
+     * Marks the end of a queue of batches.
+     */
+    private static final PacketData[] END_OF_STREAM = new PacketData[0];
+
+    private final PacketStream source;
+    private final List<FilterInfo> filters = new ArrayList<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    /**
+     * All queues between stages, so any packets left in them can be released when this stream is closed.
+     */
+    private final List<BlockingQueue<PacketData[]>> queues = new ArrayList<>();
+
+    /**
+     * Packets which have been received from the last stage (or inserted) but not yet been retrieved.
+     */
+    private final Queue<PacketData> inserted = new ArrayDeque<>();
+
+    /**
+     * Output queue of the last stage. {@code null} until the stages have been started.
+     */
+    private BlockingQueue<PacketData[]> output;
+
+    /**
+     * The first exception thrown by any of the stages.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Whether the source should stop producing packets because this stream is being ended.
+     */
+    private volatile boolean stopped;
+    private volatile boolean closed;
+    private boolean endOfStream;
+
+    /**
+     * Creates a new parallel packet stream.
+     * @param source The stream from which packets are read, any filters on it run on the thread reading from it
+     */
+    public ParallelPacketStream(PacketStream source) {
+        this.source = source;
+    }
+
+    @Override
+    public void insert(PacketData packet) {
+        inserted.add(packet);
+    }
+
+    @Override
+    public void insert(long time, Packet packet) {
+        inserted.add(new PacketData(time, packet));
+    }
+
+    @Override
+    public void addFilter(StreamFilter filter) {
+        addFilter(filter, -1, -1);
+    }
+
+    @Override
+    public void addFilter(StreamFilter filter, long from, long to) {
+        checkNotStarted();
+        filters.add(new FilterInfo(filter, from, to));
+    }
+
+    @Override
+    public void removeFilter(StreamFilter filter) {
+        checkNotStarted();
+        filters.removeIf(info -> info.getFilter() == filter);
+    }
+
+    private void checkNotStarted() {
+        if (output != null) {
+            throw new IllegalStateException("Filters cannot be changed once packets are being processed.");
+        }
+    }
+
+    @Override
+    public Collection<FilterInfo> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
+    @Override
+    public void start() {
+        source.start();
+    }
+
+    private void startStages() {
+        BlockingQueue<PacketData[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        queues.add(queue);
+        BlockingQueue<PacketData[]> sourceOut = queue;
+        startThread("source", () -> runSource(sourceOut));
+
+        List<FilterInfo> group = new ArrayList<>();
+        for (FilterInfo info : filters) {
+            boolean stageSafe = info.getFilter() instanceof StageSafeFilter;
+            if (!group.isEmpty() && (stageSafe || group.get(0).getFilter() instanceof StageSafeFilter)) {
+                queue = startStage(group, queue);
+                group = new ArrayList<>();
+            }
+            group.add(info);
+        }
+        if (!group.isEmpty()) {
+            queue = startStage(group, queue);
+        }
+        output = queue;
+    }
+
+    private BlockingQueue<PacketData[]> startStage(List<FilterInfo> filters, BlockingQueue<PacketData[]> in) {
+        BlockingQueue<PacketData[]> out = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        queues.add(out);
+        startThread(filters.get(0).getFilter().getName(), () -> runStage(filters, in, out));
+        return out;
+    }
+
+    private void startThread(String name, Stage stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (Throwable t) {
+                if (!closed && failure == null) {
+                    failure = t;
+                    // Stop the other stages, the consumer will notice the failure once it runs out of packets
+                    for (Thread other : threads) {
+                        if (other != Thread.currentThread()) {
+                            other.interrupt();
+                        }
+                    }
+                }
+            }
+        }, "ReplayStudio-stage-" + name + "-" + Integer.toHexString(hashCode()));
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void runSource(BlockingQueue<PacketData[]> out) throws IOException, InterruptedException {
+        PacketData[] batch = new PacketData[BATCH_SIZE];
+        int read;
+        while (!stopped && (read = source.next(batch)) != -1) {
+            put(out, Arrays.copyOf(batch, read));
+        }
+        List<PacketData> excess = source.end();
+        if (!excess.isEmpty()) {
+            put(out, excess.toArray(new PacketData[0]));
+        }
+        out.put(END_OF_STREAM);
+    }
+
+    private void runStage(List<FilterInfo> filters, BlockingQueue<PacketData[]> in, BlockingQueue<PacketData[]> out)
+            throws IOException, InterruptedException {
+        try (QueuePacketStream stream = new QueuePacketStream(in)) {
+            for (FilterInfo info : filters) {
+                stream.addFilter(info.getFilter(), info.getFrom(), info.getTo());
+            }
+            stream.start();
+            PacketData[] batch = new PacketData[BATCH_SIZE];
+            int read;
+            while ((read = stream.next(batch)) != -1) {
+                put(out, Arrays.copyOf(batch, read));
+            }
+            List<PacketData> excess = stream.end();
+            if (!excess.isEmpty()) {
+                put(out, excess.toArray(new PacketData[0]));
+            }
+        }
+        out.put(END_OF_STREAM);
+    }
+
+    /**
+     * Passes a batch to the next stage, releasing its packets if interrupted before it could be queued.
+     */
+    private static void put(BlockingQueue<PacketData[]> queue, PacketData[] batch) throws InterruptedException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            for (PacketData data : batch) {
+                data.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Receives the next batch from the last stage and adds it to {@link #inserted}.
+     * @return {@code false} if the end of the stream has been reached, {@code true} otherwise
+     */
+    private boolean receive() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+        if (output == null) {
+            startStages();
+        }
+        PacketData[] batch;
+        try {
+            while ((batch = output.poll(FAILURE_POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+                Throwable failure = this.failure;
+                if (failure != null) {
+                    endOfStream = true;
+                    throw failure instanceof IOException ? (IOException) failure : new IOException("Processing packets failed", failure);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        if (batch == END_OF_STREAM) {
+            endOfStream = true;
+            return false;
+        }
+        Collections.addAll(inserted, batch);
+        return true;
+    }
+
+    @Override
+    public PacketData next() throws IOException {
+        while (inserted.isEmpty()) {
+            if (!receive()) {
+                break;
+            }
+        }
+        return inserted.poll();
+    }
+
+    @Override
+    public int next(PacketData[] dst) throws IOException {
+        if (dst.length == 0) {
+            return 0;
+        }
+        while (inserted.isEmpty()) {
+            if (!receive()) {
+                return -1;
+            }
+        }
+        int count = 0;
+        PacketData data;
+        while (count < dst.length && (data = inserted.poll()) != null) {
+            dst[count++] = data;
+        }
+        return count;
+    }
+
+    @Override
+    public List<PacketData> end() throws IOException {
+        // Stop reading from the source, every stage then ends once it has processed all packets read so far
+        stopped = true;
+        while (receive());
+        List<PacketData> result = new ArrayList<>(inserted);
+        inserted.clear();
+        close();
+        return result;
+    }
+
+    /**
+     * Stops all stages, waiting for their threads to exit, and releases all packets which are still queued.
+     * Must be called if this stream is abandoned before its end, e.g. because the consumer failed or was cancelled,
+     * otherwise the stages would stay blocked forever.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (BlockingQueue<PacketData[]> queue : queues) {
+            for (PacketData[] batch : queue) {
+                for (PacketData data : batch) {
+                    data.release();
+                }
+            }
+            queue.clear();
+        }
+        inserted.forEach(PacketData::release);
+        inserted.clear();
+        source.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelPacketStream[" + source + " => " + filters + "]";
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Packet stream of a single stage, reading its input from the queue of the previous stage.
+     */
+    private static class QueuePacketStream extends AbstractPacketStream {
+        private final BlockingQueue<PacketData[]> in;
+        private PacketData[] batch = new PacketData[0];
+        private int index;
+
+        QueuePacketStream(BlockingQueue<PacketData[]> in) {
+            this.in = in;
+        }
+
+        /**
+         * Makes sure that there are packets left in the current batch.
+         * @return {@code false} if the end of the stream has been reached, {@code true} otherwise
+         */
+        private boolean advance() throws IOException {
+            while (index == batch.length) {
+                if (batch == END_OF_STREAM) {
+                    return false;
+                }
+                try {
+                    batch = in.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        protected PacketData nextInput() throws IOException {
+            return advance() ? batch[index++] : null;
+        }
+
+        @Override
+        protected int nextInputs(PacketData[] dst) throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            int count = Math.min(dst.length, batch.length - index);
+            System.arraycopy(batch, index, dst, 0, count);
+            index += count;
+            return count;
+        }
+
+        @Override
+        public void start() {
+
+        }
+
+        @Override
+        protected void cleanup() {
+            // Release what is left of the current batch, the rest of the queue is released by the outer stream
+            for (int i = index; i < batch.length; i++) {
+                batch[i].release();
+            }
+            index = batch.length;
+        }
+    }
+}
@@ -47,18 +47,23 @@ public class StudioPacketStream extends AbstractPacketStream {
         }
     }
 
+    @Override
+    protected int nextInputs(PacketData[] dst) {
+        try {
+            return in.readPackets(dst);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void start() {
 
     }
 
     @Override
-    protected void cleanup() {
-        try {
-            in.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    protected void cleanup() throws IOException {
+        in.close();
     }
 
 }
@@ -33,6 +33,7 @@ import com.replaymod.replaystudio.PacketData;
 import com.replaymod.replaystudio.io.ReplayInputStream;
 import com.replaymod.replaystudio.protocol.Packet;
 import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.replay.CacheCodec;
 import com.replaymod.replaystudio.replay.ReplayFile;
 import com.replaymod.replaystudio.replay.ReplayMetaData;
 import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
@@ -130,7 +131,7 @@ public class EntityPositionTracker {
                 return;
             }
 
-            try (OutputStream rawOut = replayFile.writeCache(CACHE_ENTRY)) {
+            try (OutputStream rawOut = replayFile.writeCache(CACHE_ENTRY, CacheCodec.FAST)) {
                 NetOutput out = new StreamNetOutput(rawOut);
                 out.writeVarInt(entityPositions.size());
                 for (Map.Entry<Integer, NavigableMap<Long, Location>> entry : entityPositions.entrySet()) {
@@ -0,0 +1,229 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of runtime metrics (counters, timers and gauges), identified by their name.
+ * Collection is disabled by default (enable via {@link #setEnabled(boolean)} or the {@code replaystudio.metrics}
+ * system property), instrumented code should check {@link #isEnabled()} before taking any measurements.
+ * Metrics can be inspected via {@link #dump()} or via JMX once {@link #registerMBean()} has been called.
+ */
+public final class Metrics {
+    private static final String OBJECT_NAME = "com.replaymod.replaystudio:type=Metrics";
+
+    private static volatile boolean enabled = Boolean.getBoolean("replaystudio.metrics");
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Returns the counter with the specified name, creating it if necessary.
+     * @param name Name of the counter
+     * @return The counter
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * Returns the timer with the specified name, creating it if necessary.
+     * @param name Name of the timer
+     * @return The timer
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Registers a gauge whose value is computed whenever the metrics are read. Replaces any previous gauge of the
+     * same name.
+     * @param name Name of the gauge
+     * @param value Supplier of the current value
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Returns the current value of all metrics. Timers are flattened into multiple values, see {@link Timer}.
+     * @return Map of metric names to their values, sorted by name
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        timers.forEach((name, timer) -> {
+            values.put(name + ".count", timer.getCount());
+            values.put(name + ".totalMs", timer.getTotalNanos() / 1000000);
+            values.put(name + ".p50Us", timer.getPercentileNanos(0.5) / 1000);
+            values.put(name + ".p99Us", timer.getPercentileNanos(0.99) / 1000);
+        });
+        return values;
+    }
+
+    /**
+     * Returns all metrics as human readable text, one metric per line.
+     * @return The text dump
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        snapshot().forEach((name, value) -> sb.append(name).append(' ').append(value).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server (as {@value #OBJECT_NAME}) unless they already are.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Monotonically increasing count.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {}
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Count and total duration of events with a histogram of their durations.
+     * The histogram uses power of two buckets, so percentiles are accurate to a factor of two.
+     */
+    public static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        /**
+         * Number of events by duration, bucket {@code i} holds durations in {@code [2^(i-1), 2^i)} nanoseconds.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        private Timer() {}
+
+        /**
+         * Records an event.
+         * @param nanos Duration of the event in nanoseconds
+         */
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            count.increment();
+            totalNanos.add(nanos);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        }
+
+        /**
+         * Records an event which started at the given time.
+         * @param startNanos Value of {@link System#nanoTime()} at the start of the event
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * Returns an upper bound for the duration below which the given fraction of events lies.
+         * @param quantile The fraction, between 0 and 1
+         * @return Upper bound in nanoseconds, 0 if there have not been any events
+         */
+        public long getPercentileNanos(double quantile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            long target = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target && seen > 0) {
+                    return i >= 63 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+
+    public interface MetricsMXBean {
+        Map<String, Long> getValues();
+        String getDump();
+    }
+
+    private static final class MetricsBean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getValues() {
+            return snapshot();
+        }
+
+        @Override
+        public String getDump() {
+            return dump();
+        }
+    }
+}
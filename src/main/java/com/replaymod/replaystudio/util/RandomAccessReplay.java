@@ -27,6 +27,7 @@ import com.replaymod.replaystudio.protocol.packets.PacketSpawnPlayer;
 import com.replaymod.replaystudio.protocol.packets.PacketUpdateLight;
 import com.replaymod.replaystudio.protocol.packets.PacketUpdateViewDistance;
 import com.replaymod.replaystudio.protocol.packets.PacketUpdateViewPosition;
+import com.replaymod.replaystudio.replay.CacheCodec;
 import com.replaymod.replaystudio.replay.ReplayFile;
 import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
 
@@ -206,8 +207,9 @@ public abstract class RandomAccessReplay<T> {
         double sysTimeStart = System.currentTimeMillis();
         double duration;
         try (ReplayInputStream in = replayFile.getPacketData(registry);
-             OutputStream cacheOut = replayFile.writeCache(CACHE_ENTRY);
-             OutputStream cacheIndexOut = replayFile.writeCache(CACHE_INDEX_ENTRY)) {
+             // Packets in the cache are already compressed individually
+             OutputStream cacheOut = replayFile.writeCache(CACHE_ENTRY, CacheCodec.STORE);
+             OutputStream cacheIndexOut = replayFile.writeCache(CACHE_INDEX_ENTRY, CacheCodec.FAST)) {
             NetOutput out = new StreamNetOutput(cacheOut);
             out.writeVarInt(CACHE_VERSION);
             out.writeVarInt(registry.getVersion().getId());
@@ -0,0 +1,126 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only temporary file for records which are evicted from the heap and may be read back later.
+ * Record data lives in the file (and thereby the OS page cache) rather than on the Java heap.
+ * The file is deleted once it has been closed as often as it has been retained (plus once for its creation).
+ */
+public class SpillFile implements Closeable {
+    private final FileChannel channel;
+    private long end;
+    private int refs = 1;
+
+    private SpillFile(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a new, empty spill file in the default temporary directory.
+     * @return The spill file
+     * @throws IOException if an I/O error occurs
+     */
+    public static SpillFile create() throws IOException {
+        Path path = Files.createTempFile("replaystudio", ".spill");
+        return new SpillFile(FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    /**
+     * Appends a record to this file.
+     * @param data The content of the record
+     * @return Offset of the record, required to read it back
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized long write(byte[] data) throws IOException {
+        long offset = end;
+        ByteBuffer buf = ByteBuffer.allocate(4 + data.length);
+        buf.putInt(data.length).put(data).flip();
+        while (buf.hasRemaining()) {
+            end += channel.write(buf, end);
+        }
+        return offset;
+    }
+
+    /**
+     * Reads a record from this file.
+     * @param offset Offset of the record as returned by {@link #write(byte[])}
+     * @return The content of the record
+     * @throws IOException if an I/O error occurs
+     */
+    public byte[] read(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        ByteBuffer data = ByteBuffer.allocate(length.getInt(0));
+        readFully(data, offset + 4);
+        return data.array();
+    }
+
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Returns the total size of all records ever written to this file in bytes.
+     */
+    public synchronized long size() {
+        return end;
+    }
+
+    /**
+     * Increments the reference count of this file.
+     * @return This file
+     */
+    public synchronized SpillFile retain() {
+        if (refs <= 0) {
+            throw new IllegalStateException("Spill file has already been closed.");
+        }
+        refs++;
+        return this;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (refs > 0 && --refs == 0) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio;
+
+import com.github.steveice10.netty.buffer.ByteBufUtil;
+import com.replaymod.replaystudio.io.ReplayInputStream;
+import com.replaymod.replaystudio.io.ReplayOutputStream;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.protocol.packets.PacketBlockChange;
+import com.replaymod.replaystudio.replay.ReplayMetaData;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import com.replaymod.replaystudio.studio.ReplayStudio;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import com.replaymod.replaystudio.util.IPosition;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReplayTestsBase {
+    protected static final ProtocolVersion VERSION = ProtocolVersion.v1_12_2;
+    protected static final PacketTypeRegistry LOGIN = PacketTypeRegistry.get(VERSION, State.LOGIN);
+    protected static final PacketTypeRegistry PLAY = PacketTypeRegistry.get(VERSION, State.PLAY);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected final Studio studio = new ReplayStudio();
+
+    /**
+     * Creates block change packets for distinct positions, the given number of milliseconds apart.
+     */
+    protected static List<PacketData> blockChanges(int count, int interval) throws IOException {
+        List<PacketData> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            IPosition pos = new IPosition(i % 64, i / 64 % 256, i / 64 / 256);
+            packets.add(new PacketData((long) i * interval, PacketBlockChange.write(PLAY, pos, i)));
+        }
+        return packets;
+    }
+
+    /**
+     * Creates a new replay file containing the given packets (which are released).
+     */
+    protected File createReplay(List<PacketData> packets) throws IOException {
+        File file = new File(folder.newFolder(), "test.mcpr");
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            writeReplay(replayFile, packets);
+            replayFile.save();
+        }
+        return file;
+    }
+
+    /**
+     * Writes the meta data and the given packets (which are released) to the given replay file without saving it.
+     */
+    protected static void writeReplay(ZipReplayFile replayFile, List<PacketData> packets) throws IOException {
+        replayFile.writeMetaData(PLAY, new ReplayMetaData());
+        try (ReplayOutputStream out = replayFile.writePacketData()) {
+            out.write(packets);
+        }
+    }
+
+    /**
+     * Returns a description of each packet (timestamp, type and content) in the given list without releasing them.
+     */
+    protected static List<String> describe(List<PacketData> packets) {
+        List<String> result = new ArrayList<>();
+        for (PacketData data : packets) {
+            result.add(describe(data));
+        }
+        return result;
+    }
+
+    protected static String describe(PacketData data) {
+        return data.getTime() + " " + data.getPacket().getType() + " " + ByteBufUtil.hexDump(data.getPacket().getBuf());
+    }
+
+    /**
+     * Reads all packets from the given stream, closes it and returns the description of each packet.
+     */
+    protected static List<String> readAll(ReplayInputStream in) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (ReplayInputStream closeable = in) {
+            PacketData data;
+            while ((data = in.readPacket()) != null) {
+                result.add(describe(data));
+                data.release();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads all packets from the given stream in batches of the given size, closes it and returns the description of
+     * each packet.
+     */
+    protected static List<String> readAllBatched(ReplayInputStream in, int batchSize) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (ReplayInputStream closeable = in) {
+            PacketData[] batch = new PacketData[batchSize];
+            int count;
+            while ((count = in.readPackets(batch)) != -1) {
+                if (count == 0) {
+                    throw new IOException("Empty batch");
+                }
+                for (int i = 0; i < count; i++) {
+                    result.add(describe(batch[i]));
+                    batch[i].release();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the descriptions of all packets at or after the given time (but before the given end time), with their
+     * timestamps shifted by the given amount.
+     */
+    protected static List<String> between(List<String> packets, long from, long to, long shift) {
+        List<String> result = new ArrayList<>();
+        for (String packet : packets) {
+            int split = packet.indexOf(' ');
+            long time = Long.parseLong(packet.substring(0, split));
+            if (time >= from && time < to) {
+                result.add((time + shift) + packet.substring(split));
+            }
+        }
+        return result;
+    }
+}
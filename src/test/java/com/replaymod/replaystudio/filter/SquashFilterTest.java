@@ -0,0 +1,171 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.filter;
+
+import com.google.gson.JsonObject;
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.protocol.PacketType;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.protocol.packets.PacketBlockChange;
+import com.replaymod.replaystudio.stream.AbstractPacketStream;
+import com.replaymod.replaystudio.stream.PacketStream;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import com.replaymod.replaystudio.util.IPosition;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SquashFilterTest {
+    private static final PacketTypeRegistry REGISTRY = PacketTypeRegistry.get(ProtocolVersion.v1_12_2, State.PLAY);
+
+    private static class BlockChange {
+        final IPosition pos;
+        final int id;
+
+        BlockChange(IPosition pos, int id) {
+            this.pos = pos;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Squashes the given block changes (one packet per change, one millisecond apart) and returns the resulting
+     * block changes in order.
+     */
+    private static List<BlockChange> squash(List<BlockChange> changes, JsonObject config) throws IOException {
+        Queue<PacketData> input = new ArrayDeque<>();
+        long time = 0;
+        for (BlockChange change : changes) {
+            input.add(new PacketData(time++, PacketBlockChange.write(REGISTRY, change.pos, change.id)));
+        }
+
+        SquashFilter filter = new SquashFilter();
+        filter.init(null, config);
+        List<BlockChange> result = new ArrayList<>();
+        try (PacketStream stream = AbstractPacketStream.of(input::poll)) {
+            stream.addFilter(filter);
+            stream.start();
+            PacketData data;
+            while ((data = stream.next()) != null) {
+                data.release();
+            }
+            for (PacketData out : stream.end()) {
+                try {
+                    if (out.getPacket().getType() == PacketType.BlockChange) {
+                        PacketBlockChange change = PacketBlockChange.read(out.getPacket());
+                        result.add(new BlockChange(change.getPosition(), change.getId()));
+                    }
+                } finally {
+                    out.release();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<IPosition, Integer> latest(List<BlockChange> changes) {
+        Map<IPosition, Integer> states = new HashMap<>();
+        for (BlockChange change : changes) {
+            states.put(change.pos, change.id);
+        }
+        return states;
+    }
+
+    private static void assertSameChanges(List<BlockChange> expected, List<BlockChange> actual) {
+        assertEquals("Number of block changes did not match", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Position of block change " + i + " did not match", expected.get(i).pos, actual.get(i).pos);
+            assertEquals("State of block change " + i + " did not match", expected.get(i).id, actual.get(i).id);
+        }
+    }
+
+    @Test
+    public void blockPositions() throws Exception {
+        // Corners and edges of sections in chunks on either side of the origin
+        int[] chunks = {-2, -1, 0, 3};
+        int[] local = {0, 1, 7, 8, 15};
+        int[] ys = {0, 1, 15, 16, 17, 127, 128, 255};
+        List<BlockChange> changes = new ArrayList<>();
+        int id = 1;
+        for (int chunkX : chunks) {
+            for (int chunkZ : chunks) {
+                for (int x : local) {
+                    for (int z : local) {
+                        for (int y : ys) {
+                            changes.add(new BlockChange(new IPosition(chunkX << 4 | x, y, chunkZ << 4 | z), id++));
+                        }
+                    }
+                }
+            }
+        }
+
+        List<BlockChange> result = squash(changes, new JsonObject());
+        assertEquals("Block changes did not match", latest(changes), latest(result));
+        assertEquals("Block changes were duplicated", changes.size(), result.size());
+    }
+
+    @Test
+    public void latestChangeWins() throws Exception {
+        IPosition pos = new IPosition(17, 64, -3);
+        IPosition other = new IPosition(18, 64, -3);
+        List<BlockChange> changes = new ArrayList<>();
+        changes.add(new BlockChange(pos, 1));
+        changes.add(new BlockChange(other, 2));
+        changes.add(new BlockChange(pos, 3));
+        changes.add(new BlockChange(pos, 4));
+
+        List<BlockChange> expected = new ArrayList<>();
+        expected.add(new BlockChange(other, 2));
+        expected.add(new BlockChange(pos, 4));
+        assertSameChanges(expected, squash(changes, new JsonObject()));
+    }
+
+    @Test
+    public void spillRoundTrip() throws Exception {
+        Random random = new Random(0);
+        List<BlockChange> changes = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // Few chunks, so most of them are spilled and read back again multiple times
+            IPosition pos = new IPosition(random.nextInt(128) - 64, random.nextInt(256), random.nextInt(128) - 64);
+            changes.add(new BlockChange(pos, random.nextInt(4096)));
+        }
+
+        JsonObject config = new JsonObject();
+        config.addProperty("spillAfter", 0);
+        List<BlockChange> expected = squash(changes, new JsonObject());
+        assertEquals("Block changes did not match", latest(changes), latest(expected));
+        assertSameChanges(expected, squash(changes, config));
+    }
+}
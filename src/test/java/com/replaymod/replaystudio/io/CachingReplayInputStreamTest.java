@@ -0,0 +1,95 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CachingReplayInputStreamTest extends ReplayTestsBase {
+    private static final PacketTypeRegistry CONVERTED = PacketTypeRegistry.get(ProtocolVersion.v1_13, State.PLAY);
+    private static final String CACHE_ENTRY = "recording_" + ProtocolVersion.v1_13.getId() + ".tmcpr";
+
+    @Test
+    public void convertOnceThenReadFromCache() throws Exception {
+        File file = createReplay(blockChanges(1000, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<String> expected = readAll(replayFile.getPacketData(CONVERTED));
+
+            ReplayInputStream first = replayFile.getCachedPacketData(CONVERTED);
+            assertTrue("Packet data was not cached", first instanceof CachingReplayInputStream);
+            assertEquals("Packets did not match while caching", expected, readAll(first));
+            assertTrue("Cache entry is missing", replayFile.getCache(CACHE_ENTRY).isPresent());
+
+            ReplayInputStream second = replayFile.getCachedPacketData(CONVERTED);
+            assertFalse("Cached packet data was converted again", second instanceof CachingReplayInputStream);
+            assertEquals("Packets read from cache did not match", expected, readAll(second));
+        }
+
+        // The cache must survive reopening the replay, as long as the recording is unchanged
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            ReplayInputStream in = replayFile.getCachedPacketData(CONVERTED);
+            assertFalse("Cache was not reused after reopening", in instanceof CachingReplayInputStream);
+            in.close();
+        }
+    }
+
+    @Test
+    public void partialReadIsDiscarded() throws Exception {
+        File file = createReplay(blockChanges(1000, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            try (ReplayInputStream in = replayFile.getCachedPacketData(CONVERTED)) {
+                PacketData data = in.readPacket();
+                data.release();
+            }
+            assertFalse("Incomplete cache entry was kept", replayFile.getCache(CACHE_ENTRY).isPresent());
+
+            ReplayInputStream in = replayFile.getCachedPacketData(CONVERTED);
+            assertTrue("Incomplete cache entry was used", in instanceof CachingReplayInputStream);
+            in.close();
+        }
+    }
+
+    @Test
+    public void sameVersionIsNotCached() throws Exception {
+        File file = createReplay(blockChanges(10, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            ReplayInputStream in = replayFile.getCachedPacketData(PLAY);
+            assertFalse("Packet data which needs no conversion was cached", in instanceof CachingReplayInputStream);
+            in.close();
+        }
+    }
+}
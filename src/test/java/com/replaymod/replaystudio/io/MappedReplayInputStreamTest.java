@@ -0,0 +1,154 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.google.common.io.ByteStreams;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedReplayInputStreamTest extends ReplayTestsBase {
+    /**
+     * Rewrites the given replay file with its recording stored uncompressed.
+     */
+    private File storeRecording(File file) throws IOException {
+        File stored = new File(folder.newFolder(), "stored.mcpr");
+        try (ZipFile in = new ZipFile(file);
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(stored))) {
+            Enumeration<? extends ZipEntry> entries = in.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                byte[] data;
+                try (InputStream is = in.getInputStream(entry)) {
+                    data = ByteStreams.toByteArray(is);
+                }
+                ZipEntry copy = new ZipEntry(entry.getName());
+                if (entry.getName().equals("recording.tmcpr")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    copy.setMethod(ZipEntry.STORED);
+                    copy.setSize(data.length);
+                    copy.setCompressedSize(data.length);
+                    copy.setCrc(crc.getValue());
+                }
+                out.putNextEntry(copy);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+        return stored;
+    }
+
+    private File rawFrames(int time, int length, int dataLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(time);
+        out.writeInt(length);
+        out.write(new byte[dataLength]);
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes.toByteArray());
+        return file;
+    }
+
+    private ReplayInputStream openRaw(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return new MappedReplayInputStream(PLAY, channel, 0, channel.size(), 14, VERSION.getId());
+    }
+
+    @Test
+    public void storedRecording() throws Exception {
+        File file = storeRecording(createReplay(blockChanges(1000, 10)));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            ReplayInputStream mapped = replayFile.getMappedPacketData(PLAY);
+            assertTrue("Stored recording was not mapped", mapped instanceof MappedReplayInputStream);
+            assertEquals("Mapped packets did not match", readAll(replayFile.getPacketData(PLAY)), readAll(mapped));
+        }
+    }
+
+    @Test
+    public void changedRecording() throws Exception {
+        File file = new File(folder.newFolder(), "test.mcpr");
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            writeReplay(replayFile, blockChanges(1000, 10));
+            ReplayInputStream mapped = replayFile.getMappedPacketData(PLAY);
+            assertTrue("Unsaved recording was not mapped", mapped instanceof MappedReplayInputStream);
+            List<String> packets = readAll(mapped);
+            assertEquals("Mapped packets did not match", readAll(replayFile.getPacketData(PLAY)), packets);
+            assertEquals("Number of packets did not match", 1000, packets.size());
+        }
+    }
+
+    @Test
+    public void deflatedRecordingFallsBack() throws Exception {
+        File file = createReplay(blockChanges(100, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            ReplayInputStream in = replayFile.getMappedPacketData(PLAY);
+            assertFalse("Compressed recording was mapped", in instanceof MappedReplayInputStream);
+            assertEquals("Packets did not match", readAll(replayFile.getPacketData(PLAY)), readAll(in));
+        }
+    }
+
+    @Test
+    public void truncatedFrame() throws Exception {
+        try (ReplayInputStream in = openRaw(rawFrames(0, 100, 10))) {
+            in.readPacket();
+            fail("Truncated frame was read");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void invalidFrameLength() throws Exception {
+        for (int length : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE - 7}) {
+            try (ReplayInputStream in = openRaw(rawFrames(0, length, 16))) {
+                in.readPacket();
+                fail("Frame with length " + length + " was read");
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
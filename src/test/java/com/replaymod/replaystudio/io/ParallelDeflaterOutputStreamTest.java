@@ -0,0 +1,156 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelDeflaterOutputStreamTest {
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] testData(int size) {
+        return testData(size, BLOCK_SIZE + 1000);
+    }
+
+    private static byte[] testData(int size, int period) {
+        byte[] pattern = new byte[period];
+        new Random(0).nextBytes(pattern);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = pattern[i % pattern.length];
+        }
+        return data;
+    }
+
+    private byte[] compress(byte[] data, boolean singleBytes) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelDeflaterOutputStream out = new ParallelDeflaterOutputStream(bytes, executor, Deflater.DEFAULT_COMPRESSION)) {
+            if (singleBytes) {
+                for (byte b : data) {
+                    out.write(b);
+                }
+            } else {
+                // Uneven chunks, so writes cross block boundaries
+                for (int off = 0; off < data.length; off += 10007) {
+                    out.write(data, off, Math.min(10007, data.length - off));
+                }
+            }
+            out.finish();
+
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            assertEquals("CRC did not match", crc.getValue(), out.getCrc());
+            assertEquals("Size did not match", data.length, out.getSize());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressed) throws Exception {
+        Inflater inflater = new Inflater(true);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed), inflater)) {
+            byte[] result = ByteStreams.toByteArray(in);
+            assertTrue("Deflate stream was not finished", inflater.finished());
+            return result;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        int[] sizes = {0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 10 * BLOCK_SIZE + 12345};
+        for (int size : sizes) {
+            byte[] data = testData(size);
+            assertArrayEquals("Data of size " + size + " did not match", data, inflate(compress(data, false)));
+        }
+    }
+
+    @Test
+    public void roundTripSingleBytes() throws Exception {
+        byte[] data = testData(3 * BLOCK_SIZE + 17);
+        assertArrayEquals("Data did not match", data, inflate(compress(data, true)));
+    }
+
+    @Test
+    public void usesDictionaryOfPreviousBlock() throws Exception {
+        // Random data repeating every 16KB: only the very first period is incompressible if each block can refer
+        // back to the end of the previous one, otherwise the first period of every block is
+        int period = 16 * 1024;
+        byte[] data = testData(8 * BLOCK_SIZE, period);
+        int compressed = compress(data, false).length;
+        assertTrue("Blocks were compressed independently (" + compressed + " bytes)", compressed < 2 * period);
+    }
+
+    @Test
+    public void rawZipEntry() throws Exception {
+        byte[] data = testData(5 * BLOCK_SIZE + 3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RawZipOutputStream zipOut = new RawZipOutputStream(bytes)) {
+            zipOut.putNextRawEntry("recording.tmcpr", -1);
+            ParallelDeflaterOutputStream out = new ParallelDeflaterOutputStream(zipOut, executor, Deflater.DEFAULT_COMPRESSION);
+            out.write(data);
+            out.close();
+            zipOut.closeRawEntry(out.getCrc(), out.getSize());
+        }
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            ZipEntry entry = in.getNextEntry();
+            assertNotNull("Entry is missing", entry);
+            assertArrayEquals("Content did not match", data, ByteStreams.toByteArray(in));
+        }
+    }
+}
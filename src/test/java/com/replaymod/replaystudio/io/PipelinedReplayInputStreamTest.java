@@ -0,0 +1,112 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedReplayInputStreamTest extends ReplayTestsBase {
+    private static ReplayInputStream rawFrames(int time, int length, int dataLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(time);
+        out.writeInt(length);
+        out.write(new byte[dataLength]);
+        return new PipelinedReplayInputStream(PLAY, new ByteArrayInputStream(bytes.toByteArray()), 14, VERSION.getId());
+    }
+
+    @Test
+    public void sameAsRegular() throws Exception {
+        File file = createReplay(blockChanges(10000, 1));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            ReplayInputStream pipelined = replayFile.getPipelinedPacketData(PLAY);
+            assertTrue("Recording was not pipelined", pipelined instanceof PipelinedReplayInputStream);
+            List<String> packets = readAll(pipelined);
+            assertEquals("Pipelined packets did not match", readAll(replayFile.getPacketData(PLAY)), packets);
+            assertEquals("Number of packets did not match", 10000, packets.size());
+        }
+    }
+
+    @Test
+    public void batchSameAsRegular() throws Exception {
+        File file = createReplay(blockChanges(10000, 1));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<String> expected = readAll(replayFile.getPacketData(PLAY));
+            for (int batchSize : new int[]{1, 7, 64}) {
+                assertEquals("Pipelined batches of " + batchSize + " did not match",
+                        expected, readAllBatched(replayFile.getPipelinedPacketData(PLAY), batchSize));
+            }
+        }
+    }
+
+    @Test
+    public void closeBeforeEnd() throws Exception {
+        File file = createReplay(blockChanges(10000, 1));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            // Stages will be blocked on full queues by the time the stream is closed
+            ReplayInputStream in = replayFile.getPipelinedPacketData(PLAY);
+            PacketData data = in.readPacket();
+            assertNotNull("First packet is missing", data);
+            data.release();
+            Thread.sleep(100);
+            in.close();
+        }
+    }
+
+    @Test
+    public void truncatedFrame() throws Exception {
+        try (ReplayInputStream in = rawFrames(0, 100, 10)) {
+            in.readPacket();
+            fail("Truncated frame was read");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void invalidFrameLength() throws Exception {
+        for (int length : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE - 7}) {
+            try (ReplayInputStream in = rawFrames(0, length, 16)) {
+                in.readPacket();
+                fail("Frame with length " + length + " was read");
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
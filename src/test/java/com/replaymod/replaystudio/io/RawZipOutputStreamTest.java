@@ -0,0 +1,182 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RawZipOutputStreamTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, byte[]> testEntries() {
+        Random random = new Random(0);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("empty", new byte[0]);
+        entries.put("small.json", "{\"key\":\"value\"}".getBytes());
+        byte[] large = new byte[300000];
+        random.nextBytes(large);
+        entries.put("dir/large.bin", large);
+        entries.put("\u00fcn\u00efc\u00f6d\u00e9", new byte[]{1, 2, 3});
+        return entries;
+    }
+
+    private static void writeEntries(RawZipOutputStream out, Map<String, byte[]> entries) throws IOException {
+        for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+            out.putNextEntry(e.getKey(), e.getValue().length);
+            out.write(e.getValue());
+            out.closeEntry();
+        }
+    }
+
+    private static void assertEntries(File file, Map<String, byte[]> expected) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            assertEquals("Number of entries did not match", expected.size(), zipFile.size());
+            for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(e.getKey());
+                assertNotNull("Entry " + e.getKey() + " is missing", entry);
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    assertArrayEquals("Content of " + e.getKey() + " did not match", e.getValue(),
+                            ByteStreams.toByteArray(in));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writeToChannel() throws Exception {
+        File file = folder.newFile();
+        Map<String, byte[]> entries = testEntries();
+        try (RawZipOutputStream out = new RawZipOutputStream(FileChannel.open(file.toPath(), StandardOpenOption.WRITE))) {
+            writeEntries(out, entries);
+        }
+        assertEntries(file, entries);
+    }
+
+    @Test
+    public void writeToOutputStream() throws Exception {
+        Map<String, byte[]> entries = testEntries();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RawZipOutputStream out = new RawZipOutputStream(bytes)) {
+            writeEntries(out, entries);
+        }
+
+        // Entries with data descriptors must be readable by streaming readers
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                ZipEntry entry = in.getNextEntry();
+                assertNotNull("Entry " + e.getKey() + " is missing", entry);
+                assertEquals("Order of entries did not match", e.getKey(), entry.getName());
+                assertArrayEquals("Content of " + e.getKey() + " did not match", e.getValue(),
+                        ByteStreams.toByteArray(in));
+            }
+            assertNull("Unexpected entry", in.getNextEntry());
+        }
+
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes.toByteArray());
+        assertEntries(file, entries);
+    }
+
+    @Test
+    public void copyEntry() throws Exception {
+        Map<String, byte[]> entries = testEntries();
+        // Written to a stream, so the source entries have data descriptors which the copies must not keep
+        File source = folder.newFile();
+        try (RawZipOutputStream out = new RawZipOutputStream(Files.newOutputStream(source.toPath()))) {
+            writeEntries(out, entries);
+        }
+
+        File target = folder.newFile();
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             RawZipOutputStream out = new RawZipOutputStream(FileChannel.open(target.toPath(), StandardOpenOption.WRITE))) {
+            for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(in).getEntries()) {
+                out.copyEntry(in, entry);
+            }
+        }
+        assertEntries(target, entries);
+
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel copy = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+            ZipCentralDirectory sourceDirectory = ZipCentralDirectory.read(in);
+            for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(copy).getEntries()) {
+                ZipCentralDirectory.Entry original = sourceDirectory.getEntry(entry.getName());
+                assertEquals("CRC of copy did not match", original.getCrc(), entry.getCrc());
+                assertEquals("Compressed size of copy did not match", original.getCompressedSize(), entry.getCompressedSize());
+            }
+        }
+    }
+
+    @Test
+    public void append() throws Exception {
+        File file = folder.newFile();
+        Map<String, byte[]> entries = testEntries();
+        try (RawZipOutputStream out = new RawZipOutputStream(FileChannel.open(file.toPath(), StandardOpenOption.WRITE))) {
+            writeEntries(out, entries);
+        }
+
+        // Same procedure as an incremental save: keep all but one entry, replace that one and add a new one
+        long originalLength = file.length();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (RawZipOutputStream out = new RawZipOutputStream(channel)) {
+            ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(channel);
+            assertEquals("Number of entries did not match", entries.size(), centralDirectory.getEntries().size());
+            channel.position(originalLength);
+            for (ZipCentralDirectory.Entry entry : centralDirectory.getEntries()) {
+                if (!entry.getName().equals("small.json")) {
+                    out.keepEntry(entry);
+                }
+            }
+            Map<String, byte[]> changed = new LinkedHashMap<>();
+            changed.put("small.json", "{}".getBytes());
+            changed.put("new", new byte[]{4, 5, 6});
+            writeEntries(out, changed);
+            entries.putAll(changed);
+        }
+        assertEntries(file, entries);
+    }
+}
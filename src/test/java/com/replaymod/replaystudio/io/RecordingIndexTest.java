@@ -0,0 +1,86 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingIndexTest extends ReplayTestsBase {
+    private static final int[] TIMES = {
+            Integer.MIN_VALUE, 0, 1, 4999, 5000, 5001, 5005, 12345, 20000, 49990, 49991, Integer.MAX_VALUE
+    };
+
+    private static List<String> from(List<String> packets, int time) {
+        List<String> result = new ArrayList<>();
+        for (String packet : packets) {
+            if (Long.parseLong(packet.substring(0, packet.indexOf(' '))) >= time) {
+                result.add(packet);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void skipSameAsFullRead() throws Exception {
+        File file = createReplay(blockChanges(5000, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<String> all = readAll(replayFile.getPacketData(PLAY));
+            assertEquals("Number of packets did not match", 5000, all.size());
+            for (int time : TIMES) {
+                assertEquals("Packets from " + time + " did not match",
+                        from(all, time), readAll(replayFile.getPacketData(PLAY, time)));
+            }
+            assertTrue("Index was not cached", replayFile.getCache("recording_index.bin").isPresent());
+        }
+
+        // Same again but with the index read from the cache
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<String> all = readAll(replayFile.getPacketData(PLAY));
+            for (int time : TIMES) {
+                assertEquals("Packets from " + time + " did not match with cached index",
+                        from(all, time), readAll(replayFile.getPacketData(PLAY, time)));
+            }
+        }
+    }
+
+    @Test
+    public void keepsLoginPhase() throws Exception {
+        File file = createReplay(blockChanges(5000, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<String> all = readAll(replayFile.getPacketData(LOGIN));
+            List<String> skipped = readAll(replayFile.getPacketData(LOGIN, 20000));
+            assertEquals("Login phase was not kept", all.get(0), skipped.get(0));
+            assertEquals("Packets did not match", from(all.subList(1, all.size()), 20000), skipped.subList(1, skipped.size()));
+        }
+    }
+}
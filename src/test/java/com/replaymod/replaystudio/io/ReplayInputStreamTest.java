@@ -0,0 +1,62 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplayInputStreamTest extends ReplayTestsBase {
+    @Test
+    public void batchSameAsSingle() throws Exception {
+        File file = createReplay(blockChanges(1000, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<String> expected = readAll(replayFile.getPacketData(PLAY));
+            assertEquals("Number of packets did not match", 1000, expected.size());
+            for (int batchSize : new int[]{1, 7, 64, 5000}) {
+                assertEquals("Batches of " + batchSize + " did not match",
+                        expected, readAllBatched(replayFile.getPacketData(PLAY), batchSize));
+            }
+        }
+    }
+
+    @Test
+    public void emptyBatch() throws Exception {
+        File file = createReplay(blockChanges(10, 10));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file);
+             ReplayInputStream in = replayFile.getPacketData(PLAY)) {
+            assertEquals("Empty batch was not empty", 0, in.readPackets(new PacketData[0]));
+            PacketData data = in.readPacket();
+            assertEquals("Empty batch consumed packets", 0, data.getTime());
+            data.release();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.github.steveice10.netty.buffer.Unpooled;
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.protocol.Packet;
+import com.replaymod.replaystudio.protocol.PacketType;
+import com.replaymod.replaystudio.replay.ReplayMetaData;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ReplayOutputStreamTest extends ReplayTestsBase {
+    /**
+     * Creates block changes with a few packets in between which are too large for the scratch buffer.
+     */
+    private static List<PacketData> packets() throws IOException {
+        Random random = new Random(0);
+        List<PacketData> packets = blockChanges(1000, 10);
+        for (int i = 0; i < 3; i++) {
+            byte[] data = new byte[100000 + i];
+            random.nextBytes(data);
+            long time = 2000 + i * 3000;
+            packets.add((int) (time / 10) + i, new PacketData(time,
+                    new Packet(PLAY, PacketType.PluginMessage, Unpooled.wrappedBuffer(data))));
+        }
+        return packets;
+    }
+
+    private static List<String> read(byte[] bytes) throws IOException {
+        return readAll(new ReplayInputStream(PLAY, new ByteArrayInputStream(bytes),
+                ReplayMetaData.CURRENT_FILE_FORMAT_VERSION, VERSION.getId()));
+    }
+
+    private static void assertReleased(List<PacketData> packets) {
+        for (PacketData data : packets) {
+            assertEquals("Packet at " + data.getTime() + " was not released", 0, data.getPacket().getBuf().refCnt());
+        }
+    }
+
+    @Test
+    public void writeList() throws Exception {
+        List<PacketData> packets = packets();
+        List<String> expected = describe(packets);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ReplayOutputStream out = new ReplayOutputStream(bytes)) {
+            out.write(packets);
+        }
+        assertReleased(packets);
+        assertEquals("Packets did not match", expected, read(bytes.toByteArray()));
+    }
+
+    @Test
+    public void writeListSameAsSingle() throws Exception {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        try (ReplayOutputStream out = new ReplayOutputStream(list)) {
+            out.write(packets());
+        }
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (ReplayOutputStream out = new ReplayOutputStream(single)) {
+            for (PacketData data : packets()) {
+                out.write(data);
+            }
+        }
+        assertArrayEquals("Output did not match", single.toByteArray(), list.toByteArray());
+    }
+
+    @Test
+    public void failedWriteReleasesPackets() throws Exception {
+        for (int limit : new int[]{0, 1000, 70000, 150000}) {
+            List<PacketData> packets = packets();
+            OutputStream failing = new OutputStream() {
+                private int written;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    written += len;
+                    if (written > limit) {
+                        throw new IOException("Test");
+                    }
+                }
+            };
+            try (ReplayOutputStream out = new ReplayOutputStream(failing)) {
+                out.write(packets);
+                fail("Write did not fail with a limit of " + limit);
+            } catch (IOException expected) {
+            }
+            assertReleased(packets);
+        }
+    }
+}
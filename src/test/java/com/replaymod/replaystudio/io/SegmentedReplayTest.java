@@ -0,0 +1,122 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.io;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.data.RecordingSegment;
+import com.replaymod.replaystudio.replay.ReplayMetaData;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedReplayTest extends ReplayTestsBase {
+    private File createSegmentedReplay(List<PacketData> packets, int segmentDuration) throws IOException {
+        File file = new File(folder.newFolder(), "segmented.mcpr");
+        try (ReplayOutputStream out = new ReplayOutputStream(VERSION, new FileOutputStream(file), null, segmentDuration)) {
+            out.write(packets);
+        }
+        return file;
+    }
+
+    private static byte[] readRaw(ZipReplayFile replayFile) throws IOException {
+        try (InputStream in = replayFile.getRawPacketData().get()) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void sameAsUnsegmented() throws Exception {
+        File segmented = createSegmentedReplay(blockChanges(5000, 10), 10000);
+        File unsegmented = createReplay(blockChanges(5000, 10));
+        try (ZipReplayFile segmentedFile = new ZipReplayFile(studio, segmented);
+             ZipReplayFile unsegmentedFile = new ZipReplayFile(studio, unsegmented)) {
+            assertEquals("Wrong file format version", ReplayMetaData.SEGMENTED_FILE_FORMAT_VERSION,
+                    segmentedFile.getMetaData().getFileFormatVersion());
+            assertNull("Unsegmented replay has segments", unsegmentedFile.getRecordingSegments());
+            assertArrayEquals("Raw packet data did not match", readRaw(unsegmentedFile), readRaw(segmentedFile));
+            List<String> packets = readAll(segmentedFile.getPacketData(PLAY));
+            assertEquals("Packets did not match", readAll(unsegmentedFile.getPacketData(PLAY)), packets);
+            assertEquals("Number of packets did not match", 5000, packets.size());
+        }
+    }
+
+    @Test
+    public void segmentTable() throws Exception {
+        File file = createSegmentedReplay(blockChanges(5000, 10), 10000);
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<RecordingSegment> segments = replayFile.getRecordingSegments();
+            assertNotNull("Segments are missing", segments);
+            // Login phase, followed by five segments of 10 seconds each
+            assertEquals("Wrong number of segments: " + segments, 6, segments.size());
+            assertEquals("Login phase is not in its own segment", 0, segments.get(0).getEndTime());
+            long size = 0;
+            for (int i = 1; i < segments.size(); i++) {
+                RecordingSegment segment = segments.get(i);
+                assertEquals("Wrong start of " + segment, (i - 1) * 10000, segment.getStartTime());
+                assertEquals("Wrong end of " + segment, i * 10000 - 10, segment.getEndTime());
+            }
+            for (RecordingSegment segment : segments) {
+                Optional<InputStream> in = replayFile.get(segment.getName());
+                assertTrue("Entry of " + segment + " is missing", in.isPresent());
+                in.get().close();
+                size += segment.getSize();
+            }
+            assertEquals("Segment sizes did not match the packet data", readRaw(replayFile).length, size);
+        }
+    }
+
+    @Test
+    public void skipSegments() throws Exception {
+        File file = createSegmentedReplay(blockChanges(5000, 10), 10000);
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            List<String> all = readAll(replayFile.getPacketData(PLAY));
+            for (int time : new int[]{0, 1, 9990, 10000, 10001, 25000, 49990, 50000}) {
+                List<String> expected = new ArrayList<>();
+                for (String packet : all) {
+                    if (Long.parseLong(packet.substring(0, packet.indexOf(' '))) >= time) {
+                        expected.add(packet);
+                    }
+                }
+                assertEquals("Packets from " + time + " did not match",
+                        expected, readAll(replayFile.getPacketData(PLAY, time)));
+            }
+        }
+    }
+}
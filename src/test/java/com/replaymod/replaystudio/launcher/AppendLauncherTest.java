@@ -0,0 +1,57 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AppendLauncherTest extends ReplayTestsBase {
+    @Test
+    public void append() throws Exception {
+        File first = createReplay(blockChanges(100, 10));
+        File second = createReplay(blockChanges(200, 5));
+        File output = new File(folder.newFolder(), "output.mcpr");
+        Launcher.run(new String[]{"-a", first.getPath(), second.getPath(), output.getPath()});
+
+        List<String> expected;
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, first)) {
+            // Including the login phase, which must only be kept for the first replay
+            expected = new ArrayList<>(readAll(replayFile.getPacketData(LOGIN)));
+        }
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, second)) {
+            expected.addAll(between(readAll(replayFile.getPacketData(PLAY)), 0, Long.MAX_VALUE, 990));
+        }
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, output)) {
+            assertEquals("Packets did not match", expected, readAll(replayFile.getPacketData(LOGIN)));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ReplayFile;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayFileCacheTest extends ReplayTestsBase {
+    private ReplayFile open(ReplayFileCache cache, File file) throws Exception {
+        try (ReplayFileCache.Handle handle = cache.acquire(file)) {
+            return handle.getReplayFile();
+        }
+    }
+
+    @Test
+    public void reusesOpenReplay() throws Exception {
+        File file = createReplay(blockChanges(10, 10));
+        try (ReplayFileCache cache = new ReplayFileCache(studio, 4, Long.MAX_VALUE)) {
+            ReplayFile first = open(cache, file);
+            try (ReplayFileCache.Handle handle = cache.acquire(file);
+                 ReplayFileCache.Handle other = cache.acquire(file)) {
+                assertSame("Cached replay was not reused", first, handle.getReplayFile());
+                assertSame("Cached meta data was not reused", handle.getMetaData(), other.getMetaData());
+                assertFalse("Cached replay could not be read", readAll(handle.getReplayFile().getPacketData(PLAY)).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        File a = createReplay(blockChanges(10, 10));
+        File b = createReplay(blockChanges(10, 10));
+        try (ReplayFileCache cache = new ReplayFileCache(studio, 1, Long.MAX_VALUE)) {
+            ReplayFile first = open(cache, a);
+            ReplayFile second = open(cache, b);
+            assertSame("Most recently used replay was evicted", second, open(cache, b));
+            assertNotSame("Least recently used replay was not evicted", first, open(cache, a));
+        }
+    }
+
+    @Test
+    public void replayInUseIsNotEvicted() throws Exception {
+        File a = createReplay(blockChanges(10, 10));
+        File b = createReplay(blockChanges(10, 10));
+        try (ReplayFileCache cache = new ReplayFileCache(studio, 0, 0)) {
+            try (ReplayFileCache.Handle handle = cache.acquire(a)) {
+                open(cache, b);
+                cache.evictIdle();
+                assertSame("Replay in use was evicted", handle.getReplayFile(), open(cache, a));
+                assertFalse("Replay in use was closed", readAll(handle.getReplayFile().getPacketData(PLAY)).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void evictsIdleReplays() throws Exception {
+        File file = createReplay(blockChanges(10, 10));
+        try (ReplayFileCache cache = new ReplayFileCache(studio, 4, 500)) {
+            ReplayFile first = open(cache, file);
+            cache.evictIdle();
+            assertSame("Recently used replay was evicted", first, open(cache, file));
+            Thread.sleep(600);
+            cache.evictIdle();
+            assertNotSame("Idle replay was not evicted", first, open(cache, file));
+        }
+    }
+
+    @Test
+    public void modifiedReplayIsReopened() throws Exception {
+        File file = createReplay(blockChanges(10, 10));
+        try (ReplayFileCache cache = new ReplayFileCache(studio, 4, Long.MAX_VALUE)) {
+            ReplayFile first = open(cache, file);
+            assertTrue("Could not modify replay", file.setLastModified(file.lastModified() - 10000));
+            assertNotSame("Modified replay was not reopened", first, open(cache, file));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SplitLauncherTest extends ReplayTestsBase {
+    /**
+     * Returns the descriptions of the state of the given replay at the start of a part beginning at the given time.
+     */
+    private List<String> stateBefore(ZipReplayFile replayFile, int time) throws Exception {
+        List<PacketData> state = replayFile.getStateAt(PLAY, time - 1);
+        List<String> result = between(describe(state), time - 1, time, 1 - time);
+        state.forEach(PacketData::release);
+        assertFalse("State is empty", result.isEmpty());
+        return result;
+    }
+
+    private List<String> read(File file) throws Exception {
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            return readAll(replayFile.getPacketData(PLAY));
+        }
+    }
+
+    @Test
+    public void split() throws Exception {
+        File input = createReplay(blockChanges(3000, 10));
+        File folder = input.getParentFile();
+        File first = new File(folder, "first.mcpr");
+        File second = new File(folder, "second.mcpr");
+        File third = new File(folder, "third.mcpr");
+        Launcher.run(new String[]{"-p", "10000:20000", input.getPath(), first.getPath(), second.getPath(), third.getPath()});
+
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, input)) {
+            List<String> all = readAll(replayFile.getPacketData(PLAY));
+            assertEquals("First part did not match", between(all, 0, 10000, 0), read(first));
+
+            List<String> expected = new ArrayList<>(stateBefore(replayFile, 10000));
+            expected.addAll(between(all, 10000, 20000, -10000));
+            assertEquals("Second part did not match", expected, read(second));
+
+            expected = new ArrayList<>(stateBefore(replayFile, 20000));
+            expected.addAll(between(all, 20000, Long.MAX_VALUE, -20000));
+            assertEquals("Third part did not match", expected, read(third));
+        }
+    }
+
+    @Test
+    public void discardedAndEmptyParts() throws Exception {
+        File input = createReplay(blockChanges(3000, 10));
+        File folder = input.getParentFile();
+        File second = new File(folder, "second.mcpr");
+        File third = new File(folder, "third.mcpr");
+        Launcher.run(new String[]{"-p", "10000:40000", input.getPath(), "x", second.getPath(), third.getPath()});
+
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, input)) {
+            List<String> all = readAll(replayFile.getPacketData(PLAY));
+            List<String> expected = new ArrayList<>(stateBefore(replayFile, 10000));
+            expected.addAll(between(all, 10000, 40000, -10000));
+            assertEquals("Second part did not match", expected, read(second));
+
+            // Starts after the end of the replay, so it only contains the final state
+            assertEquals("Third part did not match", stateBefore(replayFile, 40000), read(third));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.launcher;
+
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class StreamLauncherTest extends ReplayTestsBase {
+    private File createInputs(int count) throws Exception {
+        File inputs = folder.newFolder();
+        for (int i = 0; i < count; i++) {
+            File replay = createReplay(blockChanges(200 * (i + 1), 10));
+            Files.copy(replay.toPath(), new File(inputs, "replay" + i + ".mcpr").toPath());
+        }
+        return inputs;
+    }
+
+    private List<String> read(File file) throws Exception {
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            return readAll(replayFile.getPacketData(PLAY));
+        }
+    }
+
+    @Test
+    public void batchSameAsSingle() throws Exception {
+        File inputs = createInputs(3);
+        File outputs = folder.newFolder();
+        Launcher.run(new String[]{"-s", "squash", "-b", "2", inputs.getPath(), outputs.getPath() + "/{name}.mcpr"});
+
+        for (int i = 0; i < 3; i++) {
+            String name = "replay" + i + ".mcpr";
+            File single = new File(folder.newFolder(), name);
+            Launcher.run(new String[]{"-s", "squash", new File(inputs, name).getPath(), single.getPath()});
+            assertEquals("Batch output of " + name + " did not match", read(single), read(new File(outputs, name)));
+        }
+    }
+
+    @Test
+    public void batchRequiresNameInOutput() throws Exception {
+        File inputs = createInputs(2);
+        try {
+            Launcher.run(new String[]{"-s", "squash", "-b", "2", inputs.getPath(), folder.getRoot() + "/out.mcpr"});
+            fail("Output template without {name} was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void abortedBatchPropagates() throws Exception {
+        File inputs = createInputs(3);
+        File outputs = folder.newFolder();
+        try {
+            Launcher.run(new String[]{"-s", "squash", "-b", "1", inputs.getPath(), outputs.getPath() + "/{name}.mcpr"},
+                    progress -> { throw new CancellationException(); }, null);
+            fail("Batch was not aborted");
+        } catch (CancellationException expected) {
+        }
+    }
+}
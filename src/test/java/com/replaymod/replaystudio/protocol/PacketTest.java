@@ -0,0 +1,118 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.protocol;
+
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PacketTest {
+    private static final PacketTypeRegistry REGISTRY = PacketTypeRegistry.get(ProtocolVersion.v1_12_2, State.PLAY);
+
+    private final AtomicInteger decodeCount = new AtomicInteger();
+    private final DecodedField<Integer> field = new DecodedField<>(packet -> {
+        decodeCount.incrementAndGet();
+        try (Packet.Reader in = packet.reader()) {
+            return in.readVarInt();
+        }
+    });
+
+    private static Packet packet(int value) throws IOException {
+        Packet packet = new Packet(REGISTRY, PacketType.KeepAlive);
+        try (Packet.Writer out = packet.overwrite()) {
+            out.writeVarInt(value);
+        }
+        return packet;
+    }
+
+    @Test
+    public void decodedOnce() throws Exception {
+        Packet packet = packet(42);
+        assertEquals("Wrong value", 42, (int) packet.decode(field));
+        assertEquals("Wrong cached value", 42, (int) packet.decode(field));
+        assertEquals("Value was decoded repeatedly", 1, decodeCount.get());
+        assertEquals("Content was consumed by decoding", 42, (int) packet(42).decode(field));
+        packet.release();
+    }
+
+    @Test
+    public void nullNotCached() throws Exception {
+        DecodedField<Integer> nullField = new DecodedField<>(packet -> {
+            decodeCount.incrementAndGet();
+            return null;
+        });
+        Packet packet = packet(42);
+        assertNull("Wrong value", packet.decode(nullField));
+        assertNull("Wrong value", packet.decode(nullField));
+        assertEquals("Null value was cached", 2, decodeCount.get());
+        packet.release();
+    }
+
+    @Test
+    public void copySharesValues() throws Exception {
+        Packet packet = packet(42);
+        Packet copy = packet.copy();
+        assertEquals("Wrong value", 42, (int) packet.decode(field));
+        assertEquals("Wrong value of copy", 42, (int) copy.decode(field));
+        assertEquals("Value was decoded again for copy", 1, decodeCount.get());
+        copy.release();
+        packet.release();
+    }
+
+    @Test
+    public void overwriteInvalidates() throws Exception {
+        Packet packet = packet(42);
+        Packet copy = packet.copy();
+        assertEquals("Wrong value", 42, (int) packet.decode(field));
+        try (Packet.Writer out = packet.overwrite()) {
+            out.writeVarInt(7);
+        }
+        assertEquals("Value of old content was returned", 7, (int) packet.decode(field));
+        assertEquals("Value of old content was returned for copy", 7, (int) copy.decode(field));
+        assertEquals("Value was not decoded again", 2, decodeCount.get());
+        copy.release();
+        packet.release();
+    }
+
+    @Test
+    public void decodedWhileOverwritingNotCached() throws Exception {
+        DecodedField<Integer> length = new DecodedField<>(packet -> packet.getBuf().readableBytes());
+        Packet packet = packet(42);
+        assertEquals("Wrong length", 1, (int) packet.decode(length));
+        try (Packet.Writer out = packet.overwrite()) {
+            out.writeVarInt(1);
+            assertEquals("Wrong length of partial content", 1, (int) packet.decode(length));
+            out.writeVarInt(2);
+        }
+        assertEquals("Length of partial content was returned", 2, (int) packet.decode(length));
+        packet.release();
+    }
+}
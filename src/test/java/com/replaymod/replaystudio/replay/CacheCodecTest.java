@@ -0,0 +1,114 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.replay;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheCodecTest {
+    private static byte[] testData() {
+        // Half random, half repetitive so compressing codecs actually have something to do
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        for (int i = data.length / 2; i < data.length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+        return data;
+    }
+
+    private static byte[] write(CacheCodec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (OutputStream out = codec.wrap(raw)) {
+            // Mix of single byte and bulk writes, as written by the cache writers
+            out.write(data[0]);
+            out.write(data, 1, data.length - 1);
+        }
+        return raw.toByteArray();
+    }
+
+    private static byte[] read(byte[] raw) throws IOException {
+        try (InputStream in = CacheCodec.unwrap(new ByteArrayInputStream(raw))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] data = testData();
+        for (CacheCodec codec : CacheCodec.values()) {
+            assertArrayEquals("Data written with " + codec + " did not match", data, read(write(codec, data)));
+        }
+    }
+
+    @Test
+    public void roundTripEmpty() throws Exception {
+        for (CacheCodec codec : CacheCodec.values()) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            codec.wrap(raw).close();
+            assertArrayEquals("Empty entry written with " + codec + " did not match", new byte[0],
+                    read(raw.toByteArray()));
+        }
+    }
+
+    @Test
+    public void readLegacyGzip() throws Exception {
+        byte[] data = testData();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(raw)) {
+            out.write(data);
+        }
+        assertArrayEquals("Entry written before codecs did not match", data, read(raw.toByteArray()));
+    }
+
+    @Test
+    public void unknownCodec() throws Exception {
+        boolean[] closed = new boolean[1];
+        InputStream raw = new ByteArrayInputStream(new byte[]{'R', 'S', 'C', 42, 0, 0}) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        try {
+            CacheCodec.unwrap(raw);
+            fail("Unknown codec was accepted");
+        } catch (IOException expected) {
+        }
+        assertTrue("Input stream was not closed", closed[0]);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.replay;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StateAtTest extends ReplayTestsBase {
+    private static final String CHECKPOINT = "squash_" + VERSION.getId() + "_%d.tmcpr";
+
+    private static List<String> stateAt(ReplayFile replayFile, int time) throws Exception {
+        List<PacketData> state = replayFile.getStateAt(PLAY, time);
+        List<String> result = describe(state);
+        state.forEach(PacketData::release);
+        assertFalse("State is empty", result.isEmpty());
+        return result;
+    }
+
+    private static boolean hasCheckpoint(ReplayFile replayFile, int time) throws Exception {
+        return replayFile.getCache(String.format(CHECKPOINT, time)).isPresent();
+    }
+
+    /**
+     * Returns the state at the given time computed from a fresh copy of the replay, i.e. without any checkpoints.
+     */
+    private List<String> fullSquash(int time) throws Exception {
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, createReplay(blockChanges(2000, 500)))) {
+            return stateAt(replayFile, time);
+        }
+    }
+
+    @Test
+    public void checkpointSameAsFullSquash() throws Exception {
+        // Block changes every 500ms for a bit over 16 minutes, i.e. past three checkpoints
+        File file = createReplay(blockChanges(2000, 500));
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            assertEquals("State without checkpoints did not match", fullSquash(700000), stateAt(replayFile, 700000));
+            assertTrue("First checkpoint was not stored", hasCheckpoint(replayFile, 300000));
+            assertTrue("Second checkpoint was not stored", hasCheckpoint(replayFile, 600000));
+            assertFalse("Checkpoint after requested time was stored", hasCheckpoint(replayFile, 900000));
+
+            assertEquals("State from checkpoint did not match", fullSquash(700000), stateAt(replayFile, 700000));
+            assertEquals("State at checkpoint did not match", fullSquash(600000), stateAt(replayFile, 600000));
+            assertEquals("State before checkpoint did not match", fullSquash(599999), stateAt(replayFile, 599999));
+        }
+
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            assertTrue("Checkpoint was not kept", hasCheckpoint(replayFile, 600000));
+            assertEquals("Late state did not match", fullSquash(950000), stateAt(replayFile, 950000));
+            assertTrue("Third checkpoint was not stored", hasCheckpoint(replayFile, 900000));
+        }
+    }
+
+    @Test
+    public void modifiedPacketDataIsNotCheckpointed() throws Exception {
+        File file = createReplay(blockChanges(2000, 500));
+        List<String> expected;
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, file)) {
+            expected = stateAt(replayFile, 700000);
+        }
+
+        try (ZipReplayFile replayFile = new ZipReplayFile(studio, createReplay(blockChanges(10, 10)))) {
+            // Same packet data as above but not yet saved, so there is no hash to validate checkpoints against
+            writeReplay(replayFile, blockChanges(2000, 500));
+            assertEquals("State did not match", expected, stateAt(replayFile, 700000));
+            assertFalse("Checkpoint of modified packet data was stored", hasCheckpoint(replayFile, 300000));
+        }
+    }
+}
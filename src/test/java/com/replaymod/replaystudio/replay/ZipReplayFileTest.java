@@ -0,0 +1,232 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.replay;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.replaymod.replaystudio.io.ZipCentralDirectory;
+import com.replaymod.replaystudio.studio.ReplayStudio;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipReplayFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(ReplayFile replayFile, String entry, String content) throws IOException {
+        try (OutputStream out = replayFile.write(entry)) {
+            out.write(content.getBytes(Charsets.UTF_8));
+        }
+    }
+
+    private static String read(ReplayFile replayFile, String entry) throws IOException {
+        Optional<InputStream> in = replayFile.get(entry);
+        if (!in.isPresent()) {
+            return null;
+        }
+        try (InputStream it = in.get()) {
+            return new String(ByteStreams.toByteArray(it), Charsets.UTF_8);
+        }
+    }
+
+    private static String readZip(File file, String entry) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            if (zipFile.getEntry(entry) == null) {
+                return null;
+            }
+            try (InputStream in = zipFile.getInputStream(zipFile.getEntry(entry))) {
+                return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+            }
+        }
+    }
+
+    private File createReplay() throws IOException {
+        File file = new File(folder.newFolder(), "test.mcpr");
+        try (ZipReplayFile replayFile = new ZipReplayFile(new ReplayStudio(), file)) {
+            write(replayFile, "a", "first");
+            write(replayFile, "b", "second");
+            replayFile.save();
+        }
+        return file;
+    }
+
+    private static void saveIncrementally(File file) throws IOException {
+        try (ZipReplayFile replayFile = new ZipReplayFile(new ReplayStudio(), file)) {
+            replayFile.setIncrementalSave(true);
+            replayFile.remove("a");
+            write(replayFile, "b", "changed");
+            write(replayFile, "c", "third");
+            replayFile.save();
+
+            assertEquals("Removed entry still readable after save", null, read(replayFile, "a"));
+            assertEquals("Changed entry did not match after save", "changed", read(replayFile, "b"));
+            assertEquals("New entry did not match after save", "third", read(replayFile, "c"));
+        }
+    }
+
+    private static void assertIncrementallySaved(File file) throws IOException {
+        assertEquals("Removed entry was kept", null, readZip(file, "a"));
+        assertEquals("Changed entry did not match", "changed", readZip(file, "b"));
+        assertEquals("New entry did not match", "third", readZip(file, "c"));
+    }
+
+    private static File appendMarker(File file) {
+        return new File(new File(file.getParentFile(), file.getName() + ".tmp"), "append");
+    }
+
+    @Test
+    public void incrementalSave() throws Exception {
+        File file = createReplay();
+        byte[] original = Files.readAllBytes(file.toPath());
+        int entriesEnd;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            entriesEnd = (int) ZipCentralDirectory.read(channel).getOffset();
+        }
+
+        saveIncrementally(file);
+
+        byte[] saved = Files.readAllBytes(file.toPath());
+        assertTrue("File did not grow", saved.length > original.length);
+        assertArrayEquals("Existing entries were rewritten", Arrays.copyOf(original, entriesEnd),
+                Arrays.copyOf(saved, entriesEnd));
+        assertIncrementallySaved(file);
+        try (ZipReplayFile replayFile = new ZipReplayFile(new ReplayStudio(), file)) {
+            assertEquals("Changed entry did not match after reopening", "changed", read(replayFile, "b"));
+        }
+        assertFalse("Append marker was not removed", appendMarker(file).exists());
+    }
+
+    @Test
+    public void recoverFromFailedSave() throws Exception {
+        File file = createReplay();
+        byte[] original = Files.readAllBytes(file.toPath());
+
+        try (ZipReplayFile replayFile = new ZipReplayFile(new ReplayStudio(), file)) {
+            replayFile.setIncrementalSave(true);
+            write(replayFile, "b", "changed");
+            write(replayFile, "c", "third");
+            // Make the save fail after it has started appending
+            File changed = new File(new File(new File(file.getParentFile(), file.getName() + ".tmp"), "changed"), "c");
+            assertTrue("Changed entry was not found", changed.delete());
+            try {
+                replayFile.save();
+                fail("Save did not fail");
+            } catch (IOException expected) {
+            }
+
+            assertArrayEquals("Failed save was not rolled back", original, Files.readAllBytes(file.toPath()));
+            assertFalse("Append marker was not removed", appendMarker(file).exists());
+            assertEquals("Unchanged entry did not match after failed save", "first", read(replayFile, "a"));
+
+            // The replay file must remain usable
+            write(replayFile, "c", "third");
+            replayFile.save();
+            assertEquals("Changed entry did not match after save", "changed", read(replayFile, "b"));
+        }
+        assertEquals("Unchanged entry did not match", "first", readZip(file, "a"));
+        assertEquals("Changed entry did not match", "changed", readZip(file, "b"));
+        assertEquals("New entry did not match", "third", readZip(file, "c"));
+    }
+
+    @Test
+    public void compact() throws Exception {
+        File file = createReplay();
+        saveIncrementally(file);
+        long incrementalLength = file.length();
+
+        try (ZipReplayFile replayFile = new ZipReplayFile(new ReplayStudio(), file)) {
+            replayFile.compact();
+        }
+        assertTrue("Unused space was not reclaimed", file.length() < incrementalLength);
+        assertIncrementallySaved(file);
+    }
+
+    @Test
+    public void rollBackUncommittedSave() throws Exception {
+        File file = createReplay();
+        byte[] original = Files.readAllBytes(file.toPath());
+
+        // Crash half way through appending
+        Files.write(file.toPath(), new byte[1000], StandardOpenOption.APPEND);
+        File marker = appendMarker(file);
+        marker.getParentFile().mkdirs();
+        Files.write(marker.toPath(), (original.length + "\n-1").getBytes(Charsets.UTF_8));
+
+        new ZipReplayFile(new ReplayStudio(), file).close();
+        assertArrayEquals("Incomplete save was not rolled back", original, Files.readAllBytes(file.toPath()));
+        assertEquals("Entry did not match after roll back", "first", readZip(file, "a"));
+        assertFalse("Append marker was not removed", marker.exists());
+    }
+
+    @Test
+    public void rollBackLegacyMarker() throws Exception {
+        File file = createReplay();
+        byte[] original = Files.readAllBytes(file.toPath());
+
+        Files.write(file.toPath(), new byte[1000], StandardOpenOption.APPEND);
+        File marker = appendMarker(file);
+        marker.getParentFile().mkdirs();
+        Files.write(marker.toPath(), String.valueOf(original.length).getBytes(Charsets.UTF_8));
+
+        new ZipReplayFile(new ReplayStudio(), file).close();
+        assertArrayEquals("Incomplete save was not rolled back", original, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void keepCommittedSave() throws Exception {
+        File file = createReplay();
+        long originalLength = file.length();
+        saveIncrementally(file);
+        byte[] saved = Files.readAllBytes(file.toPath());
+
+        // Crash after the new central directory was written but before the marker was removed
+        File marker = appendMarker(file);
+        marker.getParentFile().mkdirs();
+        Files.write(marker.toPath(), (originalLength + "\n" + saved.length).getBytes(Charsets.UTF_8));
+
+        new ZipReplayFile(new ReplayStudio(), file).close();
+        assertArrayEquals("Committed save was rolled back", saved, Files.readAllBytes(file.toPath()));
+        assertIncrementallySaved(file);
+        assertFalse("Append marker was not removed", marker.exists());
+    }
+}
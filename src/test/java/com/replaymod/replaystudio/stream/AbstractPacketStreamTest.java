@@ -0,0 +1,307 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.stream;
+
+import com.google.gson.JsonObject;
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.filter.StreamFilter;
+import com.replaymod.replaystudio.protocol.Packet;
+import com.replaymod.replaystudio.protocol.PacketType;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractPacketStreamTest {
+    private static final PacketTypeRegistry REGISTRY = PacketTypeRegistry.get(ProtocolVersion.v1_12_2, State.PLAY);
+
+    private final Queue<PacketData> input = new ArrayDeque<>();
+    private final AbstractPacketStream stream = AbstractPacketStream.of(input::poll);
+
+    private static PacketData packet(long time, PacketType type) {
+        return new PacketData(time, new Packet(REGISTRY, type));
+    }
+
+    private List<PacketData> input(long... times) {
+        List<PacketData> packets = new ArrayList<>();
+        for (long time : times) {
+            PacketData data = packet(time, time % 2 == 0 ? PacketType.KeepAlive : PacketType.Chat);
+            packets.add(data);
+            input.add(data);
+        }
+        return packets;
+    }
+
+    private List<PacketData> readAll() throws IOException {
+        List<PacketData> result = new ArrayList<>();
+        PacketData data;
+        while ((data = stream.next()) != null) {
+            result.add(data);
+        }
+        result.addAll(stream.end());
+        return result;
+    }
+
+    private List<PacketData> readAllBatched() throws IOException {
+        List<PacketData> result = new ArrayList<>();
+        PacketData[] batch = new PacketData[64];
+        int read;
+        while ((read = stream.next(batch)) != -1) {
+            result.addAll(Arrays.asList(batch).subList(0, read));
+        }
+        result.addAll(stream.end());
+        return result;
+    }
+
+    private static List<Long> times(List<PacketData> packets) {
+        List<Long> times = new ArrayList<>();
+        for (PacketData data : packets) {
+            times.add(data.getTime());
+        }
+        return times;
+    }
+
+    private static class TestFilter implements StreamFilter {
+        final List<Long> seen = new ArrayList<>();
+        final List<Integer> batches = new ArrayList<>();
+        final List<Long> ends = new ArrayList<>();
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void init(Studio studio, JsonObject config) {
+        }
+
+        @Override
+        public void onStart(PacketStream stream) {
+        }
+
+        @Override
+        public boolean onPacket(PacketStream stream, PacketData data) throws IOException {
+            seen.add(data.getTime());
+            return true;
+        }
+
+        @Override
+        public void onEnd(PacketStream stream, long timestamp) {
+            ends.add(timestamp);
+        }
+    }
+
+    @Test
+    public void passThrough() throws Exception {
+        List<PacketData> packets = input(1, 2, 3);
+        TestFilter filter = new TestFilter();
+        stream.addFilter(filter);
+        stream.start();
+
+        assertEquals("Packets did not match", packets, readAll());
+        assertEquals("Filter did not see all packets", Arrays.asList(1L, 2L, 3L), filter.seen);
+        assertEquals("Filter was not ended once", Arrays.asList(3L), filter.ends);
+    }
+
+    @Test
+    public void removeReleasesPacket() throws Exception {
+        List<PacketData> packets = input(1, 2, 3, 4);
+        stream.addFilter(new TestFilter() {
+            @Override
+            public boolean onPacket(PacketStream stream, PacketData data) {
+                return data.getTime() % 2 == 0;
+            }
+        });
+        stream.start();
+
+        assertEquals("Wrong packets removed", Arrays.asList(2L, 4L), times(readAll()));
+        assertEquals("Removed packet was not released", 0, packets.get(0).getPacket().getBuf().refCnt());
+        assertEquals("Kept packet was released", 1, packets.get(1).getPacket().getBuf().refCnt());
+    }
+
+    @Test
+    public void insertedPacketsFollowCurrentPacket() throws Exception {
+        input(10, 20);
+        TestFilter later = new TestFilter();
+        stream.addFilter(new TestFilter() {
+            @Override
+            public boolean onPacket(PacketStream stream, PacketData data) {
+                stream.insert(packet(data.getTime() + 1, PacketType.KeepAlive));
+                return true;
+            }
+
+            @Override
+            public void onEnd(PacketStream stream, long timestamp) {
+                stream.insert(packet(timestamp + 100, PacketType.KeepAlive));
+            }
+        });
+        stream.addFilter(later);
+        stream.start();
+
+        assertEquals("Inserted packets in wrong place", Arrays.asList(10L, 11L, 20L, 21L, 121L), times(readAll()));
+        assertEquals("Later stage did not see inserted packets", Arrays.asList(10L, 11L, 20L, 21L, 121L), later.seen);
+    }
+
+    @Test
+    public void onlySubscribedPacketTypes() throws Exception {
+        input(1, 2, 3, 4);
+        TestFilter filter = new TestFilter() {
+            @Override
+            public EnumSet<PacketType> getPacketTypes() {
+                return EnumSet.of(PacketType.KeepAlive);
+            }
+
+            @Override
+            public boolean onPacket(PacketStream stream, PacketData data) throws IOException {
+                super.onPacket(stream, data);
+                return false;
+            }
+        };
+        stream.addFilter(filter);
+        stream.start();
+
+        assertEquals("Unsubscribed packets did not pass", Arrays.asList(1L, 3L), times(readAll()));
+        assertEquals("Filter saw unsubscribed packets", Arrays.asList(2L, 4L), filter.seen);
+    }
+
+    @Test
+    public void timeFrame() throws Exception {
+        input(5, 10, 15, 20, 25);
+        TestFilter filter = new TestFilter() {
+            @Override
+            public void onEnd(PacketStream stream, long timestamp) {
+                super.onEnd(stream, timestamp);
+                stream.insert(packet(timestamp, PacketType.KeepAlive));
+            }
+        };
+        stream.addFilter(filter, 10, 20);
+        stream.start();
+
+        assertEquals("Filter ended in wrong place", Arrays.asList(5L, 10L, 15L, 20L, 20L, 25L), times(readAll()));
+        assertEquals("Filter saw packets outside its time frame", Arrays.asList(10L, 15L, 20L), filter.seen);
+        assertEquals("Filter was not ended once", Arrays.asList(20L), filter.ends);
+    }
+
+    @Test
+    public void removeFilter() throws Exception {
+        input(1, 2, 3);
+        TestFilter filter = new TestFilter() {
+            @Override
+            public boolean onPacket(PacketStream stream, PacketData data) throws IOException {
+                super.onPacket(stream, data);
+                stream.removeFilter(this);
+                return true;
+            }
+        };
+        stream.addFilter(filter);
+        stream.start();
+
+        assertEquals("Packets did not match", Arrays.asList(1L, 2L, 3L), times(readAll()));
+        assertEquals("Removed filter still saw packets", Arrays.asList(1L), filter.seen);
+        assertTrue("Removed filter was ended", filter.ends.isEmpty());
+    }
+
+    @Test
+    public void batchDelivery() throws Exception {
+        List<PacketData> packets = input(1, 2, 3, 4, 5);
+        TestFilter filter = new TestFilter() {
+            @Override
+            public int onPackets(PacketStream stream, PacketData[] packets, int length) {
+                batches.add(length);
+                int kept = 0;
+                for (int i = 0; i < length; i++) {
+                    if (packets[i].getTime() % 2 == 1) {
+                        packets[kept++] = packets[i];
+                    }
+                }
+                stream.insert(packet(100, PacketType.KeepAlive));
+                return kept;
+            }
+        };
+        TestFilter later = new TestFilter();
+        stream.addFilter(filter);
+        stream.addFilter(later);
+        stream.start();
+
+        assertEquals("Packets did not match", Arrays.asList(1L, 3L, 5L, 100L), times(readAllBatched()));
+        assertEquals("Packets were not delivered as a single batch", Arrays.asList(5), filter.batches);
+        assertTrue("Batch filter was passed single packets", filter.seen.isEmpty());
+        assertEquals("Later stage did not see batch results", Arrays.asList(1L, 3L, 5L, 100L), later.seen);
+        assertEquals("Removed packet was not released", 0, packets.get(1).getPacket().getBuf().refCnt());
+        assertEquals("Kept packet was released", 1, packets.get(2).getPacket().getBuf().refCnt());
+    }
+
+    @Test
+    public void batchFallsBackToSinglePackets() throws Exception {
+        input(1, 2, 3);
+        TestFilter filter = new TestFilter();
+        stream.addFilter(filter);
+        stream.start();
+
+        assertEquals("Packets did not match", Arrays.asList(1L, 2L, 3L), times(readAllBatched()));
+        assertEquals("Filter did not see all packets", Arrays.asList(1L, 2L, 3L), filter.seen);
+    }
+
+    @Test
+    public void batchAcrossTimeFrameIsSplit() throws Exception {
+        input(5, 10, 15, 20, 25);
+        TestFilter filter = new TestFilter() {
+            @Override
+            public int onPackets(PacketStream stream, PacketData[] packets, int length) {
+                batches.add(length);
+                return length;
+            }
+        };
+        stream.addFilter(filter, 10, 20);
+        stream.start();
+
+        assertEquals("Packets did not match", Arrays.asList(5L, 10L, 15L, 20L, 25L), times(readAllBatched()));
+        assertTrue("Batch exceeding the time frame was passed to the filter", filter.batches.isEmpty());
+        assertEquals("Filter saw packets outside its time frame", Arrays.asList(10L, 15L, 20L), filter.seen);
+    }
+
+    @Test
+    public void closeReleasesQueuedPackets() throws Exception {
+        PacketData inserted = packet(1, PacketType.KeepAlive);
+        stream.insert(inserted);
+        stream.close();
+        assertEquals("Inserted packet was not released", 0, inserted.getPacket().getBuf().refCnt());
+        stream.close(); // Must not fail or release again
+        assertNull("Closed stream returned packets", stream.next());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.stream;
+
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.ReplayTestsBase;
+import com.replaymod.replaystudio.io.ReplayInputStream;
+import com.replaymod.replaystudio.replay.ZipReplayFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class MergedPacketStreamTest extends ReplayTestsBase {
+    private final List<ZipReplayFile> replayFiles = new ArrayList<>();
+
+    @Before
+    public void setup() throws IOException {
+        replayFiles.add(new ZipReplayFile(studio, createReplay(blockChanges(500, 7))));
+        replayFiles.add(new ZipReplayFile(studio, createReplay(blockChanges(300, 11))));
+        replayFiles.add(new ZipReplayFile(studio, createReplay(blockChanges(200, 13))));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        for (ZipReplayFile replayFile : replayFiles) {
+            replayFile.close();
+        }
+    }
+
+    private List<ReplayInputStream> inputs() throws IOException {
+        List<ReplayInputStream> inputs = new ArrayList<>();
+        for (ZipReplayFile replayFile : replayFiles) {
+            inputs.add(replayFile.getPacketData(PLAY));
+        }
+        return inputs;
+    }
+
+    /**
+     * Merges the packets of all replays by their timestamp, keeping the order of the inputs for equal timestamps.
+     */
+    private List<String> expected(long[] offsets) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < replayFiles.size(); i++) {
+            result.addAll(between(readAll(replayFiles.get(i).getPacketData(PLAY)), 0, Long.MAX_VALUE, offsets[i]));
+        }
+        // List.sort is stable, so packets of the same time retain the order of their inputs
+        result.sort((a, b) -> Long.compare(time(a), time(b)));
+        return result;
+    }
+
+    private static long time(String packet) {
+        return Long.parseLong(packet.substring(0, packet.indexOf(' ')));
+    }
+
+    private static List<String> readAll(PacketStream stream) throws IOException {
+        List<String> result = new ArrayList<>();
+        stream.start();
+        PacketData data;
+        while ((data = stream.next()) != null) {
+            result.add(describe(data));
+            data.release();
+        }
+        for (PacketData remaining : stream.end()) {
+            result.add(describe(remaining));
+            remaining.release();
+        }
+        return result;
+    }
+
+    @Test
+    public void mergedByTime() throws Exception {
+        List<String> expected = expected(new long[3]);
+        assertEquals("Number of packets did not match", 1000, expected.size());
+        assertEquals("Packets were not merged in order", expected, readAll(new MergedPacketStream(inputs())));
+    }
+
+    @Test
+    public void mergedWithOffsets() throws Exception {
+        long[] offsets = {0, 1000, 2000};
+        assertEquals("Packets were not merged in order", expected(offsets),
+                readAll(new MergedPacketStream(inputs(), offsets)));
+    }
+
+    @Test
+    public void singleInput() throws Exception {
+        List<ReplayInputStream> inputs = new ArrayList<>();
+        inputs.add(replayFiles.get(0).getPacketData(PLAY));
+        assertEquals("Packets did not match", readAll(replayFiles.get(0).getPacketData(PLAY)),
+                readAll(new MergedPacketStream(inputs)));
+    }
+
+    @Test
+    public void closeBeforeEnd() throws Exception {
+        MergedPacketStream stream = new MergedPacketStream(inputs());
+        stream.start();
+        PacketData data = stream.next();
+        assertNotNull("First packet is missing", data);
+        data.release();
+        stream.close();
+        stream.close(); // Must not fail or release again
+    }
+}
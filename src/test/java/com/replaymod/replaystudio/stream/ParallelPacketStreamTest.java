@@ -0,0 +1,227 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.stream;
+
+import com.google.gson.JsonObject;
+import com.replaymod.replaystudio.PacketData;
+import com.replaymod.replaystudio.Studio;
+import com.replaymod.replaystudio.filter.StageSafeFilter;
+import com.replaymod.replaystudio.filter.StreamFilter;
+import com.replaymod.replaystudio.protocol.Packet;
+import com.replaymod.replaystudio.protocol.PacketType;
+import com.replaymod.replaystudio.protocol.PacketTypeRegistry;
+import com.replaymod.replaystudio.us.myles.ViaVersion.api.protocol.ProtocolVersion;
+import com.replaymod.replaystudio.us.myles.ViaVersion.packets.State;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelPacketStreamTest {
+    private static final PacketTypeRegistry REGISTRY = PacketTypeRegistry.get(ProtocolVersion.v1_12_2, State.PLAY);
+
+    private static PacketData packet(long time, PacketType type) {
+        return new PacketData(time, new Packet(REGISTRY, type));
+    }
+
+    private static List<PacketData> packets(int count) {
+        List<PacketData> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            packets.add(packet(i, i % 3 == 0 ? PacketType.KeepAlive : PacketType.Chat));
+        }
+        return packets;
+    }
+
+    private static List<String> readAll(PacketStream stream) throws IOException {
+        List<String> result = new ArrayList<>();
+        PacketData data;
+        while ((data = stream.next()) != null) {
+            result.add(data.getTime() + " " + data.getPacket().getType());
+            data.release();
+        }
+        for (PacketData remaining : stream.end()) {
+            result.add(remaining.getTime() + " " + remaining.getPacket().getType());
+            remaining.release();
+        }
+        return result;
+    }
+
+    private static abstract class TestFilter implements StreamFilter {
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void init(Studio studio, JsonObject config) {
+        }
+
+        @Override
+        public void onStart(PacketStream stream) {
+        }
+
+        @Override
+        public void onEnd(PacketStream stream, long timestamp) {
+        }
+    }
+
+    /**
+     * Removes all packets with odd timestamps.
+     */
+    private static class DropOdd extends TestFilter implements StageSafeFilter {
+        @Override
+        public boolean onPacket(PacketStream stream, PacketData data) {
+            return data.getTime() % 2 == 0;
+        }
+    }
+
+    /**
+     * Inserts a packet after every tenth packet and one at the end.
+     */
+    private static class Insert extends TestFilter {
+        @Override
+        public boolean onPacket(PacketStream stream, PacketData data) {
+            if (data.getTime() % 10 == 0) {
+                stream.insert(packet(data.getTime() + 1, PacketType.ChunkData));
+            }
+            return true;
+        }
+
+        @Override
+        public void onEnd(PacketStream stream, long timestamp) {
+            stream.insert(packet(timestamp, PacketType.Respawn));
+        }
+    }
+
+    /**
+     * Removes all Chat packets, on a thread of its own.
+     */
+    private static class DropChat extends TestFilter implements StageSafeFilter {
+        @Override
+        public boolean onPacket(PacketStream stream, PacketData data) {
+            return data.getPacket().getType() != PacketType.Chat;
+        }
+    }
+
+    private static void addFilters(PacketStream stream) {
+        stream.addFilter(new DropOdd());
+        stream.addFilter(new Insert());
+        stream.addFilter(new Insert());
+        stream.addFilter(new DropChat(), 1000, 2000);
+    }
+
+    @Test
+    public void sameAsSequential() throws Exception {
+        AbstractPacketStream sequential = AbstractPacketStream.of(new ConcurrentLinkedQueue<>(packets(10000))::poll);
+        addFilters(sequential);
+        sequential.start();
+        List<String> expected = readAll(sequential);
+
+        try (ParallelPacketStream parallel = new ParallelPacketStream(
+                AbstractPacketStream.of(new ConcurrentLinkedQueue<>(packets(10000))::poll))) {
+            addFilters(parallel);
+            parallel.start();
+            assertEquals("Packets did not match", expected, readAll(parallel));
+        }
+    }
+
+    @Test
+    public void batchSameAsSequential() throws Exception {
+        AbstractPacketStream sequential = AbstractPacketStream.of(new ConcurrentLinkedQueue<>(packets(10000))::poll);
+        addFilters(sequential);
+        sequential.start();
+        List<String> expected = readAll(sequential);
+
+        List<String> actual = new ArrayList<>();
+        try (ParallelPacketStream parallel = new ParallelPacketStream(
+                AbstractPacketStream.of(new ConcurrentLinkedQueue<>(packets(10000))::poll))) {
+            addFilters(parallel);
+            parallel.start();
+            PacketData[] batch = new PacketData[100];
+            int count;
+            while ((count = parallel.next(batch)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    actual.add(batch[i].getTime() + " " + batch[i].getPacket().getType());
+                    batch[i].release();
+                }
+            }
+            actual.addAll(readAll(parallel));
+        }
+        assertEquals("Packets did not match", expected, actual);
+    }
+
+    @Test
+    public void closeReleasesQueuedPackets() throws Exception {
+        List<PacketData> packets = packets(100000);
+        Queue<PacketData> input = new ConcurrentLinkedQueue<>(packets);
+        ParallelPacketStream parallel = new ParallelPacketStream(AbstractPacketStream.of(input::poll));
+        parallel.addFilter(new DropChat());
+        parallel.start();
+        PacketData first = parallel.next();
+        assertNotNull("First packet is missing", first);
+        first.release();
+        Thread.sleep(100); // let the stages fill their queues
+        parallel.close();
+
+        for (PacketData data : packets) {
+            if (!input.contains(data)) {
+                assertEquals("Packet at " + data.getTime() + " was not released",
+                        0, data.getPacket().getBuf().refCnt());
+            }
+        }
+        parallel.close(); // Must not fail or release again
+    }
+
+    @Test
+    public void failurePropagates() throws Exception {
+        try (ParallelPacketStream parallel = new ParallelPacketStream(
+                AbstractPacketStream.of(new ConcurrentLinkedQueue<>(packets(10000))::poll))) {
+            parallel.addFilter(new DropChat() {
+                @Override
+                public boolean onPacket(PacketStream stream, PacketData data) {
+                    if (data.getTime() == 5000) {
+                        throw new IllegalStateException("Test");
+                    }
+                    return super.onPacket(stream, data);
+                }
+            });
+            parallel.start();
+            try {
+                readAll(parallel);
+                fail("Failure of stage was not propagated");
+            } catch (IOException e) {
+                assertTrue("Wrong cause: " + e.getCause(), e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongLongHashMapTest {
+    @Test
+    public void putGetRemove() throws Exception {
+        LongLongHashMap map = new LongLongHashMap();
+        assertEquals("Missing key did not return default", -1, map.get(1, -1));
+        map.put(1, 0);
+        assertTrue("Key is missing", map.containsKey(1));
+        assertEquals("Zero value was not stored", 0, map.get(1, -1));
+        map.put(1, 5);
+        assertEquals("Value was not replaced", 5, map.get(1, -1));
+        assertEquals("Size did not match", 1, map.size());
+
+        assertTrue("Removal of present key returned false", map.remove(1));
+        assertFalse("Removal of missing key returned true", map.remove(1));
+        assertTrue("Map was not empty", map.isEmpty());
+    }
+
+    @Test
+    public void randomOperations() throws Exception {
+        Random random = new Random(0);
+        LongLongHashMap map = new LongLongHashMap();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            long key = ((long) random.nextInt(64) << 32) | random.nextInt(32);
+            long value = random.nextLong();
+            switch (random.nextInt(3)) {
+                case 0:
+                    map.put(key, value);
+                    expected.put(key, value);
+                    break;
+                case 1:
+                    assertEquals("remove returned wrong result", expected.remove(key) != null, map.remove(key));
+                    break;
+                default:
+                    Long expectedValue = expected.get(key);
+                    assertEquals("get returned wrong value", expectedValue != null ? expectedValue : -1,
+                            map.get(key, -1));
+            }
+            assertEquals("Size did not match", expected.size(), map.size());
+        }
+
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        long[] expectedKeys = expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        assertArrayEquals("keys() did not match", expectedKeys, keys);
+
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach((key, value) -> assertNull("Key " + key + " visited twice", actual.put(key, value)));
+        assertEquals("forEach did not visit all entries", expected, actual);
+
+        LongLongHashMap copy = new LongLongHashMap();
+        copy.put(Long.MIN_VALUE, 1);
+        copy.putAll(map);
+        assertEquals("putAll did not copy all entries", expected.size() + 1, copy.size());
+        expected.forEach((key, value) -> assertEquals("putAll did not copy " + key, (long) value, copy.get(key, -1)));
+
+        map.clear();
+        assertTrue("Map was not empty after clear", map.isEmpty());
+        assertEquals("keys() was not empty after clear", 0, map.keys().length);
+    }
+}
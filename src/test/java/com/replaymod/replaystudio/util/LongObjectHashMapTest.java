@@ -0,0 +1,138 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LongObjectHashMapTest {
+    @Test
+    public void putGetRemove() throws Exception {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        assertNull("Empty map returned value", map.put(1, "a"));
+        assertEquals("Previous value was not returned", "a", map.put(1, "b"));
+        assertEquals("Value was not replaced", "b", map.get(1));
+        assertEquals("Size did not match", 1, map.size());
+
+        assertEquals("Removed value was not returned", "b", map.remove(1));
+        assertNull("Removed key still present", map.get(1));
+        assertNull("Missing key returned value", map.remove(1));
+        assertTrue("Map was not empty", map.isEmpty());
+    }
+
+    @Test
+    public void extremeKeys() throws Exception {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        long[] keys = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, -(1L << 32)};
+        for (long key : keys) {
+            map.put(key, Long.toString(key));
+        }
+        for (long key : keys) {
+            assertTrue("Key " + key + " is missing", map.containsKey(key));
+            assertEquals("Value for key " + key + " did not match", Long.toString(key), map.get(key));
+        }
+        assertEquals("Size did not match", keys.length, map.size());
+    }
+
+    @Test
+    public void removeKeepsCollidingKeys() throws Exception {
+        // Chunk coordinates which only differ in their upper half are likely to end up in the same probe sequence
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long key = (long) i << 32;
+            keys.add(key);
+            map.put(key, key);
+        }
+        for (int i = 0; i < keys.size(); i += 2) {
+            map.remove(keys.get(i));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            long key = keys.get(i);
+            if (i % 2 == 0) {
+                assertFalse("Removed key " + key + " is still present", map.containsKey(key));
+            } else {
+                assertEquals("Key " + key + " was lost by removal of another key", (Long) key, map.get(key));
+            }
+        }
+        assertEquals("Size did not match", keys.size() / 2, map.size());
+    }
+
+    @Test
+    public void computeIfAbsent() throws Exception {
+        LongObjectHashMap<Object> map = new LongObjectHashMap<>();
+        Object value = map.computeIfAbsent(42, key -> new Object());
+        assertSame("Existing value was not returned", value, map.computeIfAbsent(42, key -> new Object()));
+        assertEquals("Size did not match", 1, map.size());
+    }
+
+    @Test
+    public void randomOperations() throws Exception {
+        Random random = new Random(0);
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            long value = random.nextLong();
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals("put returned wrong previous value", expected.put(key, value), map.put(key, value));
+                    break;
+                case 1:
+                    assertEquals("remove returned wrong value", expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals("get returned wrong value", expected.get(key), map.get(key));
+            }
+            assertEquals("Size did not match", expected.size(), map.size());
+        }
+
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach((key, value) -> assertNull("Key " + key + " visited twice", actual.put(key, value)));
+        assertEquals("forEach did not visit all entries", expected, actual);
+        assertEquals("values() did not match", expected.size(), map.values().size());
+        assertTrue("values() did not match", new ArrayList<>(map.values()).containsAll(expected.values()));
+
+        LongObjectHashMap<Long> copy = new LongObjectHashMap<>();
+        copy.putAll(map);
+        assertEquals("putAll did not copy all entries", expected.size(), copy.size());
+        expected.forEach((key, value) -> assertEquals("putAll did not copy " + key, value, copy.get(key)));
+
+        map.clear();
+        assertTrue("Map was not empty after clear", map.isEmpty());
+        assertFalse("Map still contained values after clear", map.values().iterator().hasNext());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.util;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+    @Test
+    public void counter() {
+        Metrics.Counter counter = Metrics.counter("test.counter");
+        long before = counter.get();
+        counter.add(3);
+        Metrics.counter("test.counter").add(4);
+        assertEquals("Counter was not shared by name", before + 7, counter.get());
+        assertEquals("Snapshot did not match", (Long) (before + 7), Metrics.snapshot().get("test.counter"));
+    }
+
+    @Test
+    public void timerPercentiles() {
+        Metrics.Timer timer = Metrics.timer("test.timer.percentiles");
+        assertEquals("Empty timer has percentile", 0, timer.getPercentileNanos(0.5));
+        for (int i = 0; i < 99; i++) {
+            timer.record(1000);
+        }
+        timer.record(1000000);
+        assertEquals("Count did not match", 100, timer.getCount());
+        assertEquals("Total did not match", 99 * 1000 + 1000000, timer.getTotalNanos());
+        assertEquals("Median not in bucket of its value", 1024, timer.getPercentileNanos(0.5));
+        assertEquals("99th percentile not in bucket of its value", 1024, timer.getPercentileNanos(0.99));
+        assertEquals("Maximum not in bucket of its value", 1L << 20, timer.getPercentileNanos(1));
+    }
+
+    @Test
+    public void timerExtremes() {
+        Metrics.Timer timer = Metrics.timer("test.timer.extremes");
+        timer.record(-5);
+        assertEquals("Negative duration was not clamped", 1, timer.getPercentileNanos(1));
+        timer.record(Long.MAX_VALUE);
+        assertEquals("Longest duration did not match", Long.MAX_VALUE, timer.getPercentileNanos(1));
+    }
+
+    @Test
+    public void snapshotAndDump() {
+        Metrics.gauge("test.gauge", () -> 42);
+        Metrics.timer("test.timer.dump").record(2000000);
+        Map<String, Long> snapshot = Metrics.snapshot();
+        assertEquals("Gauge did not match", (Long) 42L, snapshot.get("test.gauge"));
+        assertEquals("Timer count did not match", (Long) 1L, snapshot.get("test.timer.dump.count"));
+        assertEquals("Timer total did not match", (Long) 2L, snapshot.get("test.timer.dump.totalMs"));
+        assertTrue("Dump did not contain gauge", Metrics.dump().contains("test.gauge 42\n"));
+    }
+}
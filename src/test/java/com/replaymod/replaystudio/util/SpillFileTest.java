@@ -0,0 +1,84 @@
+/*
+ * This file is part of ReplayStudio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016 johni0702 <https://github.com/johni0702>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.replaymod.replaystudio.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SpillFileTest {
+    @Test
+    public void roundTrip() throws Exception {
+        Random random = new Random(0);
+        List<byte[]> records = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        try (SpillFile file = SpillFile.create()) {
+            long size = 0;
+            for (int i = 0; i < 100; i++) {
+                byte[] record = new byte[i % 10 == 0 ? 0 : random.nextInt(10000)];
+                random.nextBytes(record);
+                records.add(record);
+                offsets.add(file.write(record));
+                size += 4 + record.length;
+            }
+            assertEquals("Size did not match", size, file.size());
+
+            // Records must be readable in any order
+            for (int i = records.size() - 1; i >= 0; i--) {
+                assertArrayEquals("Record " + i + " did not match", records.get(i), file.read(offsets.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void closedOnceAllReferencesAreClosed() throws Exception {
+        SpillFile file = SpillFile.create();
+        long offset = file.write(new byte[]{1, 2, 3});
+        file.retain();
+
+        file.close();
+        assertArrayEquals("Record was not readable while still retained", new byte[]{1, 2, 3}, file.read(offset));
+
+        file.close();
+        try {
+            file.read(offset);
+            fail("Record was readable after the file was closed");
+        } catch (IOException expected) {
+        }
+        try {
+            file.retain();
+            fail("Closed file could be retained");
+        } catch (IllegalStateException expected) {
+        }
+        file.close(); // Must not fail
+    }
+}